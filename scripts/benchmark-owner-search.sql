@@ -0,0 +1,102 @@
+-- title           :benchmark-owner-search.sql
+-- description     :Owner search latency on 50k generated questionnaires, before and after
+--                  the jsonb migration (db/migration/V2__pogues_jsonb.sql), and full-text search
+--                  latency (db/migration/V6__pogues_search.sql), total counted over every match
+--                  or capped
+-- usage           :psql -d <scratch database> -f scripts/benchmark-owner-search.sql
+-- =============================================================================
+-- Works on its own bench_pogues table, never on the application tables.
+
+\timing on
+\set ON_ERROR_STOP on
+
+DROP TABLE IF EXISTS bench_pogues;
+CREATE TABLE bench_pogues (
+    id   text PRIMARY KEY,
+    data json
+);
+
+-- 50k questionnaires spread over 200 stamps, each with 40 sequences to get realistic document sizes
+INSERT INTO bench_pogues (id, data)
+SELECT 'q' || i, json_build_object(
+        'id', 'q' || i,
+        'owner', 'STAMP-' || (i % 200),
+        'Name', 'QUEST' || i,
+        'Label', json_build_array('Questionnaire ' || i),
+        'lastUpdatedDate', now()::text,
+        'final', false,
+        'DataCollection', json_build_array(json_build_object('id', 'dc' || (i % 50))),
+        'TargetMode', json_build_array('CAWI', 'PAPI'),
+        'flowLogic', 'FILTER',
+        'formulasLanguage', 'VTL',
+        'child', (SELECT json_agg(json_build_object(
+                        'id', 'seq' || i || '-' || s,
+                        'Label', json_build_array(repeat('Lorem ipsum dolor sit amet ', 20))))
+                  FROM generate_series(1, 40) s))
+FROM generate_series(1, 50000) i;
+ANALYZE bench_pogues;
+
+\echo '=== Before: json column, no index ==='
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT data FROM bench_pogues WHERE data ->> 'owner' = 'STAMP-42';
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT data -> 'id', data -> 'Name', data -> 'Label' FROM bench_pogues WHERE data ->> 'owner' = 'STAMP-42';
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT DISTINCT data ->> 'owner' FROM bench_pogues WHERE data ->> 'owner' IS NOT NULL;
+
+-- Same statements as V2__pogues_jsonb.sql
+ALTER TABLE bench_pogues ALTER COLUMN data TYPE jsonb USING data::jsonb;
+CREATE INDEX bench_pogues_owner_idx ON bench_pogues ((data ->> 'owner'));
+CREATE INDEX bench_pogues_data_idx ON bench_pogues USING gin (data jsonb_path_ops);
+ANALYZE bench_pogues;
+
+\echo '=== After: jsonb column, owner expression index and GIN index ==='
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT data FROM bench_pogues WHERE data ->> 'owner' = 'STAMP-42';
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT data -> 'id', data -> 'Name', data -> 'Label' FROM bench_pogues WHERE data ->> 'owner' = 'STAMP-42';
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT DISTINCT data ->> 'owner' FROM bench_pogues WHERE data ->> 'owner' IS NOT NULL;
+
+-- Full-text index as V6__pogues_search.sql builds it (the generated questionnaires have neither variables nor
+-- code lists): 'que:*' matches every questionnaire, 'quest4242:*' a few ones
+ALTER TABLE bench_pogues ADD COLUMN search tsvector;
+UPDATE bench_pogues SET search =
+        setweight(to_tsvector('simple', concat_ws(' ', data ->> 'Name', data #>> '{Label,0}')), 'A')
+        || setweight(to_tsvector('simple', data #>> '{DataCollection,0,id}'), 'B');
+CREATE INDEX bench_pogues_search_idx ON bench_pogues USING gin (search);
+ANALYZE bench_pogues;
+
+\set prefix 'que:*'
+\echo '=== Full-text search of a common prefix: total over every match ==='
+EXPLAIN (ANALYZE, BUFFERS)
+WITH matches AS (SELECT id, ts_rank(search, query) AS rank FROM bench_pogues, to_tsquery('simple', :'prefix') query
+                 WHERE search @@ query),
+     page AS (SELECT id, rank FROM matches ORDER BY rank DESC, id LIMIT 20 OFFSET 0)
+SELECT (SELECT count(*) FROM matches), (SELECT jsonb_agg(page.id) FROM page);
+\echo '=== Full-text search of a common prefix: total capped to 10000 ==='
+EXPLAIN (ANALYZE, BUFFERS)
+WITH query AS (SELECT to_tsquery('simple', :'prefix') AS query),
+     page AS (SELECT id, ts_rank(search, query) AS rank FROM bench_pogues, query WHERE search @@ query
+              ORDER BY rank DESC, id LIMIT 20 OFFSET 0),
+     counted AS (SELECT count(*) AS total FROM (SELECT 1 FROM bench_pogues, query WHERE search @@ query
+                                                LIMIT 10001) capped)
+SELECT least(counted.total, 10000), (SELECT jsonb_agg(page.id) FROM page) FROM counted;
+
+\set prefix 'quest4242:*'
+\echo '=== Full-text search of a selective prefix: total over every match ==='
+EXPLAIN (ANALYZE, BUFFERS)
+WITH matches AS (SELECT id, ts_rank(search, query) AS rank FROM bench_pogues, to_tsquery('simple', :'prefix') query
+                 WHERE search @@ query),
+     page AS (SELECT id, rank FROM matches ORDER BY rank DESC, id LIMIT 20 OFFSET 0)
+SELECT (SELECT count(*) FROM matches), (SELECT jsonb_agg(page.id) FROM page);
+\echo '=== Full-text search of a selective prefix: total capped to 10000 ==='
+EXPLAIN (ANALYZE, BUFFERS)
+WITH query AS (SELECT to_tsquery('simple', :'prefix') AS query),
+     page AS (SELECT id, ts_rank(search, query) AS rank FROM bench_pogues, query WHERE search @@ query
+              ORDER BY rank DESC, id LIMIT 20 OFFSET 0),
+     counted AS (SELECT count(*) AS total FROM (SELECT 1 FROM bench_pogues, query WHERE search @@ query
+                                                LIMIT 10001) capped)
+SELECT least(counted.total, 10000), (SELECT jsonb_agg(page.id) FROM page) FROM counted;
+
+DROP TABLE bench_pogues;
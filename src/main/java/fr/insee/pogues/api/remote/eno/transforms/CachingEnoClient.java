@@ -0,0 +1,181 @@
+package fr.insee.pogues.api.remote.eno.transforms;
+
+import fr.insee.pogues.utils.Hashes;
+import org.apache.commons.io.output.TeeOutputStream;
+import org.apache.http.client.ClientProtocolException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+
+/**
+ * Eno client answering the in-memory transformations from the {@link EnoResultCache} when their input has already
+ * been transformed: Eno transformations being deterministic, an unchanged questionnaire is not transformed again.
+ * The input is hashed while it is spooled to a temporary file, from which Eno is called on a miss; the result is
+ * written to the output while Eno sends it, and cached once complete unless it is larger than the maximum size of an
+ * entry (it is no longer buffered past this size). The file transformations are not cached.
+ */
+@Service
+@Primary
+public class CachingEnoClient implements EnoClient {
+
+	@Autowired
+	EnoClientImpl enoClient;
+
+	@Autowired
+	EnoResultCache cache;
+
+	@FunctionalInterface
+	interface EnoCall {
+		void apply(InputStream input, OutputStream output) throws URISyntaxException, IOException;
+	}
+
+	@Override
+	public void getXMLPoguesToDDI(InputStream input, OutputStream output) throws URISyntaxException, IOException {
+		cached("poguesxml-2-ddi", input, output, enoClient::getXMLPoguesToDDI);
+	}
+
+	@Override
+	public void getDDIToODT(InputStream input, OutputStream output) throws URISyntaxException, IOException {
+		cached("fodt", input, output, enoClient::getDDIToODT);
+	}
+
+	@Override
+	public void getDDIToFO(InputStream input, OutputStream output) throws URISyntaxException, IOException {
+		cached("fo", input, output, enoClient::getDDIToFO);
+	}
+
+	@Override
+	public void getDDITOLunaticJSON(InputStream input, OutputStream output, Map<String, Object> params) throws URISyntaxException, IOException {
+		cached("lunatic-json/" + params.get("mode"), input, output,
+				(in, out) -> enoClient.getDDITOLunaticJSON(in, out, params));
+	}
+
+	@Override
+	public void getDDITOXForms(InputStream input, OutputStream output) throws URISyntaxException, IOException {
+		cached("xforms", input, output, enoClient::getDDITOXForms);
+	}
+
+	private void cached(String transformation, InputStream input, OutputStream output, EnoCall call)
+			throws URISyntaxException, IOException {
+		if (!cache.isEnabled()) {
+			call.apply(input, output);
+			return;
+		}
+		MessageDigest digest = Hashes.sha256Digest(transformation);
+		Path spooled = Files.createTempFile("eno-input-", ".tmp");
+		try {
+			try (OutputStream document = Files.newOutputStream(spooled)) {
+				new DigestInputStream(input, digest).transferTo(document);
+			}
+			String key = Hashes.hex(digest);
+			byte[] result = cache.get(key);
+			if (result != null) {
+				output.write(result);
+				return;
+			}
+			CappedBuffer buffer = new CappedBuffer(cache.getMaxEntryBytes());
+			try (InputStream document = Files.newInputStream(spooled)) {
+				call.apply(document, new TeeOutputStream(output, buffer));
+			}
+			if (!buffer.isOverflowed()) {
+				cache.put(key, buffer.toByteArray());
+			}
+		} finally {
+			Files.deleteIfExists(spooled);
+		}
+	}
+
+	/** Copy of the result, given up (and released) once larger than the maximum size of a cached result. */
+	static class CappedBuffer extends OutputStream {
+
+		private final long maxBytes;
+		private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+		CappedBuffer(long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		@Override
+		public void write(int b) {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			if (buffer == null) {
+				return;
+			}
+			if (buffer.size() + (long) len > maxBytes) {
+				buffer = null;
+				return;
+			}
+			buffer.write(b, off, len);
+		}
+
+		boolean isOverflowed() {
+			return buffer == null;
+		}
+
+		byte[] toByteArray() {
+			return buffer.toByteArray();
+		}
+	}
+
+	@Override
+	public String getDDI32ToDDI33(File fileInput) throws Exception {
+		return enoClient.getDDI32ToDDI33(fileInput);
+	}
+
+	@Override
+	public String getDDIToODT(File fileInput) throws Exception {
+		return enoClient.getDDIToODT(fileInput);
+	}
+
+	@Override
+	public String getXMLPoguesToDDI(File fileInput) throws Exception {
+		return enoClient.getXMLPoguesToDDI(fileInput);
+	}
+
+	@Override
+	public String getDDIToPDF(File fileInput) throws URISyntaxException, ClientProtocolException, IOException {
+		return enoClient.getDDIToPDF(fileInput);
+	}
+
+	@Override
+	public String getDDIToFO(File fileInput) throws URISyntaxException, ClientProtocolException, IOException {
+		return enoClient.getDDIToFO(fileInput);
+	}
+
+	@Override
+	public String getDDITOLunaticXML(File fileInput) throws URISyntaxException, ClientProtocolException, IOException {
+		return enoClient.getDDITOLunaticXML(fileInput);
+	}
+
+	@Override
+	public String getDDITOLunaticJSON(File fileInput, Map<String, Object> params) throws URISyntaxException, ClientProtocolException, IOException {
+		return enoClient.getDDITOLunaticJSON(fileInput, params);
+	}
+
+	@Override
+	public String getDDITOXForms(File fileInput) throws URISyntaxException, ClientProtocolException, IOException {
+		return enoClient.getDDITOXForms(fileInput);
+	}
+
+	@Override
+	public void getParameters() throws Exception {
+		enoClient.getParameters();
+	}
+
+}
@@ -2,6 +2,8 @@ package fr.insee.pogues.api.remote.eno.transforms;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.util.Map;
 
@@ -34,4 +36,19 @@ public interface EnoClient {
 	
 	void getParameters () throws Exception;
 
+	/*
+	 * In-memory variants: the input is streamed as the multipart body and the response is written to the output,
+	 * without any local file.
+	 */
+
+	void getXMLPoguesToDDI (InputStream input, OutputStream output) throws URISyntaxException, IOException;
+
+	void getDDIToODT (InputStream input, OutputStream output) throws URISyntaxException, IOException;
+
+	void getDDIToFO (InputStream input, OutputStream output) throws URISyntaxException, IOException;
+
+	void getDDITOLunaticJSON (InputStream input, OutputStream output, Map<String, Object> params) throws URISyntaxException, IOException;
+
+	void getDDITOXForms (InputStream input, OutputStream output) throws URISyntaxException, IOException;
+
 }
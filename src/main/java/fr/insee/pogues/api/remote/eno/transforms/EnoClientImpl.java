@@ -11,17 +11,18 @@ import java.util.Map;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
@@ -38,95 +39,78 @@ public class EnoClientImpl implements EnoClient{
 	
 	@Value("${fr.insee.pogues.api.remote.eno.scheme}")
 	String enoScheme;
+
+	@Autowired
+	@Qualifier("enoHttpClient")
+	CloseableHttpClient httpClient;
 	
 	private static final String FORMAT = "UTF-8";
 	private static final String BASE_PATH = "/questionnaire/DEFAULT";
 	private static final String MODE = "CAWI";
+	private static final String ENO_INPUT_NAME = "eno.xml";
 	
 	@Override
 	public String getDDI32ToDDI33 (File fileInput) throws Exception{
-		HttpEntity entityResponse = callEnoApi(fileInput, "/questionnaire/ddi32-2-ddi33");
-        return EntityUtils.toString(entityResponse, FORMAT);
+		return callEnoApi(fileInput, "/questionnaire/ddi32-2-ddi33");
 	};
 	
 
 	@Override
 	public String getXMLPoguesToDDI (File fileInput) throws Exception{
-		HttpEntity entityResponse = callEnoApi(fileInput, "/questionnaire/poguesxml-2-ddi");
-        return EntityUtils.toString(entityResponse, FORMAT);
+		return callEnoApi(fileInput, "/questionnaire/poguesxml-2-ddi");
 	};
 	
 	@Override
 	public String getDDIToPDF (File fileInput) throws URISyntaxException, ClientProtocolException, IOException{
-		URIBuilder uriBuilder = new URIBuilder();
-		uriBuilder.setScheme(enoScheme).setHost(enoHost).setPath(BASE_PATH+"/pdf");
-		
-		CloseableHttpClient httpclient = HttpClients.createDefault();		
-		HttpPost post = new HttpPost(uriBuilder.build());
-		MultipartEntityBuilder builder = MultipartEntityBuilder.create();
-		builder.addBinaryBody("in", fileInput, ContentType.DEFAULT_BINARY, fileInput.getName());
-		HttpEntity entity = builder.build();
-		post.setEntity(entity);
-		HttpResponse response = httpclient.execute(post);
-		HttpEntity entityResponse = response.getEntity();
 		String outFilePath = FilenameUtils.removeExtension(fileInput.getPath()) + ".pdf";
 		logger.debug("Output file : " + outFilePath);
 		File outFilePDF = new File(outFilePath);	
-		if (entityResponse != null) {
-		    InputStream inputStream = entityResponse.getContent();
-		    OutputStream outputStream = new FileOutputStream(outFilePDF);
-		    IOUtils.copy(inputStream, outputStream);
-		    outputStream.close();
+		try (CloseableHttpResponse response = httpClient.execute(enoPost(fileInput, BASE_PATH+"/pdf"))) {
+			HttpEntity entityResponse = response.getEntity();
+			if (entityResponse != null) {
+				try (InputStream inputStream = entityResponse.getContent();
+					 OutputStream outputStream = new FileOutputStream(outFilePDF)) {
+					IOUtils.copy(inputStream, outputStream);
+				}
+			}
 		}
         return outFilePDF.getAbsolutePath();
 	};
 	
 	@Override
 	public String getDDIToFO(File fileInput) throws URISyntaxException, ClientProtocolException, IOException {
-		HttpEntity entityResponse = callEnoApi(fileInput, BASE_PATH+"/fo");
-        return EntityUtils.toString(entityResponse, FORMAT);
+		return callEnoApi(fileInput, BASE_PATH+"/fo");
 	}
 	
 	@Override
 	public String getDDITOLunaticXML(File fileInput) throws URISyntaxException, ClientProtocolException, IOException {
-		HttpEntity entityResponse = callEnoApi(fileInput, BASE_PATH+"/lunatic-xml");
-        return EntityUtils.toString(entityResponse, FORMAT);
+		return callEnoApi(fileInput, BASE_PATH+"/lunatic-xml");
 	}
 	
 	@Override
 	public String getDDITOLunaticJSON(File fileInput, Map<String, Object> params) throws URISyntaxException, ClientProtocolException, IOException {
-		String WSPath;
+		return callEnoApi(fileInput, lunaticJSONPath(params));
+	}
 
+	private String lunaticJSONPath(Map<String, Object> params) {
+		String WSPath;
 		if (params.get("mode") != null) {
 			WSPath = BASE_PATH+"/lunatic-json/"+params.get("mode").toString();
 			logger.info("Url for DDI to Lunatic transformation : "+WSPath);
 		} else {
 			WSPath = BASE_PATH+"/lunatic-json/"+MODE;
 		}
-		URIBuilder uriBuilder = new URIBuilder();
-		uriBuilder.setScheme(enoScheme).setHost(enoHost).setPath(WSPath);
-		CloseableHttpClient httpclient = HttpClients.createDefault();		
-		HttpPost post = new HttpPost(uriBuilder.build());
-		logger.info("Calling Eno URL : "+uriBuilder.build().toString());
-		MultipartEntityBuilder builder = MultipartEntityBuilder.create();
-		builder.addBinaryBody("in", fileInput, ContentType.DEFAULT_BINARY, fileInput.getName());
-		HttpEntity entity = builder.build();
-		post.setEntity(entity);
-		HttpResponse response = httpclient.execute(post);
-		HttpEntity entityResponse = response.getEntity();
-        return EntityUtils.toString(entityResponse, FORMAT);
+		return WSPath;
 	}
 	
 	@Override
 	public String getDDITOXForms(File fileInput) throws URISyntaxException, ClientProtocolException, IOException {
-		HttpEntity entityResponse = callEnoApi(fileInput, BASE_PATH+"/xforms");
-        return EntityUtils.toString(entityResponse, FORMAT);
+		return callEnoApi(fileInput, BASE_PATH+"/xforms");
 	}
 	
 	@Override
 	public String getDDIToODT (File fileInput) throws Exception{
-		HttpEntity entityResponse = callEnoApi(fileInput, BASE_PATH+"/fodt");
-        return EntityUtils.toString(entityResponse, FORMAT);
+		return callEnoApi(fileInput, BASE_PATH+"/fodt");
 	};
 	
 	
@@ -140,20 +124,75 @@ public class EnoClientImpl implements EnoClient{
 	    ResponseEntity<String> result = restTemplate.exchange(uriBuilder.build(), HttpMethod.GET, null, String.class);
 	};
 	
-	private HttpEntity callEnoApi(File fileInput, String WSPath) throws URISyntaxException, ClientProtocolException, IOException {
+	@Override
+	public void getXMLPoguesToDDI(InputStream input, OutputStream output) throws URISyntaxException, IOException {
+		callEnoApi(input, output, "/questionnaire/poguesxml-2-ddi");
+	}
+
+	@Override
+	public void getDDIToODT(InputStream input, OutputStream output) throws URISyntaxException, IOException {
+		callEnoApi(input, output, BASE_PATH+"/fodt");
+	}
+
+	@Override
+	public void getDDIToFO(InputStream input, OutputStream output) throws URISyntaxException, IOException {
+		callEnoApi(input, output, BASE_PATH+"/fo");
+	}
+
+	@Override
+	public void getDDITOLunaticJSON(InputStream input, OutputStream output, Map<String, Object> params) throws URISyntaxException, IOException {
+		callEnoApi(input, output, lunaticJSONPath(params));
+	}
+
+	@Override
+	public void getDDITOXForms(InputStream input, OutputStream output) throws URISyntaxException, IOException {
+		callEnoApi(input, output, BASE_PATH+"/xforms");
+	}
+
+	/**
+	 * Streams the input to the Eno API and the response to the output, which releases the connection to the pool.
+	 * An error response is not written: it must neither be taken for a result nor be cached as such.
+	 */
+	private void callEnoApi(InputStream input, OutputStream output, String WSPath) throws URISyntaxException, IOException {
+		MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+		builder.addBinaryBody("in", input, ContentType.DEFAULT_BINARY, ENO_INPUT_NAME);
+		try (CloseableHttpResponse response = httpClient.execute(enoPost(builder.build(), WSPath))) {
+			HttpEntity entityResponse = response.getEntity();
+			if (entityResponse == null) {
+				throw new IOException(String.format("Empty response from Eno (%s)", WSPath));
+			}
+			int status = response.getStatusLine().getStatusCode();
+			if (status >= 300) {
+				EntityUtils.consumeQuietly(entityResponse);
+				throw new IOException(String.format("Eno error %d (%s)", status, WSPath));
+			}
+			entityResponse.writeTo(output);
+		}
+	}
+
+	/**
+	 * Posts the file to the Eno API and reads the whole response, which releases the connection to the pool.
+	 */
+	private String callEnoApi(File fileInput, String WSPath) throws URISyntaxException, ClientProtocolException, IOException {
+		try (CloseableHttpResponse response = httpClient.execute(enoPost(fileInput, WSPath))) {
+			return EntityUtils.toString(response.getEntity(), FORMAT);
+		}
+	}
+
+	private HttpPost enoPost(File fileInput, String WSPath) throws URISyntaxException {
+		MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+		builder.addBinaryBody("in", fileInput, ContentType.DEFAULT_BINARY, fileInput.getName());
+		return enoPost(builder.build(), WSPath);
+	}
+
+	private HttpPost enoPost(HttpEntity entity, String WSPath) throws URISyntaxException {
 		URIBuilder uriBuilder = new URIBuilder();
 		uriBuilder.setScheme(enoScheme).setHost(enoHost).setPath(WSPath);
-		
-		CloseableHttpClient httpclient = HttpClients.createDefault();		
 		HttpPost post = new HttpPost(uriBuilder.build());
-		MultipartEntityBuilder builder = MultipartEntityBuilder.create();
-		builder.addBinaryBody("in", fileInput, ContentType.DEFAULT_BINARY, fileInput.getName());
-		HttpEntity entity = builder.build();
+		logger.debug("Calling Eno URL : {}", post.getURI());
 		post.setEntity(entity);
-		HttpResponse response = httpclient.execute(post);
-		return response.getEntity();
+		return post;
 	}
 
 
 }
-
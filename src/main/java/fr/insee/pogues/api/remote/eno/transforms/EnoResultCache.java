@@ -0,0 +1,333 @@
+package fr.insee.pogues.api.remote.eno.transforms;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fr.insee.pogues.utils.Hashes;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Results of the Eno transformations, addressed by the hash of the transformation and of its input: a result is
+ * valid as long as the Eno version is unchanged, the cache has to be flushed when Eno is upgraded.
+ * Results are kept in memory up to a total size, the least recently used ones being evicted first, and optionally
+ * on disk (surviving restarts), up to a total size as well. The disk tier is indexed by the instance at startup and
+ * then by its own writes only: each instance needs a directory of its own, never shared with another one.
+ * Disk failures are logged and handled as misses: the cache never fails a transformation.
+ */
+@Component
+public class EnoResultCache implements MeterBinder {
+
+    private static final Logger logger = LogManager.getLogger(EnoResultCache.class);
+
+    private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+    @Value("${fr.insee.pogues.api.remote.eno.cache.enabled:true}")
+    boolean enabled;
+
+    @Value("${fr.insee.pogues.api.remote.eno.cache.memory.max-bytes:134217728}")
+    long memoryMaxBytes;
+
+    /** Results larger than this are not cached (nor buffered to be). */
+    @Value("${fr.insee.pogues.api.remote.eno.cache.max-entry-bytes:16777216}")
+    long maxEntryBytes;
+
+    /** Directory of the disk tier (one per instance), no disk tier if empty. */
+    @Value("${fr.insee.pogues.api.remote.eno.cache.disk.path:}")
+    String diskPath;
+
+    @Value("${fr.insee.pogues.api.remote.eno.cache.disk.max-bytes:1073741824}")
+    long diskMaxBytes;
+
+    private Cache<String, byte[]> memory;
+
+    private Path directory;
+    /** Sizes of the files of the disk tier, in access order (least recently used first). */
+    private final LinkedHashMap<String, Long> diskIndex = new LinkedHashMap<>(16, 0.75f, true);
+    private long diskBytes;
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @PostConstruct
+    void init() throws IOException {
+        memory = Caffeine.newBuilder()
+                .maximumWeight(memoryMaxBytes)
+                .weigher((String key, byte[] result) -> result.length)
+                .build();
+        if (diskPath != null && !diskPath.isBlank()) {
+            directory = Files.createDirectories(Path.of(diskPath));
+            loadDiskIndex();
+            logger.info("Eno results cached on disk in {}: {} results, {} bytes", directory, diskIndex.size(), diskBytes);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param transformation Eno transformation (its path, and its parameters).
+     * @param input Input of the transformation.
+     * @return Key of the result in the cache (SHA-256 of the transformation and of the input).
+     */
+    public static String key(String transformation, byte[] input) {
+        MessageDigest digest = Hashes.sha256Digest(transformation);
+        digest.update(input);
+        return Hashes.hex(digest);
+    }
+
+    public long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /**
+     * @param key Key of the result.
+     * @return The result, from memory or else from disk (then kept in memory again), null if absent.
+     */
+    public byte[] get(String key) {
+        byte[] result = memory.getIfPresent(key);
+        if (result != null) {
+            memoryHits.increment();
+            if (directory != null) {
+                // Used as well on disk, not to be evicted first from there
+                synchronized (diskIndex) {
+                    diskIndex.get(key);
+                }
+            }
+            return result;
+        }
+        result = readFromDisk(key);
+        if (result != null) {
+            memory.put(key, result);
+            diskHits.increment();
+            return result;
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(String key, byte[] result) {
+        if (result.length > maxEntryBytes) {
+            return;
+        }
+        memory.put(key, result);
+        writeToDisk(key, result);
+    }
+
+    /**
+     * Drop all the results, in memory and on disk.
+     * @return Number of results dropped.
+     */
+    public long flush() {
+        Set<String> flushed = new HashSet<>(memory.asMap().keySet());
+        memory.invalidateAll();
+        if (directory != null) {
+            List<String> keys;
+            synchronized (diskIndex) {
+                keys = new ArrayList<>(diskIndex.keySet());
+                diskIndex.clear();
+                diskBytes = 0;
+            }
+            for (String key : keys) {
+                deleteQuietly(directory.resolve(key));
+            }
+            flushed.addAll(keys);
+        }
+        logger.info("Eno results cache flushed ({} results)", flushed.size());
+        return flushed.size();
+    }
+
+    /**
+     * @return Numbers of results and bytes, per tier, and numbers of hits and misses.
+     */
+    public Map<String, Object> statistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("enabled", enabled);
+        statistics.put("memoryResults", memory.estimatedSize());
+        statistics.put("memoryBytes", memoryBytes());
+        if (directory != null) {
+            synchronized (diskIndex) {
+                statistics.put("diskResults", diskIndex.size());
+                statistics.put("diskBytes", diskBytes);
+            }
+        }
+        statistics.put("memoryHits", memoryHits.sum());
+        statistics.put("diskHits", diskHits.sum());
+        statistics.put("misses", misses.sum());
+        return statistics;
+    }
+
+    private long memoryBytes() {
+        return memory.asMap().values().stream().mapToLong(result -> result.length).sum();
+    }
+
+    private long diskBytes() {
+        synchronized (diskIndex) {
+            return diskBytes;
+        }
+    }
+
+    private void loadDiskIndex() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                if (KEY_PATTERN.matcher(file.getFileName().toString()).matches()) {
+                    files.add(file);
+                } else if (file.getFileName().toString().endsWith(".tmp")) {
+                    // Left by an interrupted write
+                    deleteQuietly(file);
+                }
+            }
+        }
+        // Last modification is the last access: the least recently used files are indexed first
+        files.sort((f1, f2) -> lastModified(f1).compareTo(lastModified(f2)));
+        synchronized (diskIndex) {
+            for (Path file : files) {
+                long size = Files.size(file);
+                diskIndex.put(file.getFileName().toString(), size);
+                diskBytes += size;
+            }
+            evictFromDisk();
+        }
+    }
+
+    private byte[] readFromDisk(String key) {
+        if (directory == null) {
+            return null;
+        }
+        synchronized (diskIndex) {
+            if (diskIndex.get(key) == null) {
+                return null;
+            }
+        }
+        Path file = directory.resolve(key);
+        try {
+            byte[] result = Files.readAllBytes(file);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return result;
+        } catch (NoSuchFileException e) {
+            // Flushed or evicted meanwhile
+            removeFromDiskIndex(key);
+        } catch (IOException e) {
+            logger.warn("Unable to read Eno result {} from disk: {}", key, e.getMessage());
+        }
+        return null;
+    }
+
+    private void writeToDisk(String key, byte[] result) {
+        if (directory == null || result.length > diskMaxBytes) {
+            return;
+        }
+        synchronized (diskIndex) {
+            if (diskIndex.containsKey(key)) {
+                return;
+            }
+        }
+        Path file = directory.resolve(key);
+        try {
+            // Readers never see a partial result
+            Path temporary = Files.createTempFile(directory, key, ".tmp");
+            Files.write(temporary, result);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Unable to write Eno result {} on disk: {}", key, e.getMessage());
+            return;
+        }
+        synchronized (diskIndex) {
+            Long previous = diskIndex.put(key, (long) result.length);
+            diskBytes += result.length - (previous != null ? previous : 0);
+            evictFromDisk();
+        }
+    }
+
+    /** Delete the least recently used files, until the disk tier fits in its maximum size. */
+    private void evictFromDisk() {
+        Iterator<Map.Entry<String, Long>> eldest = diskIndex.entrySet().iterator();
+        while (diskBytes > diskMaxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            deleteQuietly(directory.resolve(entry.getKey()));
+            diskBytes -= entry.getValue();
+            eldest.remove();
+        }
+    }
+
+    private void removeFromDiskIndex(String key) {
+        synchronized (diskIndex) {
+            Long size = diskIndex.remove(key);
+            if (size != null) {
+                diskBytes -= size;
+            }
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Unable to delete {}: {}", file, e.getMessage());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("pogues.eno.cache.gets", memoryHits, LongAdder::sum)
+                .tags("result", "hit", "tier", "memory")
+                .description("Eno results found in memory")
+                .register(registry);
+        FunctionCounter.builder("pogues.eno.cache.gets", diskHits, LongAdder::sum)
+                .tags("result", "hit", "tier", "disk")
+                .description("Eno results found on disk")
+                .register(registry);
+        FunctionCounter.builder("pogues.eno.cache.gets", misses, LongAdder::sum)
+                .tags("result", "miss", "tier", "none")
+                .description("Eno results absent from the cache, the transformation being called")
+                .register(registry);
+        Gauge.builder("pogues.eno.cache.size", this, EnoResultCache::memoryBytes)
+                .tag("tier", "memory")
+                .baseUnit(BaseUnits.BYTES)
+                .description("Size of the Eno results in memory")
+                .register(registry);
+        Gauge.builder("pogues.eno.cache.size", this, EnoResultCache::diskBytes)
+                .tag("tier", "disk")
+                .baseUnit(BaseUnits.BYTES)
+                .description("Size of the Eno results on disk")
+                .register(registry);
+    }
+
+}
@@ -0,0 +1,32 @@
+package fr.insee.pogues.api.remote.eno.transforms;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Administration of the Eno results cache (/actuator/enocache): statistics, and flush (DELETE), to be done when
+ * Eno is upgraded.
+ */
+@Component
+@Endpoint(id = "enocache")
+public class EnoResultCacheEndpoint {
+
+    @Autowired
+    EnoResultCache cache;
+
+    @ReadOperation
+    public Map<String, Object> statistics() {
+        return cache.statistics();
+    }
+
+    @DeleteOperation
+    public Map<String, Object> flush() {
+        return Map.of("flushed", cache.flush());
+    }
+
+}
@@ -0,0 +1,72 @@
+package fr.insee.pogues.config;
+
+import io.micrometer.core.instrument.binder.httpcomponents.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP client shared by the calls to the Eno API: connections are pooled and kept alive between transformation steps.
+ */
+@Configuration
+public class EnoHttpClientConfig {
+
+    @Value("${fr.insee.pogues.api.remote.eno.http.max-total:50}")
+    int maxTotal;
+
+    @Value("${fr.insee.pogues.api.remote.eno.http.max-per-route:20}")
+    int maxPerRoute;
+
+    @Value("${fr.insee.pogues.api.remote.eno.http.connect-timeout:5000}")
+    int connectTimeout;
+
+    @Value("${fr.insee.pogues.api.remote.eno.http.connection-request-timeout:10000}")
+    int connectionRequestTimeout;
+
+    @Value("${fr.insee.pogues.api.remote.eno.http.socket-timeout:300000}")
+    int socketTimeout;
+
+    @Value("${fr.insee.pogues.api.remote.eno.http.idle-eviction:30}")
+    long idleEvictionSeconds;
+
+    @Bean(destroyMethod = "shutdown")
+    public PoolingHttpClientConnectionManager enoConnectionManager() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        // Connections closed by the server while idle in the pool are detected before being reused
+        connectionManager.setValidateAfterInactivity(2000);
+        return connectionManager;
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient enoHttpClient(
+            @Qualifier("enoConnectionManager") PoolingHttpClientConnectionManager connectionManager) {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectionRequestTimeout)
+                .setSocketTimeout(socketTimeout)
+                .build();
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(idleEvictionSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /** Pool gauges (httpcomponents.httpclient.pool.*: leased, pending, available and max connections) */
+    @Bean
+    public PoolingHttpClientConnectionManagerMetricsBinder enoConnectionPoolMetrics(
+            @Qualifier("enoConnectionManager") PoolingHttpClientConnectionManager connectionManager) {
+        return new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, "eno");
+    }
+
+}
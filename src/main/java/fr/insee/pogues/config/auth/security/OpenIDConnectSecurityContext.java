@@ -42,6 +42,10 @@ public class OpenIDConnectSecurityContext extends WebSecurityConfigurerAdapter {
 	@Value("${fr.insee.pogues.cors.allowedOrigin}")
 	private Optional<String> allowedOrigin;
 
+	/** Port of the actuator endpoints, -1 if they are served on the API port. */
+	@Value("${management.server.port:-1}")
+	private int managementPort;
+
 	@Override
 	protected void configure(HttpSecurity http) throws Exception {
 		//TODO : variabiliser path /api...
@@ -51,6 +55,9 @@ public class OpenIDConnectSecurityContext extends WebSecurityConfigurerAdapter {
 				.antMatchers("/api/init", "/api/healthcheck").permitAll()
 				.antMatchers("/swagger-ui/**", "/v3/api-docs/**").permitAll()
 				.antMatchers("/api/persistence/questionnaire/json-lunatic/**").permitAll()
+				// Metrics (scraped without token) and administration (flush of the Eno results cache):
+				// on the management port only, never on the API port
+				.antMatchers("/actuator/**", "/actuator").access(onManagementPort())
 				.antMatchers(HttpMethod.OPTIONS).permitAll()
 				.anyRequest().authenticated()
 				.and()
@@ -60,6 +67,14 @@ public class OpenIDConnectSecurityContext extends WebSecurityConfigurerAdapter {
 			http.antMatcher("/**").requiresChannel().anyRequest().requiresSecure();
 	}
 
+	/**
+	 * Requests received on the management port, which is reachable from the administration network only:
+	 * never true when the actuator endpoints share the API port.
+	 */
+	private String onManagementPort() {
+		return managementPort > 0 ? String.format("request.localPort == %d", managementPort) : "denyAll";
+	}
+
 	@Bean
 	public UserProvider getUserProvider() {
 		return auth -> {
@@ -0,0 +1,10 @@
+package fr.insee.pogues.exception;
+
+/** Thrown when questionnaires reference each other (directly or not) when doing questionnaire de-referencing. */
+public class CyclicReferenceException extends Exception {
+
+    public CyclicReferenceException(String message) {
+        super(message);
+    }
+
+}
@@ -1,47 +1,226 @@
 package fr.insee.pogues.metadata.repository;
 
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
 import fr.insee.pogues.metadata.client.MetadataClient;
 import fr.insee.pogues.metadata.model.ColecticaItem;
+import fr.insee.pogues.metadata.model.ColecticaItemRef;
 import fr.insee.pogues.metadata.model.ColecticaItemRefList;
 import fr.insee.pogues.metadata.model.Unit;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
 
+/**
+ * Metadata read through caches, one per operation, bounded in size: an entry older than the refresh delay of its
+ * operation is still answered, while it is fetched again in the background (failures of this refresh are logged and
+ * the entry is kept), and it is dropped once older than the expiry delay. Failures are never cached.
+ * Items requested by references are cached one by one, only the ones absent from the cache being requested.
+ */
 @Service
-public class MetadataRepositoryImpl implements MetadataRepository {
+public class MetadataRepositoryImpl implements MetadataRepository, MeterBinder {
+
+	private static final Logger logger = LogManager.getLogger(MetadataRepositoryImpl.class);
+
+	private static final String UNITS_KEY = "units";
 
 	@Autowired
 	MetadataClient metadataClient;
 
+	@Autowired
+	Environment environment;
+
+	@Value("${fr.insee.pogues.metadata.cache.enabled:true}")
+	boolean enabled;
+
+	private final Map<String, LoadingCache<?, ?>> caches = new LinkedHashMap<>();
+
+	private LoadingCache<String, ColecticaItem> itemCache;
+	private LoadingCache<String, ColecticaItemRefList> childrenRefCache;
+	private LoadingCache<ItemKey, ColecticaItem> itemsCache;
+	private LoadingCache<String, List<Unit>> unitsCache;
+	private LoadingCache<String, String> ddiDocumentCache;
+	private LoadingCache<String, String> codeListCache;
+
+	/** Item as referenced, its version being a number whereas it is a string in the item itself. */
+	record ItemKey(String agencyId, String identifier, String version) {
+
+		static ItemKey of(ColecticaItemRef ref) {
+			return new ItemKey(ref.agencyId, ref.identifier, String.valueOf(ref.version));
+		}
+
+		static ItemKey of(ColecticaItem item) {
+			return new ItemKey(item.agencyId, item.identifier, item.version);
+		}
+
+		ColecticaItemRef toRef() {
+			return new ColecticaItemRef(identifier, Integer.parseInt(version), agencyId);
+		}
+	}
+
+	@PostConstruct
+	void init() {
+		if (!enabled) {
+			return;
+		}
+		itemCache = cache("item", 10000, 60, 10, metadataClient::getItem);
+		childrenRefCache = cache("children-ref", 1000, 60, 10, metadataClient::getChildrenRef);
+		itemsCache = cache("items", 10000, 60, 10, this::fetchItem);
+		// Reference data, changing a few times a year
+		unitsCache = cache("units", 1, 1440, 60, key -> metadataClient.getUnits());
+		ddiDocumentCache = cache("ddi-document", 200, 30, 5, metadataClient::getDDIDocument);
+		codeListCache = cache("code-list", 1000, 60, 10, metadataClient::getCodeList);
+	}
+
+	/**
+	 * @param operation Name of the operation, in the properties (fr.insee.pogues.metadata.cache.[operation].*)
+	 *                  and in the metrics.
+	 */
+	private <K, V> LoadingCache<K, V> cache(String operation, long maxSize, long expireMinutes, long refreshMinutes,
+											CacheLoader<K, V> loader) {
+		String prefix = "fr.insee.pogues.metadata.cache." + operation;
+		LoadingCache<K, V> cache = Caffeine.newBuilder()
+				.maximumSize(environment.getProperty(prefix + ".max-size", Long.class, maxSize))
+				.expireAfterWrite(Duration.ofMinutes(
+						environment.getProperty(prefix + ".expire-minutes", Long.class, expireMinutes)))
+				.refreshAfterWrite(Duration.ofMinutes(
+						environment.getProperty(prefix + ".refresh-minutes", Long.class, refreshMinutes)))
+				.recordStats()
+				.build(loader);
+		caches.put(operation, cache);
+		return cache;
+	}
+
+	private static <K, V> V get(LoadingCache<K, V> cache, K key) throws Exception {
+		try {
+			return cache.get(key);
+		} catch (CompletionException e) {
+			// Checked exception of the client
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
 	@Override
 	public ColecticaItem findById(String id) throws Exception {
-		return metadataClient.getItem(id);
+		if (!enabled) {
+			return metadataClient.getItem(id);
+		}
+		return get(itemCache, id);
 	}
 
 	@Override
 	public ColecticaItemRefList getChildrenRef(String id) throws Exception {
-		return metadataClient.getChildrenRef(id);
+		if (!enabled) {
+			return metadataClient.getChildrenRef(id);
+		}
+		return get(childrenRefCache, id);
 	}
 
 	@Override
 	public List<ColecticaItem> getItems(ColecticaItemRefList refs) throws Exception {
-		return metadataClient.getItems(refs);
+		if (!enabled || refs.identifiers == null) {
+			return metadataClient.getItems(refs);
+		}
+		Set<ItemKey> keys = new LinkedHashSet<>();
+		refs.identifiers.forEach(ref -> keys.add(ItemKey.of(ref)));
+		Map<ItemKey, ColecticaItem> found = new LinkedHashMap<>(itemsCache.getAllPresent(keys));
+		List<ColecticaItem> unmatched = new ArrayList<>();
+		if (found.size() < keys.size()) {
+			List<ColecticaItemRef> missing = new ArrayList<>();
+			keys.stream().filter(key -> !found.containsKey(key)).forEach(key -> missing.add(key.toRef()));
+			for (ColecticaItem item : metadataClient.getItems(new ColecticaItemRefList(missing))) {
+				ItemKey key = ItemKey.of(item);
+				if (keys.contains(key)) {
+					itemsCache.put(key, item);
+					found.put(key, item);
+				} else {
+					// Not matching its reference (other version): answered but not cached
+					unmatched.add(item);
+				}
+			}
+		}
+		List<ColecticaItem> items = new ArrayList<>();
+		keys.stream().map(found::get).filter(Objects::nonNull).forEach(items::add);
+		items.addAll(unmatched);
+		return items;
+	}
+
+	/** Load (or refresh) of a single item of the items cache. */
+	private ColecticaItem fetchItem(ItemKey key) throws Exception {
+		List<ColecticaItem> items = metadataClient.getItems(new ColecticaItemRefList(List.of(key.toRef())));
+		if (items.isEmpty()) {
+			logger.warn("Item {} not found", key);
+			return null;
+		}
+		return items.get(0);
 	}
 
 	@Override
 	public List<Unit> getUnits() throws Exception {
-		return metadataClient.getUnits();
+		if (!enabled) {
+			return metadataClient.getUnits();
+		}
+		return get(unitsCache, UNITS_KEY);
 	}
 
 	@Override
 	public String getDDIDocument(String id) throws Exception {
-		return metadataClient.getDDIDocument(id);
+		if (!enabled) {
+			return metadataClient.getDDIDocument(id);
+		}
+		return get(ddiDocumentCache, id);
 	}
 
 	@Override
 	public String getCodeList(String id) throws Exception {
-		return metadataClient.getCodeList(id);
+		if (!enabled) {
+			return metadataClient.getCodeList(id);
+		}
+		return get(codeListCache, id);
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		caches.forEach((operation, cache) -> {
+			FunctionCounter.builder("pogues.metadata.cache.gets", cache, c -> c.stats().hitCount())
+					.tags("operation", operation, "result", "hit")
+					.description("Metadata found in the cache")
+					.register(registry);
+			FunctionCounter.builder("pogues.metadata.cache.gets", cache, c -> c.stats().missCount())
+					.tags("operation", operation, "result", "miss")
+					.description("Metadata absent from the cache, requested to the metadata service")
+					.register(registry);
+			Gauge.builder("pogues.metadata.cache.hit.ratio", cache, c -> c.stats().hitRate())
+					.tag("operation", operation)
+					.description("Ratio of the metadata found in the cache")
+					.register(registry);
+			Gauge.builder("pogues.metadata.cache.size", cache, LoadingCache::estimatedSize)
+					.tag("operation", operation)
+					.description("Metadata in the cache")
+					.register(registry);
+		});
 	}
+
 }
@@ -5,6 +5,7 @@ import fr.insee.pogues.metadata.model.ColecticaItemRefList;
 import fr.insee.pogues.metadata.model.Unit;
 import fr.insee.pogues.model.CodeList;
 
+import java.io.OutputStream;
 import java.util.List;
 
 public interface MetadataService {
@@ -16,4 +17,13 @@ public interface MetadataService {
     String getDDIDocument(String id) throws Exception;
 	String getCodeList(String id) throws Exception;
 
+	/**
+	 * Fetch and convert the code lists, in parallel, writing each one as a line of JSON as soon as it is
+	 * converted (in no particular order): {"id", "codeList"} with the Pogues XML code list, or {"id", "status",
+	 * "error"} if this one failed, the other ones being written all the same.
+	 * @param ids Ids of the code lists (duplicates are fetched once).
+	 * @param output Output of the lines (not closed).
+	 */
+	void streamCodeLists(List<String> ids, OutputStream output) throws Exception;
+
 }
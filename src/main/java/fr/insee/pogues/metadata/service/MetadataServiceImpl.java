@@ -1,16 +1,36 @@
 package fr.insee.pogues.metadata.service;
 
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.json.simple.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientResponseException;
 
 import fr.insee.pogues.metadata.model.ColecticaItem;
 import fr.insee.pogues.metadata.model.ColecticaItemRefList;
 import fr.insee.pogues.metadata.model.Unit;
 import fr.insee.pogues.metadata.repository.MetadataRepository;
+import fr.insee.pogues.transforms.reuse.DDIToPoguesXMLCodeList;
+import fr.insee.pogues.webservice.rest.PoguesException;
 
 @Service
 public class MetadataServiceImpl implements MetadataService {
@@ -20,8 +40,29 @@ public class MetadataServiceImpl implements MetadataService {
     @Autowired
     MetadataRepository metadataRepository;
 
-	
-	
+    @Autowired
+    DDIToPoguesXMLCodeList ddiToXML;
+
+    /** Code lists fetched and converted simultaneously, all batches together. */
+    @Value("${fr.insee.pogues.metadata.code-lists.threads:8}")
+    int codeListThreads;
+
+    private ThreadPoolExecutor codeListExecutor;
+
+    @PostConstruct
+    void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        // Unbounded queue: the batches are bounded in size by the endpoint
+        codeListExecutor = new ThreadPoolExecutor(codeListThreads, codeListThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, "code-list-" + threadCount.incrementAndGet()));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        codeListExecutor.shutdownNow();
+    }
+
     @Override
     public ColecticaItem getItem(String id) throws Exception {
         return metadataRepository.findById(id);
@@ -49,11 +90,56 @@ public class MetadataServiceImpl implements MetadataService {
 
 	@Override
 	public String getCodeList(String id) throws Exception {
-		
 		String codeList = metadataRepository.getCodeList(id);
-		
-		
-		
-		return null;
+		if (codeList == null) {
+			throw new PoguesException(404, "Not found", "Code list " + id + " not found");
+		}
+		return ddiToXML.transform(codeList, null, null);
+	}
+
+	@Override
+	public void streamCodeLists(List<String> ids, OutputStream output) throws Exception {
+		CompletionService<JSONObject> completion = new ExecutorCompletionService<>(codeListExecutor);
+		List<Future<JSONObject>> futures = new ArrayList<>();
+		for (String id : new LinkedHashSet<>(ids)) {
+			futures.add(completion.submit(() -> codeListResult(id)));
+		}
+		try {
+			for (int i = 0; i < futures.size(); i++) {
+				JSONObject result = completion.take().get();
+				output.write((result.toJSONString() + "\n").getBytes(StandardCharsets.UTF_8));
+				output.flush();
+			}
+		} catch (ExecutionException e) {
+			// Errors are caught by each task, this is not expected
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			// Client gone or failure: the remaining code lists are not needed anymore
+			futures.forEach(future -> future.cancel(true));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private JSONObject codeListResult(String id) {
+		JSONObject result = new JSONObject();
+		result.put("id", id);
+		try {
+			result.put("codeList", getCodeList(id));
+		} catch (Exception e) {
+			logger.warn("Code list {} not fetched: {}", id, e.getMessage());
+			result.put("status", status(e));
+			result.put("error", e.getMessage());
+		}
+		return result;
+	}
+
+	private static int status(Exception e) {
+		if (e instanceof PoguesException) {
+			return ((PoguesException) e).getStatus();
+		}
+		if (e instanceof RestClientResponseException) {
+			return ((RestClientResponseException) e).getRawStatusCode();
+		}
+		return 500;
 	}
 }
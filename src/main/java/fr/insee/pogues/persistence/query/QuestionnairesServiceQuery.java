@@ -2,7 +2,10 @@ package fr.insee.pogues.persistence.query;
 
 import org.json.simple.JSONObject;
 
+import java.io.OutputStream;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Questionnaire Service Query interface to assume the persistance of Pogues UI in JSON
@@ -14,10 +17,24 @@ public interface QuestionnairesServiceQuery {
 
     List<JSONObject> getQuestionnaires() throws Exception;
 
+    List<JSONObject> getQuestionnaires(String after, int limit) throws Exception;
+
+    void streamQuestionnaires(OutputStream output) throws Exception;
+
     JSONObject getQuestionnaireByID(String id) throws Exception;
-    
+
+    String getQuestionnaireRawByID(String id) throws Exception;
+
+    Map<String, String> getQuestionnairesRawByIDs(Collection<String> ids) throws Exception;
+
+    Long getQuestionnaireVersion(String id) throws Exception;
+
+    Map<String, Long> getQuestionnaireVersions(Collection<String> ids) throws Exception;
+
     JSONObject getJsonLunaticByID(String id) throws Exception;
 
+    String getJsonLunaticRawByID(String id) throws Exception;
+
     void deleteQuestionnaireByID(String id) throws Exception;
     
     void deleteJsonLunaticByID(String id) throws Exception;
@@ -28,12 +45,20 @@ public interface QuestionnairesServiceQuery {
     
     void createJsonLunatic(JSONObject questionnaireLunatic) throws Exception;
 
+    void createOrUpdateJsonLunatic(JSONObject questionnaireLunatic) throws Exception;
+
     void updateQuestionnaire(String id, JSONObject questionnaire) throws Exception;
+
+    long updateQuestionnaire(String id, JSONObject questionnaire, Long expectedVersion) throws Exception;
     
     void updateJsonLunatic(String id, JSONObject questionnaireLunatic) throws Exception;
 
     List<JSONObject> getMetaQuestionnaire(String owner) throws Exception;
 
+    JSONObject searchQuestionnaires(String query, String owner, int offset, int limit) throws Exception;
+
+    int backfillMetaQuestionnaires(int limit) throws Exception;
+
     List<JSONObject> getStamps() throws Exception;
     
     String countQuestionnaires() throws Exception;
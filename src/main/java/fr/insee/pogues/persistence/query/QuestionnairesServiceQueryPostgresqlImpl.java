@@ -1,13 +1,27 @@
 package fr.insee.pogues.persistence.query;
 
+import javax.annotation.PostConstruct;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
@@ -16,6 +30,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import fr.insee.pogues.config.auth.security.restrictions.StampsRestrictionsService;
 import fr.insee.pogues.webservice.rest.PoguesException;
@@ -34,6 +49,18 @@ public class QuestionnairesServiceQueryPostgresqlImpl implements QuestionnairesS
 
 	@Value("${fr.insee.pogues.stamp.restricted}")
 	String stampRestricted; 
+
+	@Value("${fr.insee.pogues.persistence.stream.fetch-size:20}")
+	int streamFetchSize;
+
+	// Each export holds a connection of the pool as long as the client downloads
+	@Value("${fr.insee.pogues.persistence.stream.max-concurrent:1}")
+	int streamMaxConcurrent;
+
+	@Value("${fr.insee.pogues.persistence.stream.idle-timeout:60000}")
+	long streamIdleTimeout;
+
+	private Semaphore streams;
 	
 	@Autowired
 	JdbcTemplate jdbcTemplate;
@@ -43,6 +70,33 @@ public class QuestionnairesServiceQueryPostgresqlImpl implements QuestionnairesS
 		
 	private static final String NOT_FOUND="Not found";
 	private static final String FORBIDDEN="Forbidden";
+	private static final String PRECONDITION_FAILED="Precondition Failed";
+
+	/** Matches of a full-text search counted at most. */
+	static final int MAX_SEARCH_TOTAL = 10000;
+
+	/**
+	 * Projection of the listed attributes of the questionnaires into pogues_meta,
+	 * to be completed by the relation (pogues or a CTE) the id and data are selected from
+	 */
+	private static final String META_PROJECTION =
+			"INSERT INTO pogues_meta (id, owner, name, label, last_updated_date, final, " +
+					"data_collection, target_mode, flow_logic, formulas_language) " +
+					"SELECT id, data ->> 'owner', data -> 'Name', data -> 'Label', data -> 'lastUpdatedDate', " +
+					"data -> 'final', data -> 'DataCollection', data -> 'TargetMode', data -> 'flowLogic', " +
+					"data -> 'formulasLanguage' " +
+					"FROM ";
+
+	private static final String META_ON_CONFLICT =
+			" ON CONFLICT (id) DO UPDATE SET owner = EXCLUDED.owner, name = EXCLUDED.name, label = EXCLUDED.label, " +
+					"last_updated_date = EXCLUDED.last_updated_date, final = EXCLUDED.final, " +
+					"data_collection = EXCLUDED.data_collection, target_mode = EXCLUDED.target_mode, " +
+					"flow_logic = EXCLUDED.flow_logic, formulas_language = EXCLUDED.formulas_language";
+
+	@PostConstruct
+	void init() {
+		streams = new Semaphore(streamMaxConcurrent);
+	}
 
 	/**
 	 * A method to get the `QuestionnaireList` object in the database
@@ -55,6 +109,60 @@ public class QuestionnairesServiceQueryPostgresqlImpl implements QuestionnairesS
 		return pgToJSON(data);
 	}
 
+	/**
+	 * A method to get a page of questionnaires, ordered by id
+	 * 
+	 * @param after id of the last questionnaire of the previous page, null for the first page
+	 * @param limit maximum number of questionnaires in the page
+	 * @return the JSON description of the questionnaires
+	 */
+	public List<JSONObject> getQuestionnaires(String after, int limit) throws Exception {
+		List<PGobject> data;
+		if (null == after) {
+			data = jdbcTemplate.queryForList("SELECT data FROM pogues ORDER BY id LIMIT ?", PGobject.class, limit);
+		} else {
+			data = jdbcTemplate.queryForList("SELECT data FROM pogues WHERE id > ? ORDER BY id LIMIT ?",
+					PGobject.class, after, limit);
+		}
+		return pgToJSON(data);
+	}
+
+	/**
+	 * A method to write every questionnaire to a stream as newline delimited JSON.
+	 * Rows are fetched by a cursor and written as stored, without being parsed.
+	 * The transaction is needed by the driver to use a cursor instead of loading the whole result: the connection
+	 * is held until the last row is written, so exports running at once are limited, and the transaction is ended
+	 * by the database if the output blocks for longer than the idle timeout between two fetches.
+	 * 
+	 * @param output stream the questionnaires are written to
+	 * @throws PoguesException 503 if too many exports are running, before anything is written
+	 */
+	@Transactional(readOnly = true)
+	public void streamQuestionnaires(OutputStream output) throws Exception {
+		if (!streams.tryAcquire()) {
+			throw new PoguesException(503, "Service Unavailable", "Too many questionnaire exports in progress");
+		}
+		try {
+			jdbcTemplate.queryForObject("SELECT set_config('idle_in_transaction_session_timeout', ?, true)",
+					String.class, String.valueOf(streamIdleTimeout));
+			jdbcTemplate.query(con -> {
+				PreparedStatement ps = con.prepareStatement("SELECT data FROM pogues ORDER BY id");
+				ps.setFetchSize(streamFetchSize);
+				return ps;
+			}, rs -> {
+				try {
+					output.write(rs.getString(1).getBytes(StandardCharsets.UTF_8));
+					output.write('\n');
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			output.flush();
+		} finally {
+			streams.release();
+		}
+	}
+
 	/**
 	 * A method to get the questionnaire with an id
 	 * 
@@ -62,15 +170,81 @@ public class QuestionnairesServiceQueryPostgresqlImpl implements QuestionnairesS
 	 * @return the JSON description of the questionnaire
 	 */
 	public JSONObject getQuestionnaireByID(String id) throws Exception {
+		String q = getQuestionnaireRawByID(id);
+		return null == q ? null : (JSONObject) (new JSONParser().parse(q));
+	}
+
+	/**
+	 * A method to get several questionnaires in a single query, as stored
+	 * 
+	 * @param ids ids of the questionnaires
+	 * @return the JSON description of the questionnaires found, not parsed, mapped to their id
+	 */
+	public Map<String, String> getQuestionnairesRawByIDs(Collection<String> ids) throws Exception {
+		Map<String, String> questionnaires = new HashMap<>();
+		if (ids.isEmpty()) {
+			return questionnaires;
+		}
+		jdbcTemplate.query(con -> {
+			PreparedStatement ps = con.prepareStatement("SELECT id, data FROM pogues WHERE id = ANY(?)");
+			ps.setArray(1, con.createArrayOf("text", ids.toArray()));
+			return ps;
+		}, rs -> {
+			questionnaires.put(rs.getString(1), rs.getString(2));
+		});
+		return questionnaires;
+	}
+
+	/**
+	 * A method to get the versions of several questionnaires in a single query, without reading their data
+	 * 
+	 * @param ids ids of the questionnaires
+	 * @return the versions of the questionnaires found, mapped to their id
+	 */
+	public Map<String, Long> getQuestionnaireVersions(Collection<String> ids) throws Exception {
+		Map<String, Long> versions = new HashMap<>();
+		if (ids.isEmpty()) {
+			return versions;
+		}
+		jdbcTemplate.query(con -> {
+			PreparedStatement ps = con.prepareStatement("SELECT id, version FROM pogues WHERE id = ANY(?)");
+			ps.setArray(1, con.createArrayOf("text", ids.toArray()));
+			return ps;
+		}, rs -> {
+			versions.put(rs.getString(1), rs.getLong(2));
+		});
+		return versions;
+	}
+
+	/**
+	 * A method to get the questionnaire with an id, as stored
+	 * 
+	 * @param id id of the questionnaire
+	 * @return the JSON description of the questionnaire, not parsed
+	 */
+	public String getQuestionnaireRawByID(String id) throws Exception {
 		try {
 			String qString = "SELECT data FROM pogues WHERE id=?";
-			PGobject q = jdbcTemplate.queryForObject(qString, PGobject.class, id);
-			return (JSONObject) (new JSONParser().parse(q.toString()));
+			return jdbcTemplate.queryForObject(qString, String.class, id);
 		} catch (EmptyResultDataAccessException e) {
 			return null;
 		}
 	}
 	
+	/**
+	 * A method to get the version of the questionnaire with an id, without reading its data
+	 * 
+	 * @param id id of the questionnaire
+	 * @return the version of the questionnaire, null if it doesn't exist
+	 */
+	public Long getQuestionnaireVersion(String id) throws Exception {
+		try {
+			return jdbcTemplate.queryForObject("SELECT version FROM pogues WHERE id=?", Long.class, id);
+		} catch (EmptyResultDataAccessException e) {
+			return null;
+		}
+	}
+
 	/**
 	 * A method to get the questionnaire in JSON Lunatic with an id
 	 * 
@@ -78,31 +252,51 @@ public class QuestionnairesServiceQueryPostgresqlImpl implements QuestionnairesS
 	 * @return the JSON Lunatic description of the questionnaire
 	 */
 	public JSONObject getJsonLunaticByID(String id) throws Exception {
+		String q = getJsonLunaticRawByID(id);
+		return null == q ? null : (JSONObject) (new JSONParser().parse(q));
+	}
+
+	/**
+	 * A method to get the questionnaire in JSON Lunatic with an id, as stored
+	 * 
+	 * @param id id of the questionnaire
+	 * @return the JSON Lunatic description of the questionnaire, not parsed
+	 */
+	public String getJsonLunaticRawByID(String id) throws Exception {
 		try {
 			String qString = "SELECT data_lunatic FROM visu_lunatic WHERE id=?";
-			PGobject q = jdbcTemplate.queryForObject(qString,PGobject.class, id);
-			return (JSONObject) (new JSONParser().parse(q.toString()));
+			return jdbcTemplate.queryForObject(qString, String.class, id);
 		} catch (EmptyResultDataAccessException e) {
 			return null;
 		}
 	}
 
 	/**
-	 * A method to delete the questionnaire with an id
+	 * A method to delete the questionnaire with an id.
+	 * The statement only deletes questionnaires which are not owned by the restricted stamp:
+	 * the owner is read again only when nothing was deleted, to tell an unknown questionnaire
+	 * from a restricted one, which is then deleted for its owner only.
 	 * 
 	 * @param id id of the questionnaire
 	 */
 	public void deleteQuestionnaireByID(String id) throws Exception {
-		JSONObject questionnaire= getQuestionnaireByID(id);
-		//Check rights
-		if (!isUserAuthorized(questionnaire, "Delete")) {
-			logger.info("User not authorized to delete questionnaire {}",id);
-			throw new PoguesException(403, FORBIDDEN, "Only the owner of the questionnaire can delete it");
-		}
-		String qString = "DELETE FROM pogues where id=?";
-		int r = jdbcTemplate.update(qString, new Object[] { id });
-		if (0 == r) {
-			throw new PoguesException(404, NOT_FOUND, String.format("Entity with id %s not found", id));
+		// Data-modifying CTEs: the questionnaire and its metadata are deleted by the same statement
+		String qString = "WITH q AS (DELETE FROM pogues WHERE id=? %s RETURNING id), " +
+				"m AS (DELETE FROM pogues_meta WHERE id IN (SELECT id FROM q)) " +
+				"SELECT id FROM q";
+		List<String> deleted = jdbcTemplate.queryForList(
+				String.format(qString, "AND data ->> 'owner' IS DISTINCT FROM ?"), String.class, id, stampRestricted);
+		if (deleted.isEmpty()) {
+			Optional<String> owner = getQuestionnaireOwner(id);
+			if (owner.isEmpty()) {
+				throw new PoguesException(404, NOT_FOUND, String.format("Entity with id %s not found", id));
+			}
+			//Check rights
+			if (!stampsRestrictionsService.isQuestionnaireOwner(owner.get())) {
+				logger.info("User not authorized to delete questionnaire {}",id);
+				throw new PoguesException(403, FORBIDDEN, "Only the owner of the questionnaire can delete it");
+			}
+			jdbcTemplate.queryForList(String.format(qString, ""), String.class, id);
 		}
 	}
 	
@@ -135,37 +329,116 @@ public class QuestionnairesServiceQueryPostgresqlImpl implements QuestionnairesS
 	}
 
 	/**
-	 * A method to get the metadata of a questionnaire
+	 * A method to get the metadata of a questionnaire, read from the pogues_meta projection
 	 * 
 	 * @param owner stamp of the owner of the questionnaire
 	 * @return metadata of a questionnaire : id, lastUpdatedDate, label, final, DataCollection and TargetMode
 	 */
 	public List<JSONObject> getMetaQuestionnaire(String owner) throws Exception {
 		String qString =
-				"SELECT CONCAT('{" +
-						"\"id\": ', data -> 'id',', " +
-						"\"Name\": ', data -> 'Name',', " +
-						"\"lastUpdatedDate\": ', data -> 'lastUpdatedDate',', " +
-						"\"Label\": ', data -> 'Label',', " +
-						"\"final\": ', data -> 'final',', " +
-						"\"DataCollection\": ', data -> 'DataCollection',', " +
-						"\"TargetMode\": ', data -> 'TargetMode',', " +
-						"\"flowLogic\": ', data -> 'flowLogic',', " +
-						"\"formulasLanguage\": ', data -> 'formulasLanguage','}') " +
-						"FROM pogues WHERE data ->> 'owner' = ? " +
-						"AND data -> 'Name' IS NOT NULL " +
-						"AND data -> 'TargetMode' IS NOT NULL " +
-						"AND data -> 'flowLogic' IS NOT NULL " +
-						"AND data -> 'formulasLanguage' IS NOT NULL"
+				"SELECT coalesce(jsonb_agg(jsonb_build_object(" +
+						"'id', id, " +
+						"'Name', name, " +
+						"'lastUpdatedDate', last_updated_date, " +
+						"'Label', label, " +
+						"'final', final, " +
+						"'DataCollection', data_collection, " +
+						"'TargetMode', target_mode, " +
+						"'flowLogic', flow_logic, " +
+						"'formulasLanguage', formulas_language)), '[]') " +
+						"FROM pogues_meta WHERE owner = ? " +
+						"AND name IS NOT NULL " +
+						"AND target_mode IS NOT NULL " +
+						"AND flow_logic IS NOT NULL " +
+						"AND formulas_language IS NOT NULL"
 				;
-		List<PGobject> data = jdbcTemplate.queryForList(qString, PGobject.class, owner);
-		return pgToJSON(data);
+		PGobject data = jdbcTemplate.queryForObject(qString, PGobject.class, owner);
+		JSONArray metadata = (JSONArray) new JSONParser().parse(Objects.requireNonNull(data).toString());
+		List<JSONObject> result = new ArrayList<>(metadata.size());
+		for (Object questionnaire : metadata) {
+			result.add((JSONObject) questionnaire);
+		}
+		return result;
+	}
+
+	/**
+	 * A method to search questionnaires by the words of their full-text index (column search, maintained by a
+	 * trigger), the best ranked first: the metadata of the questionnaires are read from the pogues_meta projection
+	 * for the requested page only. Matches are counted up to {@value #MAX_SEARCH_TOTAL} only, the count not being
+	 * worth scanning the whole index for a query matching most of the questionnaires
+	 * 
+	 * @param query full-text query, in the tsquery syntax
+	 * @param owner stamp of the owner of the questionnaires, null for every owner
+	 * @param offset number of questionnaires matching before the page
+	 * @param limit maximum number of questionnaires in the page
+	 * @return number of questionnaires matching, at most {@value #MAX_SEARCH_TOTAL} (total), false if there are more
+	 *         (totalExact), and metadata of the questionnaires of the page (questionnaires): id, owner, Name, Label,
+	 *         lastUpdatedDate, final, DataCollection and TargetMode
+	 */
+	public JSONObject searchQuestionnaires(String query, String owner, int offset, int limit) throws Exception {
+		String ownerFilter = null == owner ? "" : "AND data ->> 'owner' = ? ";
+		String qString =
+				"WITH query AS (SELECT to_tsquery('simple', ?) AS query), " +
+						"page AS (" +
+						"SELECT id, ts_rank(search, query) AS rank FROM pogues, query " +
+						"WHERE search @@ query " + ownerFilter +
+						"ORDER BY rank DESC, id LIMIT ? OFFSET ?), " +
+						"counted AS (SELECT count(*) AS total FROM (" +
+						"SELECT 1 FROM pogues, query WHERE search @@ query " + ownerFilter +
+						"LIMIT " + (MAX_SEARCH_TOTAL + 1) + ") capped) " +
+						"SELECT jsonb_build_object(" +
+						"'total', least(counted.total, " + MAX_SEARCH_TOTAL + "), " +
+						"'totalExact', counted.total <= " + MAX_SEARCH_TOTAL + ", " +
+						"'questionnaires', (SELECT coalesce(jsonb_agg(jsonb_build_object(" +
+						"'id', page.id, " +
+						"'owner', m.owner, " +
+						"'Name', m.name, " +
+						"'Label', m.label, " +
+						"'lastUpdatedDate', m.last_updated_date, " +
+						"'final', m.final, " +
+						"'DataCollection', m.data_collection, " +
+						"'TargetMode', m.target_mode) " +
+						"ORDER BY page.rank DESC, page.id), '[]') " +
+						"FROM page LEFT JOIN pogues_meta m ON m.id = page.id)) " +
+						"FROM counted";
+		PGobject data;
+		if (null == owner) {
+			data = jdbcTemplate.queryForObject(qString, PGobject.class, query, limit, offset);
+		} else {
+			data = jdbcTemplate.queryForObject(qString, PGobject.class, query, owner, limit, offset, owner);
+		}
+		return (JSONObject) new JSONParser().parse(Objects.requireNonNull(data).toString());
 	}
 
+	/**
+	 * A method to fill in the metadata projection of questionnaires which don't have one yet
+	 * 
+	 * @param limit maximum number of questionnaires handled by the call
+	 * @return the number of questionnaires whose metadata have been written
+	 */
+	public int backfillMetaQuestionnaires(int limit) throws Exception {
+		String qString = META_PROJECTION + "pogues " +
+				"WHERE NOT EXISTS (SELECT 1 FROM pogues_meta m WHERE m.id = pogues.id) " +
+				"LIMIT ? ON CONFLICT (id) DO NOTHING";
+		return jdbcTemplate.update(qString, limit);
+	}
+
+	/**
+	 * A method to get the stamps owning at least one questionnaire
+	 * 
+	 * @return stamps as objects with an id and a label (both being the stamp)
+	 */
 	public List<JSONObject> getStamps() throws Exception {
-		String qString = "SELECT DISTINCT CONCAT('{\"id\": ',data -> 'owner',', \"label\": ',data -> 'owner','}')  FROM pogues WHERE data -> 'owner' IS NOT NULL";
-		List<PGobject> data = jdbcTemplate.queryForList(qString, PGobject.class);
-		return pgToJSON(data);
+		String qString = "SELECT DISTINCT data ->> 'owner' FROM pogues WHERE data ->> 'owner' IS NOT NULL";
+		List<String> owners = jdbcTemplate.queryForList(qString, String.class);
+		return owners.stream()
+				.map(owner -> {
+					JSONObject stamp = new JSONObject();
+					stamp.put("id", owner);
+					stamp.put("label", owner);
+					return stamp;
+				})
+				.collect(Collectors.toList());
 	}
 
 	/**
@@ -174,15 +447,16 @@ public class QuestionnairesServiceQueryPostgresqlImpl implements QuestionnairesS
 	 * @param questionnaire the JSON description of the questionnaire
 	 */
 	public void createQuestionnaire(JSONObject questionnaire) throws Exception {
-		String qString = "INSERT INTO pogues (id, data) VALUES (?, ?)";
+		String qString = "WITH q AS (INSERT INTO pogues (id, data) VALUES (?, ?) ON CONFLICT (id) DO NOTHING RETURNING id, data), " +
+				"m AS (" + META_PROJECTION + "q" + META_ON_CONFLICT + ") " +
+				"SELECT id FROM q";
 		String id = (String) questionnaire.get("id");
-		if (null != getQuestionnaireByID(id)) {
-			throw new NonUniqueResultException("Entity already exists");
-		}
 		PGobject q = new PGobject();
-		q.setType("json");
+		q.setType("jsonb");
 		q.setValue(questionnaire.toJSONString());
-		jdbcTemplate.update(qString, id, q);
+		if (jdbcTemplate.queryForList(qString, String.class, id, q).isEmpty()) {
+			throw new NonUniqueResultException("Entity already exists");
+		}
 	}
 	
 	
@@ -193,16 +467,31 @@ public class QuestionnairesServiceQueryPostgresqlImpl implements QuestionnairesS
 	 */
 	public void createJsonLunatic(JSONObject questionnaireLunatic) throws Exception {
 		String qString =
-				"INSERT INTO visu_lunatic (id, data_lunatic) VALUES (?, ?)";
+				"INSERT INTO visu_lunatic (id, data_lunatic) VALUES (?, ?) ON CONFLICT (id) DO NOTHING";
 	    String id  = (String)questionnaireLunatic.get("id");
-		if(null != getJsonLunaticByID(id)){
+		PGobject q = new PGobject();
+		q.setType("json");
+		q.setValue(questionnaireLunatic.toJSONString());
+		if (0 == jdbcTemplate.update(qString, id, q)) {
 			throw new NonUniqueResultException("Entity already exists");
 		}
+    }
+
+	/**
+	 * A method to save a questionnaire in JSON Lunatic in database, replacing the existing one if any
+	 * 
+	 * @param questionnaireLunatic the JSON Lunatic description of the questionnaire
+	 */
+	public void createOrUpdateJsonLunatic(JSONObject questionnaireLunatic) throws Exception {
+		String qString =
+				"INSERT INTO visu_lunatic (id, data_lunatic) VALUES (?, ?) " +
+						"ON CONFLICT (id) DO UPDATE SET data_lunatic = EXCLUDED.data_lunatic";
+		String id  = (String)questionnaireLunatic.get("id");
 		PGobject q = new PGobject();
 		q.setType("json");
 		q.setValue(questionnaireLunatic.toJSONString());
 		jdbcTemplate.update(qString, id, q);
-    }
+	}
 
 	/**
 	 * A method to update an existing questionnaire in database
@@ -212,20 +501,46 @@ public class QuestionnairesServiceQueryPostgresqlImpl implements QuestionnairesS
 	 * @throws SQLException 
 	 */
 	public void updateQuestionnaire(String id, JSONObject questionnaire) throws Exception {
+		updateQuestionnaire(id, questionnaire, null);
+	}
+
+	/**
+	 * A method to update an existing questionnaire in database, if it is still in the expected version
+	 * 
+	 * @param id id of the questionnaire
+	 * @param questionnaire the JSON description of the questionnaire
+	 * @param expectedVersion version the update is based on, null to update whatever the current version
+	 * @return the new version of the questionnaire
+	 */
+	public long updateQuestionnaire(String id, JSONObject questionnaire, Long expectedVersion) throws Exception {
 		//Check rights
 		if (!isUserAuthorized(questionnaire, "Update")) {
 			logger.info("User not authorized to modify questionnaire {}", id);
 			throw new PoguesException(403, FORBIDDEN, "Only the owner of the questionnaire can modify it");
 		}
 		//If permitted, do the update
-		String qString = "UPDATE pogues SET data=? WHERE id=?";
 		PGobject q = new PGobject();
-		q.setType("json");
+		q.setType("jsonb");
 		q.setValue(questionnaire.toJSONString());
-		int r = jdbcTemplate.update(qString, q, id);
-		if (0 == r) {
-			throw new NonUniqueResultException("Entity already exists");
+		// Data-modifying CTEs: the questionnaire and its metadata are written by the same statement
+		String qString = "WITH q AS (UPDATE pogues SET data=?, version=nextval('pogues_version_seq') WHERE id=? %s " +
+				"RETURNING id, data, version), " +
+				"m AS (" + META_PROJECTION + "q" + META_ON_CONFLICT + ") " +
+				"SELECT version FROM q";
+		List<Long> versions;
+		if (null == expectedVersion) {
+			versions = jdbcTemplate.queryForList(String.format(qString, ""), Long.class, q, id);
+		} else {
+			versions = jdbcTemplate.queryForList(String.format(qString, "AND version=?"), Long.class, q, id, expectedVersion);
 		}
+		if (versions.isEmpty()) {
+			if (null != expectedVersion && null != getQuestionnaireVersion(id)) {
+				throw new PoguesException(412, PRECONDITION_FAILED,
+						String.format("Questionnaire %s has been modified since version %d", id, expectedVersion));
+			}
+			throw new EntityNotFoundException(String.format("Entity with id %s not found", id));
+		}
+		return versions.get(0);
 	}
 	
 	/**
@@ -241,7 +556,7 @@ public class QuestionnairesServiceQueryPostgresqlImpl implements QuestionnairesS
 		q.setValue(questionnaireLunatic.toJSONString());
 		int r = jdbcTemplate.update(qString, q, id);
 		if(0 == r) {
-			throw new NonUniqueResultException("Entity already exists");
+			throw new EntityNotFoundException(String.format("Entity with id %s not found", id));
 		}
     }
 	
@@ -259,6 +574,17 @@ public class QuestionnairesServiceQueryPostgresqlImpl implements QuestionnairesS
 		}
 	}
 
+	/**
+	 * Owner of a questionnaire, read without reading the questionnaire
+	 * 
+	 * @return the owner stamp, empty if the questionnaire doesn't exist
+	 */
+	private Optional<String> getQuestionnaireOwner(String id) {
+		List<String> owners = jdbcTemplate.queryForList(
+				"SELECT data ->> 'owner' FROM pogues WHERE id=?", String.class, id);
+		return owners.stream().findFirst();
+	}
+
 	private List<JSONObject> pgToJSON(List<PGobject> data) {
 		return Objects.requireNonNull(data).stream()
 				.map(q -> {
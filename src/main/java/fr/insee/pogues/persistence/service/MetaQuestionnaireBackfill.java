@@ -0,0 +1,46 @@
+package fr.insee.pogues.persistence.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import fr.insee.pogues.persistence.query.QuestionnairesServiceQuery;
+
+/**
+ * Fills in, at startup, the metadata projection (pogues_meta) of the questionnaires
+ * saved before it existed. Questionnaires are handled by batches, each in its own transaction,
+ * until none is missing.
+ */
+@Component
+public class MetaQuestionnaireBackfill implements ApplicationRunner {
+
+	static final Logger logger = LogManager.getLogger(MetaQuestionnaireBackfill.class);
+
+	@Autowired
+	private QuestionnairesServiceQuery questionnaireServiceQuery;
+
+	@Value("${fr.insee.pogues.persistence.meta.backfill.enabled:true}")
+	boolean enabled;
+
+	@Value("${fr.insee.pogues.persistence.meta.backfill.batch-size:500}")
+	int batchSize;
+
+	@Override
+	public void run(ApplicationArguments args) throws Exception {
+		if (!enabled) {
+			logger.info("Questionnaires metadata backfill disabled");
+			return;
+		}
+		int total = 0;
+		int written;
+		do {
+			written = questionnaireServiceQuery.backfillMetaQuestionnaires(batchSize);
+			total += written;
+		} while (written > 0);
+		logger.info("Questionnaires metadata backfill done: {} questionnaire(s) projected", total);
+	}
+}
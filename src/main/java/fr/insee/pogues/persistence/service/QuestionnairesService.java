@@ -2,7 +2,10 @@ package fr.insee.pogues.persistence.service;
 
 import org.json.simple.JSONObject;
 
+import java.io.OutputStream;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by acordier on 05/07/17.
@@ -10,8 +13,39 @@ import java.util.List;
 public interface QuestionnairesService {
 
     List<JSONObject> getQuestionnaireList() throws Exception;
+
+    /**
+     *
+     * @param after id of the last questionnaire of the previous page, null for the first page
+     * @param limit maximum number of questionnaires returned
+     * @return A page of questionnaire objects, ordered by id
+     * @throws Exception
+     */
+    List<JSONObject> getQuestionnaireList(String after, int limit) throws Exception;
+
+    /**
+     * Write every questionnaire as newline delimited JSON
+     * @param output stream the questionnaires are written to
+     * @throws Exception
+     */
+    void streamQuestionnaireList(OutputStream output) throws Exception;
     
     List<JSONObject> getQuestionnairesMetadata(String owner) throws Exception;
+
+    /**
+     *
+     * @param text Words searched, each one matching the words of the questionnaires it is a prefix of (all the
+     *             words have to match): in their Name and Label, names and labels of their variables, labels of
+     *             their code lists and codes, and ids of their data collections. Words shorter than 3 characters
+     *             are ignored
+     * @param owner Stamp of the owner of the questionnaires, null for every owner
+     * @param offset Number of questionnaires matching before the page
+     * @param limit Maximum number of questionnaires returned
+     * @return Total number of questionnaires matching, counted up to 10000 (total, totalExact being false if there
+     *         are more), and metadata of the ones of the page, the best ranked first (questionnaires)
+     * @throws Exception
+     */
+    JSONObject searchQuestionnaires(String text, String owner, int offset, int limit) throws Exception;
     
     List<JSONObject> getQuestionnairesStamps() throws Exception;
 
@@ -30,6 +64,38 @@ public interface QuestionnairesService {
      * @throws Exception
      */
     JSONObject getQuestionnaireByID(String id) throws Exception;
+
+    /**
+     *
+     * @param id Id of requested object
+     * @return JSON representation of the questionnaire, as stored
+     * @throws Exception
+     */
+    String getQuestionnaireRawByID(String id) throws Exception;
+
+    /**
+     *
+     * @param ids Ids of requested objects
+     * @return JSON representations of the questionnaires found (fetched at once), as stored, mapped to their id
+     * @throws Exception
+     */
+    Map<String, String> getQuestionnairesRawByIDs(Collection<String> ids) throws Exception;
+
+    /**
+     *
+     * @param id Id of requested object
+     * @return Current version of the questionnaire, changed by every update
+     * @throws Exception
+     */
+    long getQuestionnaireVersion(String id) throws Exception;
+
+    /**
+     *
+     * @param ids Ids of requested objects
+     * @return Current versions of the questionnaires found, mapped to their id
+     * @throws Exception
+     */
+    Map<String, Long> getQuestionnaireVersions(Collection<String> ids) throws Exception;
     
     /**
     *
@@ -39,6 +105,14 @@ public interface QuestionnairesService {
     */
     JSONObject getJsonLunaticByID(String id) throws Exception;
 
+    /**
+    *
+    * @param id Id of requested object
+    * @return JSON Lunatic representation of a questionnaire, as stored
+    * @throws Exception
+    */
+    String getJsonLunaticRawByID(String id) throws Exception;
+
     /**
      *
      * @param id Id of the object we want to delete
@@ -67,6 +141,13 @@ public interface QuestionnairesService {
      */
     void createJsonLunatic(JSONObject questionnaireLunatic) throws Exception;
 
+    /**
+     * Save the JSON Lunatic representation of a questionnaire, replacing the existing one if any
+     * @param questionnaireLunatic JSON Lunatic representation of a questionnaire
+     * @throws Exception
+     */
+    void createOrUpdateJsonLunatic(JSONObject questionnaireLunatic) throws Exception;
+
     /**
      * Update a questionnaire object
      * @param questionnaire JSON representation of a questionnaire
@@ -74,6 +155,16 @@ public interface QuestionnairesService {
      * @throws Exception
      */
     void updateQuestionnaire(String id, JSONObject questionnaire) throws Exception;
+
+    /**
+     * Update a questionnaire object if it is still in the expected version
+     * @param id id of the questionnaire
+     * @param questionnaire JSON representation of a questionnaire
+     * @param expectedVersion version the update is based on, null to update whatever the current version
+     * @return the new version of the questionnaire
+     * @throws Exception
+     */
+    long updateQuestionnaire(String id, JSONObject questionnaire, Long expectedVersion) throws Exception;
     
     /**
 	 * Update a questionnaire object
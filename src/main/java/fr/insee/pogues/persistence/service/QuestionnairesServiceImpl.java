@@ -1,6 +1,12 @@
 package fr.insee.pogues.persistence.service;
 
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import org.json.simple.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,6 +15,7 @@ import org.springframework.stereotype.Service;
 import fr.insee.pogues.persistence.query.EntityNotFoundException;
 import fr.insee.pogues.persistence.query.NonUniqueResultException;
 import fr.insee.pogues.persistence.query.QuestionnairesServiceQuery;
+import fr.insee.pogues.transforms.visualize.DereferencingCache;
 import fr.insee.pogues.webservice.rest.PoguesException;
 
 /**
@@ -21,9 +28,19 @@ import fr.insee.pogues.webservice.rest.PoguesException;
 @Service
 public class QuestionnairesServiceImpl implements QuestionnairesService {
 
+	static final int MAX_PAGE_SIZE = 1000;
+
+	static final int MAX_SEARCH_WORDS = 10;
+
+	/** Shorter prefixes match most of the questionnaires, every one of them being ranked. */
+	static final int MIN_SEARCH_WORD_LENGTH = 3;
+
 	@Autowired
 	private QuestionnairesServiceQuery questionnaireServiceQuery;
 
+	@Autowired
+	private DereferencingCache dereferencingCache;
+
 	public List<JSONObject> getQuestionnaireList() throws Exception {
 		List<JSONObject> questionnaires = questionnaireServiceQuery.getQuestionnaires();
 		if (questionnaires.isEmpty()) {
@@ -32,6 +49,18 @@ public class QuestionnairesServiceImpl implements QuestionnairesService {
 		return questionnaires;
 	}
 
+	public List<JSONObject> getQuestionnaireList(String after, int limit) throws Exception {
+		if (limit < 1 || limit > MAX_PAGE_SIZE) {
+			throw new PoguesException(400, "Bad Request",
+					String.format("Parameter limit must be between 1 and %d", MAX_PAGE_SIZE));
+		}
+		return questionnaireServiceQuery.getQuestionnaires(after, limit);
+	}
+
+	public void streamQuestionnaireList(OutputStream output) throws Exception {
+		questionnaireServiceQuery.streamQuestionnaires(output);
+	}
+
 	public List<JSONObject> getQuestionnairesMetadata(String owner) throws Exception {
 		if (null == owner || owner.isEmpty()) {
 			throw new PoguesException(400, "Bad Request", "Missing parameter: owner");
@@ -39,6 +68,42 @@ public class QuestionnairesServiceImpl implements QuestionnairesService {
 		return questionnaireServiceQuery.getMetaQuestionnaire(owner);
 	}
 	
+	public JSONObject searchQuestionnaires(String text, String owner, int offset, int limit) throws Exception {
+		if (limit < 1 || limit > MAX_PAGE_SIZE) {
+			throw new PoguesException(400, "Bad Request",
+					String.format("Parameter limit must be between 1 and %d", MAX_PAGE_SIZE));
+		}
+		if (offset < 0) {
+			throw new PoguesException(400, "Bad Request", "Parameter offset must be positive");
+		}
+		String query = prefixQuery(text);
+		if (null == query) {
+			throw new PoguesException(400, "Bad Request", String.format(
+					"Parameter q must contain at least one word of %d characters", MIN_SEARCH_WORD_LENGTH));
+		}
+		return questionnaireServiceQuery.searchQuestionnaires(query, null == owner || owner.isEmpty() ? null : owner,
+				offset, limit);
+	}
+
+	/**
+	 * Full-text query matching the words starting with each of the words of the text: words are split as the
+	 * full-text index does (on anything but letters and digits), so that no tsquery operator can be given, and
+	 * the words shorter than {@value #MIN_SEARCH_WORD_LENGTH} characters are ignored.
+	 * @return The query, null if the text has no word long enough.
+	 */
+	static String prefixQuery(String text) {
+		if (null == text) {
+			return null;
+		}
+		List<String> words = Arrays.stream(text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+"))
+				.filter(word -> word.length() >= MIN_SEARCH_WORD_LENGTH)
+				.distinct()
+				.limit(MAX_SEARCH_WORDS)
+				.map(word -> word + ":*")
+				.collect(Collectors.toList());
+		return words.isEmpty() ? null : String.join(" & ", words);
+	}
+
 	public List<JSONObject> getQuestionnairesStamps() throws Exception {
 		List<JSONObject> stamps = questionnaireServiceQuery.getStamps();
 		if (stamps.isEmpty()) {
@@ -61,7 +126,31 @@ public class QuestionnairesServiceImpl implements QuestionnairesService {
 		}
 		return questionnaire;
 	}
-	
+
+	public String getQuestionnaireRawByID(String id) throws Exception {
+		String questionnaire = this.questionnaireServiceQuery.getQuestionnaireRawByID(id);
+		if (null == questionnaire) {
+			throw new PoguesException(404, "Not found", "Pas de questionnaire pour cet identifiant");
+		}
+		return questionnaire;
+	}
+
+	public Map<String, String> getQuestionnairesRawByIDs(Collection<String> ids) throws Exception {
+		return this.questionnaireServiceQuery.getQuestionnairesRawByIDs(ids);
+	}
+
+	public long getQuestionnaireVersion(String id) throws Exception {
+		Long version = this.questionnaireServiceQuery.getQuestionnaireVersion(id);
+		if (null == version) {
+			throw new PoguesException(404, "Not found", "Pas de questionnaire pour cet identifiant");
+		}
+		return version;
+	}
+
+	public Map<String, Long> getQuestionnaireVersions(Collection<String> ids) throws Exception {
+		return this.questionnaireServiceQuery.getQuestionnaireVersions(ids);
+	}
+
 	public JSONObject getJsonLunaticByID(String id) throws Exception {
         JSONObject questionnaireLunatic = this.questionnaireServiceQuery.getJsonLunaticByID(id);
         if (null == questionnaireLunatic) {
@@ -70,8 +159,17 @@ public class QuestionnairesServiceImpl implements QuestionnairesService {
         return questionnaireLunatic;
     }
 
+	public String getJsonLunaticRawByID(String id) throws Exception {
+		String questionnaireLunatic = this.questionnaireServiceQuery.getJsonLunaticRawByID(id);
+		if (null == questionnaireLunatic) {
+			throw new PoguesException(404, "Not found", "Pas de questionnaire pour cet identifiant");
+		}
+		return questionnaireLunatic;
+	}
+
 	public void deleteQuestionnaireByID(String id) throws Exception {
 		questionnaireServiceQuery.deleteQuestionnaireByID(id);
+		dereferencingCache.invalidate(id);
 	}
 	
 	public void deleteJsonLunaticByID(String id) throws Exception {
@@ -94,9 +192,24 @@ public class QuestionnairesServiceImpl implements QuestionnairesService {
         }
     }
 
+	public void createOrUpdateJsonLunatic(JSONObject dataLunatic) throws Exception {
+		this.questionnaireServiceQuery.createOrUpdateJsonLunatic(dataLunatic);
+	}
+
 	public void updateQuestionnaire(String id, JSONObject questionnaire) throws Exception {
 		try {
 			this.questionnaireServiceQuery.updateQuestionnaire(id, questionnaire);
+			dereferencingCache.invalidate(id);
+		} catch (EntityNotFoundException e) {
+			throw new PoguesException(404, "Not found", e.getMessage());
+		}
+	}
+	
+	public long updateQuestionnaire(String id, JSONObject questionnaire, Long expectedVersion) throws Exception {
+		try {
+			long version = this.questionnaireServiceQuery.updateQuestionnaire(id, questionnaire, expectedVersion);
+			dereferencingCache.invalidate(id);
+			return version;
 		} catch (EntityNotFoundException e) {
 			throw new PoguesException(404, "Not found", e.getMessage());
 		}
@@ -0,0 +1,157 @@
+package fr.insee.pogues.search.repository;
+
+import fr.insee.pogues.search.model.DDIItem;
+import fr.insee.pogues.search.model.DataCollectionContext;
+import fr.insee.pogues.search.model.PoguesQuery;
+import fr.insee.pogues.search.model.ResponseSearchItem;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Repository;
+import org.springframework.util.MultiValueMap;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Item repository answering the hierarchy (series, operations, data collections, and contexts of these) from a
+ * snapshot of it, loaded in the background at startup and refreshed periodically: when a refresh fails (metadata
+ * repository down or too slow), the last snapshot loaded is still answered. The metadata repository is called only
+ * until the first snapshot is loaded, and for the items created since the last one. Searches are not cached.
+ */
+@Repository
+@Primary
+public class CachedPoguesItemRepository implements PoguesItemRepository, MeterBinder {
+
+    private static final Logger logger = LogManager.getLogger(CachedPoguesItemRepository.class);
+
+    @Autowired
+    PoguesItemRepositoryImpl poguesItemRepository;
+
+    @Value("${fr.insee.pogues.search.hierarchy.enabled:true}")
+    boolean enabled;
+
+    @Value("${fr.insee.pogues.search.disable:false}")
+    boolean searchDisabled;
+
+    @Value("${fr.insee.pogues.search.hierarchy.refresh-minutes:60}")
+    long refreshMinutes;
+
+    /** Last snapshot loaded, null until the first one is. */
+    private volatile SearchHierarchy hierarchy;
+
+    private ScheduledExecutorService refresher;
+
+    @PostConstruct
+    void init() {
+        if (!enabled || searchDisabled) {
+            return;
+        }
+        refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "search-hierarchy-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Not to delay (nor fail) the startup when the metadata repository is slow or down
+        refresher.scheduleWithFixedDelay(this::refresh, 0, refreshMinutes, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    /**
+     * Load a new snapshot of the hierarchy, the current one being kept if this fails.
+     * @return true if the snapshot has been replaced.
+     */
+    boolean refresh() {
+        try {
+            long start = System.currentTimeMillis();
+            SearchHierarchy loaded = SearchHierarchy.load(poguesItemRepository);
+            hierarchy = loaded;
+            logger.info("Search hierarchy loaded: {} items in {} ms", loaded.size(),
+                    System.currentTimeMillis() - start);
+            return true;
+        } catch (Exception e) {
+            // Also caught not to cancel the next refreshes
+            SearchHierarchy current = hierarchy;
+            logger.warn("Search hierarchy not refreshed, {}: {}",
+                    current == null ? "no snapshot yet" : "snapshot of " + current.getLoaded() + " kept",
+                    e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public List<ResponseSearchItem> findByLabel(PoguesQuery query, MultiValueMap<String, String> params)
+            throws Exception {
+        return poguesItemRepository.findByLabel(query, params);
+    }
+
+    @Override
+    public List<DDIItem> getSubGroups() throws Exception {
+        SearchHierarchy current = hierarchy;
+        if (current != null) {
+            return current.getSeries();
+        }
+        return poguesItemRepository.getSubGroups();
+    }
+
+    @Override
+    public List<DDIItem> getStudyUnits(String seriesId) throws Exception {
+        SearchHierarchy current = hierarchy;
+        List<DDIItem> operations = current != null ? current.getOperations(seriesId) : null;
+        if (operations != null) {
+            return operations;
+        }
+        return poguesItemRepository.getStudyUnits(seriesId);
+    }
+
+    @Override
+    public List<DDIItem> getDataCollections(String operationId) throws Exception {
+        SearchHierarchy current = hierarchy;
+        List<DDIItem> dataCollections = current != null ? current.getDataCollections(operationId) : null;
+        if (dataCollections != null) {
+            return dataCollections;
+        }
+        return poguesItemRepository.getDataCollections(operationId);
+    }
+
+    @Override
+    public DataCollectionContext getDataCollectionContext(String dataCollectionId) throws Exception {
+        SearchHierarchy current = hierarchy;
+        DataCollectionContext context = current != null ? current.getContext(dataCollectionId) : null;
+        if (context != null) {
+            return context;
+        }
+        return poguesItemRepository.getDataCollectionContext(dataCollectionId);
+    }
+
+    private double age() {
+        SearchHierarchy current = hierarchy;
+        return current == null ? Double.NaN : Duration.between(current.getLoaded(), Instant.now()).toSeconds();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("pogues.search.hierarchy.age", this, CachedPoguesItemRepository::age)
+                .baseUnit("seconds")
+                .description("Time since the search hierarchy was last loaded (growing when refreshes fail)")
+                .register(registry);
+    }
+
+}
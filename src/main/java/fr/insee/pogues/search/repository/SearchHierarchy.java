@@ -0,0 +1,101 @@
+package fr.insee.pogues.search.repository;
+
+import fr.insee.pogues.search.model.DDIItem;
+import fr.insee.pogues.search.model.DataCollectionContext;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of the whole hierarchy of the metadata repository (series, their operations, and the data collections of
+ * these), indexed by parent and by data collection. Immutable, loaded as a whole.
+ */
+class SearchHierarchy {
+
+    private final List<DDIItem> series;
+    private final Map<String, List<DDIItem>> operationsBySeries;
+    private final Map<String, List<DDIItem>> dataCollectionsByOperation;
+    private final Map<String, DataCollectionContext> contextsByDataCollection;
+    private final Instant loaded;
+
+    private SearchHierarchy(List<DDIItem> series, Map<String, List<DDIItem>> operationsBySeries,
+                            Map<String, List<DDIItem>> dataCollectionsByOperation,
+                            Map<String, DataCollectionContext> contextsByDataCollection) {
+        this.series = series;
+        this.operationsBySeries = operationsBySeries;
+        this.dataCollectionsByOperation = dataCollectionsByOperation;
+        this.contextsByDataCollection = contextsByDataCollection;
+        this.loaded = Instant.now();
+    }
+
+    /**
+     * @param repository Remote repository, walked from the series down to the data collections.
+     * @return The hierarchy, complete.
+     * @throws Exception if any of the calls fails.
+     */
+    static SearchHierarchy load(PoguesItemRepository repository) throws Exception {
+        List<DDIItem> series = unmodifiable(repository.getSubGroups());
+        Map<String, List<DDIItem>> operationsBySeries = new HashMap<>();
+        Map<String, List<DDIItem>> dataCollectionsByOperation = new HashMap<>();
+        Map<String, DataCollectionContext> contextsByDataCollection = new HashMap<>();
+        for (DDIItem serie : series) {
+            List<DDIItem> operations = unmodifiable(repository.getStudyUnits(serie.getId()));
+            operationsBySeries.put(serie.getId(), operations);
+            for (DDIItem operation : operations) {
+                List<DDIItem> dataCollections = unmodifiable(repository.getDataCollections(operation.getId()));
+                dataCollectionsByOperation.put(operation.getId(), dataCollections);
+                for (DDIItem dataCollection : dataCollections) {
+                    DataCollectionContext context = new DataCollectionContext();
+                    context.setDataCollectionId(dataCollection.getId());
+                    context.setOperationId(operation.getId());
+                    context.setSerieId(serie.getId());
+                    contextsByDataCollection.put(dataCollection.getId(), context);
+                }
+            }
+        }
+        return new SearchHierarchy(series, operationsBySeries, dataCollectionsByOperation, contextsByDataCollection);
+    }
+
+    private static List<DDIItem> unmodifiable(List<DDIItem> items) {
+        return Collections.unmodifiableList(new ArrayList<>(items));
+    }
+
+    List<DDIItem> getSeries() {
+        return series;
+    }
+
+    /**
+     * @return Operations of the series, null if the series is unknown.
+     */
+    List<DDIItem> getOperations(String seriesId) {
+        return operationsBySeries.get(seriesId);
+    }
+
+    /**
+     * @return Data collections of the operation, null if the operation is unknown.
+     */
+    List<DDIItem> getDataCollections(String operationId) {
+        return dataCollectionsByOperation.get(operationId);
+    }
+
+    /**
+     * @return Context of the data collection, null if the data collection is unknown.
+     */
+    DataCollectionContext getContext(String dataCollectionId) {
+        return contextsByDataCollection.get(dataCollectionId);
+    }
+
+    Instant getLoaded() {
+        return loaded;
+    }
+
+    int size() {
+        return series.size() + operationsBySeries.values().stream().mapToInt(List::size).sum()
+                + contextsByDataCollection.size();
+    }
+
+}
@@ -0,0 +1,105 @@
+package fr.insee.pogues.transforms;
+
+import fr.insee.pogues.utils.Hashes;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Coalescing of identical transformations requested at the same time (a questionnaire visualized by several
+ * users, a double submission): the first request runs the pipeline, the identical ones arriving while it is in
+ * progress wait for its result (or its failure) instead of running it again. The result is held in memory until
+ * all of them have it, so this is meant for transformations with small results (visualization URIs).
+ * Requests are counted by endpoint, tagged by whether they were coalesced with a transformation in progress.
+ */
+@Component
+public class InFlightTransformations {
+
+    private static final Logger logger = LogManager.getLogger(InFlightTransformations.class);
+
+    @Value("${fr.insee.pogues.transforms.coalescing.enabled:true}")
+    boolean enabled;
+
+    @Autowired(required = false)
+    MeterRegistry meterRegistry;
+
+    private final Map<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the pipeline, unless an identical transformation is in progress, and writes its result in the output.
+     * @param endpoint Name of the endpoint, in the metrics.
+     * @param transformation Transformation, with all its parameters.
+     * @param input Input of the transformation.
+     * @param pipeline Pipeline of the transformation, reading the input (not run if coalesced).
+     * @param output Output of the result (not closed).
+     * @throws Exception The exception of the pipeline, be it run by this request or by an identical one.
+     */
+    public void transform(String endpoint, String transformation, String input, StreamPipeLine pipeline,
+                          OutputStream output) throws Exception {
+        if (!enabled) {
+            pipeline.transform(output);
+            return;
+        }
+        String key = key(transformation, input);
+        CompletableFuture<byte[]> own = new CompletableFuture<>();
+        CompletableFuture<byte[]> inProgress = inFlight.putIfAbsent(key, own);
+        count(endpoint, inProgress != null);
+        if (inProgress != null) {
+            logger.debug("Transformation {} coalesced with the one in progress", transformation);
+            output.write(await(inProgress));
+            return;
+        }
+        try {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            pipeline.transform(result);
+            own.complete(result.toByteArray());
+        } catch (Throwable e) {
+            // Whatever the failure, the coalesced requests must not wait forever
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, own);
+        }
+        output.write(own.get());
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> inProgress) throws Exception {
+        try {
+            return inProgress.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void count(String endpoint, boolean coalesced) {
+        if (meterRegistry != null) {
+            Counter.builder("pogues.transforms.requests")
+                    .description("Transformation requests, coalesced or not with an identical one in progress")
+                    .tags("endpoint", endpoint, "coalesced", String.valueOf(coalesced))
+                    .register(meterRegistry)
+                    .increment();
+        }
+    }
+
+    /**
+     * @return Key of the transformation of the input (SHA-256 of both).
+     */
+    public static String key(String transformation, String input) {
+        return Hashes.sha256(transformation, input);
+    }
+
+}
@@ -10,6 +10,11 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Pipeline of transformations holding the whole document as a String between stages.
+ * Kept for the transformations working on Strings: documents going through several transformers
+ * should rather go through a {@link StreamPipeLine}, which also accepts these transformations.
+ */
 public class PipeLine {
 
 
@@ -0,0 +1,360 @@
+package fr.insee.pogues.transforms;
+
+import fr.insee.pogues.webservice.rest.PoguesException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.util.ClassUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pipeline of transformations working on streams: each stage reads the output of the previous one through a bounded
+ * pipe while it is being produced, so that the document is never held as a whole between two stages.
+ * All the stages but the last one run on a thread of their own (from a {@link StreamPipeLineExecutor}), the last one
+ * writes in the output given.
+ * The first failing stage is the one whose exception is thrown (the failures it causes downstream or upstream,
+ * because of a truncated input or of a closed pipe, are ignored).
+ * When given a meter registry, each stage is measured, tagged by endpoint and stage: duration, duration without the
+ * time spent waiting for the previous stage or for the next one (the time the stage itself takes),
+ * input and output sizes, and failures (only the first failing stage of a pipeline is counted).
+ */
+public class StreamPipeLine {
+
+    static final Logger logger = LogManager.getLogger(StreamPipeLine.class);
+
+    static final String ENDPOINT_TAG = "endpoint";
+    static final String STAGE_TAG = "stage";
+
+    /** Size of the pipes between stages: a stage is blocked when the next one is that far behind. */
+    static final int PIPE_SIZE = 64 * 1024;
+
+    private final StreamPipeLineExecutor stageExecutor;
+    private final MeterRegistry meterRegistry;
+    private final String endpoint;
+
+    private InputStream input;
+    private final List<NamedStage> stages = new ArrayList<>();
+
+    @FunctionalInterface
+    public interface Stage {
+        void apply(InputStream input, OutputStream output) throws Exception;
+    }
+
+    private static class NamedStage {
+        private final String name;
+        private final Stage stage;
+
+        private NamedStage(String name, Stage stage) {
+            this.name = name;
+            this.stage = stage;
+        }
+    }
+
+    /**
+     * @param stageExecutor Threads of the stages.
+     */
+    public StreamPipeLine(StreamPipeLineExecutor stageExecutor) {
+        this(stageExecutor, null, null);
+    }
+
+    /**
+     * @param stageExecutor Threads of the stages.
+     * @param meterRegistry Registry of the stage metrics (no metrics if null).
+     * @param endpoint Name of the endpoint running the pipeline, in the metrics.
+     */
+    public StreamPipeLine(StreamPipeLineExecutor stageExecutor, MeterRegistry meterRegistry, String endpoint) {
+        this.stageExecutor = stageExecutor;
+        this.meterRegistry = meterRegistry;
+        this.endpoint = endpoint;
+    }
+
+    public StreamPipeLine from(InputStream input) {
+        this.input = input;
+        return this;
+    }
+
+    public StreamPipeLine from(String input) {
+        this.input = new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8));
+        return this;
+    }
+
+    /**
+     * Adds a transformer, named after its class in the metrics.
+     */
+    public StreamPipeLine map(Transformer transformer, Map<String, Object> params, String surveyName) {
+        String name = ClassUtils.getUserClass(transformer).getSimpleName().replaceFirst("Impl$", "");
+        stages.add(new NamedStage(name,
+                (stageInput, stageOutput) -> transformer.transform(stageInput, stageOutput, params, surveyName)));
+        return this;
+    }
+
+    /**
+     * Adds a transformation working on the whole document, as in {@link PipeLine}.
+     */
+    public StreamPipeLine map(PipeLine.Transform<String, String> t, Map<String, Object> params, String surveyName) {
+        stages.add(new NamedStage("stage-" + (stages.size() + 1), (stageInput, stageOutput) -> stageOutput.write(
+                t.apply(IOUtils.toString(stageInput, StandardCharsets.UTF_8), params, surveyName)
+                        .getBytes(StandardCharsets.UTF_8))));
+        return this;
+    }
+
+    /**
+     * Runs the stages, the result of the last one being written in the output (which is not closed).
+     * @param output Output of the pipeline.
+     * @throws Exception The exception of the first failing stage, or a {@link PoguesException} 503 if there
+     * are not enough stage threads available.
+     */
+    public void transform(OutputStream output) throws Exception {
+        if (stages.isEmpty()) {
+            try (InputStream in = input) {
+                in.transferTo(output);
+            }
+            return;
+        }
+        AtomicReference<Exception> firstFailure = new AtomicReference<>();
+        List<Future<Void>> upstreamStages = new ArrayList<>();
+        InputStream stageInput = input;
+        try {
+            for (NamedStage stage : stages.subList(0, stages.size() - 1)) {
+                PipeInput nextInput = new PipeInput();
+                OutputStream stageOutput = new BufferedOutputStream(new PipeOutput(nextInput));
+                try {
+                    upstreamStages.add(stageExecutor.submit(
+                            stage(stage, stageInput, stageOutput, true, firstFailure)));
+                } catch (PoguesException e) {
+                    // The stages already running end on their closed pipe
+                    firstFailure.compareAndSet(null, e);
+                    closeQuietly(stageInput);
+                    throw e;
+                }
+                stageInput = nextInput;
+            }
+            stage(stages.get(stages.size() - 1), stageInput, output, false, firstFailure).call();
+        } catch (Exception e) {
+            firstFailure.compareAndSet(null, e);
+        }
+        // Upstream stages end as well when a stage fails, their pipe being closed
+        for (Future<Void> upstreamStage : upstreamStages) {
+            try {
+                upstreamStage.get();
+            } catch (ExecutionException e) {
+                // Already recorded
+            } catch (InterruptedException e) {
+                upstreamStages.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+        }
+        if (firstFailure.get() != null) {
+            throw firstFailure.get();
+        }
+    }
+
+    private Callable<Void> stage(NamedStage stage, InputStream input, OutputStream output, boolean closeOutput,
+                                 AtomicReference<Exception> firstFailure) {
+        return () -> {
+            try (InputStream in = input) {
+                if (meterRegistry != null) {
+                    measured(stage.name, stage.stage, in, output);
+                } else {
+                    stage.stage.apply(in, output);
+                }
+                // A stage may not read its input up to the end: the previous one must not fail on a closed pipe
+                in.transferTo(OutputStream.nullOutputStream());
+                if (closeOutput) {
+                    output.close();
+                }
+            } catch (Exception e) {
+                if (firstFailure.compareAndSet(null, e)) {
+                    logger.error(String.format("Pipeline stage %s failed: %s", stage.name, e.getMessage()));
+                    if (meterRegistry != null) {
+                        Counter.builder("pogues.pipeline.stage.errors")
+                                .description("Failures of the pipeline stages (first failing stage of a pipeline)")
+                                .tags(ENDPOINT_TAG, endpoint, STAGE_TAG, stage.name)
+                                .register(meterRegistry)
+                                .increment();
+                    }
+                }
+                if (closeOutput) {
+                    closeQuietly(output);
+                }
+                throw e;
+            }
+            return null;
+        };
+    }
+
+    private void measured(String name, Stage stage, InputStream input, OutputStream output) throws Exception {
+        MeasuredInput measuredInput = new MeasuredInput(input);
+        MeasuredOutput measuredOutput = new MeasuredOutput(output);
+        long start = System.nanoTime();
+        try {
+            stage.apply(measuredInput, measuredOutput);
+        } finally {
+            long duration = System.nanoTime() - start;
+            Timer.builder("pogues.pipeline.stage.duration")
+                    .description("Duration of the pipeline stages")
+                    .tags(ENDPOINT_TAG, endpoint, STAGE_TAG, name)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(duration, TimeUnit.NANOSECONDS);
+            Timer.builder("pogues.pipeline.stage.active")
+                    .description("Duration of the pipeline stages, without waiting for the previous or next stage")
+                    .tags(ENDPOINT_TAG, endpoint, STAGE_TAG, name)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(duration - measuredInput.waited - measuredOutput.waited, TimeUnit.NANOSECONDS);
+            DistributionSummary.builder("pogues.pipeline.stage.input")
+                    .description("Size of the input read by the pipeline stages")
+                    .baseUnit(BaseUnits.BYTES)
+                    .tags(ENDPOINT_TAG, endpoint, STAGE_TAG, name)
+                    .register(meterRegistry)
+                    .record(measuredInput.bytes);
+            DistributionSummary.builder("pogues.pipeline.stage.output")
+                    .description("Size of the output written by the pipeline stages")
+                    .baseUnit(BaseUnits.BYTES)
+                    .tags(ENDPOINT_TAG, endpoint, STAGE_TAG, name)
+                    .register(meterRegistry)
+                    .record(measuredOutput.bytes);
+        }
+    }
+
+    /** Input counting the bytes read, and the time spent waiting for them. */
+    private static class MeasuredInput extends FilterInputStream {
+        private long bytes;
+        private long waited;
+
+        private MeasuredInput(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            waited += System.nanoTime() - start;
+            if (b != -1) {
+                bytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(b, off, len);
+            waited += System.nanoTime() - start;
+            if (read > 0) {
+                bytes += read;
+            }
+            return read;
+        }
+    }
+
+    /** Output counting the bytes written, and the time spent waiting for them to be taken. */
+    private static class MeasuredOutput extends FilterOutputStream {
+        private long bytes;
+        private long waited;
+
+        private MeasuredOutput(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long start = System.nanoTime();
+            out.write(b);
+            waited += System.nanoTime() - start;
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            out.write(b, off, len);
+            waited += System.nanoTime() - start;
+            bytes += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            out.flush();
+            waited += System.nanoTime() - start;
+        }
+
+        @Override
+        public void close() {
+            // Closed by the pipeline
+        }
+    }
+
+    // Without notifications, the JDK pipes are polled every second by a reader waiting for data,
+    // and by a writer waiting for room in the pipe (even after the reader has closed it)
+
+    private static class PipeInput extends PipedInputStream {
+        private PipeInput() {
+            super(PIPE_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    private static class PipeOutput extends PipedOutputStream {
+        private PipeOutput(PipedInputStream sink) throws IOException {
+            super(sink);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            flush();
+        }
+    }
+
+    private static void closeQuietly(OutputStream output) {
+        try {
+            output.close();
+        } catch (IOException e) {
+            // The next stage is failing too, or has already ended
+        }
+    }
+
+    private static void closeQuietly(InputStream input) {
+        try {
+            input.close();
+        } catch (IOException e) {
+            // Nothing to be read from it anymore
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package fr.insee.pogues.transforms;
+
+import fr.insee.pogues.webservice.rest.PoguesException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads of the {@link StreamPipeLine} stages (all of them but the last one of each pipeline), shared by all the
+ * pipelines. Stages are never queued: a stage waiting for a thread would block the next ones, reading its output.
+ * A stage submitted while all the threads are busy is rejected (503).
+ */
+@Component
+public class StreamPipeLineExecutor {
+
+    // Stage threads mostly wait (on the pipes, or on Eno): a few per request in progress
+    @Value("${fr.insee.pogues.pipeline.threads:64}")
+    int threads;
+
+    private ThreadPoolExecutor stageExecutor;
+
+    public StreamPipeLineExecutor() {}
+
+    public StreamPipeLineExecutor(int threads) {
+        this.threads = threads;
+    }
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        stageExecutor = new ThreadPoolExecutor(0, threads, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "pogues-pipeline-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stageExecutor.shutdownNow();
+    }
+
+    /**
+     * @param stage Stage of a pipeline, started at once.
+     * @throws PoguesException 503 if all the threads are busy.
+     */
+    Future<Void> submit(Callable<Void> stage) throws PoguesException {
+        try {
+            return stageExecutor.submit(stage);
+        } catch (RejectedExecutionException e) {
+            throw new PoguesException(503, "Service Unavailable", "Too many transformations in progress");
+        }
+    }
+
+}
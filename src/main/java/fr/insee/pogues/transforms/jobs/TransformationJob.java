@@ -0,0 +1,115 @@
+package fr.insee.pogues.transforms.jobs;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Transformation run in the background: its status is polled, and its result downloaded once done.
+ */
+public class TransformationJob {
+
+    public enum Status { PENDING, RUNNING, DONE, FAILED }
+
+    private final String id = UUID.randomUUID().toString();
+    private final String key;
+    private final String transformation;
+    private final String contentType;
+    private final String fileName;
+    private final Instant submitted = Instant.now();
+
+    private volatile Status status = Status.PENDING;
+    private volatile Instant started;
+    private volatile Instant finished;
+    private volatile String error;
+    private volatile Path result;
+
+    TransformationJob(String key, String transformation, String contentType, String fileName) {
+        this.key = key;
+        this.transformation = transformation;
+        this.contentType = contentType;
+        this.fileName = fileName;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    @JsonIgnore
+    String getKey() {
+        return key;
+    }
+
+    public String getTransformation() {
+        return transformation;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Instant getSubmitted() {
+        return submitted;
+    }
+
+    public Instant getStarted() {
+        return started;
+    }
+
+    public Instant getFinished() {
+        return finished;
+    }
+
+    /**
+     * @return Message of the failure, if the job failed.
+     */
+    public String getError() {
+        return error;
+    }
+
+    @JsonIgnore
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return Name of the result as an attachment, null if it is not one.
+     */
+    @JsonIgnore
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return File of the result, null until the job is done.
+     */
+    @JsonIgnore
+    public Path getResult() {
+        return result;
+    }
+
+    @JsonIgnore
+    public boolean isEnded() {
+        return status == Status.DONE || status == Status.FAILED;
+    }
+
+    void started() {
+        started = Instant.now();
+        status = Status.RUNNING;
+    }
+
+    void done(Path result) {
+        this.result = result;
+        finished = Instant.now();
+        status = Status.DONE;
+    }
+
+    void failed(String error) {
+        this.error = error;
+        finished = Instant.now();
+        status = Status.FAILED;
+    }
+
+}
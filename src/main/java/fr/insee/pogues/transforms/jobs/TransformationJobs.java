@@ -0,0 +1,174 @@
+package fr.insee.pogues.transforms.jobs;
+
+import fr.insee.pogues.transforms.InFlightTransformations;
+import fr.insee.pogues.transforms.StreamPipeLine;
+import fr.insee.pogues.webservice.rest.PoguesException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transformations run in the background, so that long ones (PDF, specification, visualizations of big
+ * questionnaires) don't hold a request: jobs run on a bounded pool, the submissions beyond the queue capacity being
+ * rejected, and their results are written in files of their own, deleted with the job once its time to live is over.
+ * A submission identical to a job in progress (same transformation, same input) is answered with this job.
+ */
+@Component
+public class TransformationJobs {
+
+    private static final Logger logger = LogManager.getLogger(TransformationJobs.class);
+
+    @Value("${fr.insee.pogues.transforms.jobs.threads:4}")
+    int threads;
+
+    @Value("${fr.insee.pogues.transforms.jobs.queue-capacity:50}")
+    int queueCapacity;
+
+    /** Time during which an ended job, and its result, are kept. */
+    @Value("${fr.insee.pogues.transforms.jobs.ttl-minutes:30}")
+    long ttlMinutes;
+
+    @Value("${fr.insee.pogues.transforms.jobs.dir:${java.io.tmpdir}/pogues/jobs}")
+    String resultsDir;
+
+    private final Map<String, TransformationJob> jobs = new ConcurrentHashMap<>();
+    /** Jobs in progress, by key of their transformation and input. */
+    private final Map<String, TransformationJob> inProgress = new ConcurrentHashMap<>();
+
+    private Path directory;
+    private ThreadPoolExecutor jobExecutor;
+    private ScheduledExecutorService cleaner;
+
+    @PostConstruct
+    void init() throws IOException {
+        directory = Files.createDirectories(Path.of(resultsDir));
+        // Jobs don't survive a restart: their results are dropped
+        try (DirectoryStream<Path> results = Files.newDirectoryStream(directory, "job-*.out")) {
+            results.forEach(TransformationJobs::deleteQuietly);
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        jobExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> new Thread(runnable, "transformation-job-" + threadCount.incrementAndGet()));
+        cleaner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transformation-job-cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, ttlMinutes / 10);
+        cleaner.scheduleAtFixedRate(this::cleanUp, period, period, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        cleaner.shutdownNow();
+        jobExecutor.shutdownNow();
+    }
+
+    /**
+     * @param transformation Transformation, with all its parameters (path and query of the request for instance).
+     * @param input Input of the transformation.
+     * @param pipeline Pipeline of the transformation, reading the input (run only if the job is new).
+     * @param contentType Content type of the result.
+     * @param fileName Name of the result as an attachment, null if it is not one.
+     * @return The new job, or the job in progress for the same transformation and input.
+     * @throws PoguesException 503 if there are too many jobs in progress.
+     */
+    public TransformationJob submit(String transformation, String input, StreamPipeLine pipeline, String contentType,
+                                    String fileName) throws PoguesException {
+        String key = InFlightTransformations.key(transformation, input);
+        TransformationJob newJob = new TransformationJob(key, transformation, contentType, fileName);
+        // Known before it may be returned to an identical submission
+        jobs.put(newJob.getId(), newJob);
+        TransformationJob job = inProgress.merge(key, newJob,
+                (existing, submitted) -> existing.isEnded() ? submitted : existing);
+        if (job != newJob) {
+            jobs.remove(newJob.getId());
+            logger.debug("Transformation {} already in progress (job {})", transformation, job.getId());
+            return job;
+        }
+        try {
+            jobExecutor.execute(() -> run(job, pipeline));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            inProgress.remove(key, job);
+            throw new PoguesException(503, "Service Unavailable", "Too many transformation jobs in progress");
+        }
+        logger.info("Transformation {} submitted (job {})", transformation, job.getId());
+        return job;
+    }
+
+    /**
+     * @return The job, null if unknown or expired.
+     */
+    public TransformationJob get(String id) {
+        return jobs.get(id);
+    }
+
+    private void run(TransformationJob job, StreamPipeLine pipeline) {
+        job.started();
+        Path result = null;
+        try {
+            result = Files.createTempFile(directory, "job-", ".out");
+            try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(result))) {
+                pipeline.transform(output);
+            }
+            job.done(result);
+            logger.info("Transformation job {} done", job.getId());
+        } catch (Exception e) {
+            logger.error(String.format("Transformation job %s failed: %s", job.getId(), e.getMessage()));
+            deleteQuietly(result);
+            job.failed(e.getMessage());
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            inProgress.remove(job.getKey(), job);
+        }
+    }
+
+    /** Drop the jobs ended for longer than their time to live, with their results. */
+    void cleanUp() {
+        Instant expiry = Instant.now().minus(Duration.ofMinutes(ttlMinutes));
+        jobs.values().removeIf(job -> {
+            if (job.isEnded() && job.getFinished().isBefore(expiry)) {
+                deleteQuietly(job.getResult());
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Unable to delete {}: {}", file, e.getMessage());
+        }
+    }
+
+}
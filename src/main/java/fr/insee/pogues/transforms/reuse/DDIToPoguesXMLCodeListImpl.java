@@ -11,6 +11,7 @@ import fr.insee.pogues.transforms.PoguesErrorListener;
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
@@ -19,14 +20,24 @@ import java.util.Map;
 /**
  * Created by I6VWID on 07/11/17.
  * TODO Register as a provider
+ * The stylesheet is compiled once, on a processor shared by all the transformations (both are thread-safe):
+ * a transformation only loads a transformer from the compiled stylesheet, which is cheap.
  */
 @Service
 public class DDIToPoguesXMLCodeListImpl implements DDIToPoguesXMLCodeList {
 
-    private final String XSLT_FILE_CODE_LIST = "transforms/xslt/ddi2xml-code-list.xsl";
+    private static final String XSLT_FILE_CODE_LIST = "transforms/xslt/ddi2xml-code-list.xsl";
 
     private Logger logger = LogManager.getLogger(DDIToPoguesXMLCodeListImpl.class);
 
+    private final Processor processor = new Processor(false);
+
+    private final XsltExecutable codeListStylesheet;
+
+    public DDIToPoguesXMLCodeListImpl() throws SaxonApiException {
+        codeListStylesheet = compile(XSLT_FILE_CODE_LIST);
+    }
+
     public void transform(InputStream input, OutputStream output, Map<String, Object>params, String surveyName) throws Exception {
         if (null == input) {
             throw new NullPointerException("Null input");
@@ -35,9 +46,8 @@ public class DDIToPoguesXMLCodeListImpl implements DDIToPoguesXMLCodeList {
             throw new NullPointerException("Null output");
         }
         try {
-            Processor processor = new Processor(false);
             Source source = new StreamSource(input);
-            XsltTransformer t = createPipeline(source, output, processor);
+            XsltTransformer t = createPipeline(source, output);
             t.transform();
         } catch (SaxonApiException e) {
             throw new Exception(String.format("%s:%s, Line: %d, Error Code: %s",
@@ -64,30 +74,37 @@ public class DDIToPoguesXMLCodeListImpl implements DDIToPoguesXMLCodeList {
         }
     }
 
-    private XsltTransformer createPipeline(Source input, OutputStream output, Processor processor) throws Exception {
+    private XsltTransformer createPipeline(Source input, OutputStream output) throws Exception {
         DocumentBuilder builder = processor.newDocumentBuilder();
         XdmNode source = builder.build(input);
-        XsltTransformer t0 = createTransformer(processor, XSLT_FILE_CODE_LIST);
-        Serializer out = createSerializer(processor, output);
+        XsltTransformer t0 = createTransformer(codeListStylesheet);
+        Serializer out = createSerializer(output);
         t0.setInitialContextNode(source);
         t0.setDestination(out);
         return t0;
     }
 
-    private XsltTransformer createTransformer(Processor processor, String path) throws SaxonApiException {
+    private XsltExecutable compile(String path) throws SaxonApiException {
         XsltCompiler compiler = processor.newXsltCompiler();
         InputStream xslResource = getClass().getClassLoader().getResourceAsStream(path);
         if (null == xslResource) {
             throw new NullPointerException("NULL XSLT Resource");
         }
-        XsltExecutable xsl = compiler.compile(new StreamSource(xslResource));
+        try (xslResource) {
+            return compiler.compile(new StreamSource(xslResource));
+        } catch (IOException e) {
+            throw new SaxonApiException(e);
+        }
+    }
+
+    private XsltTransformer createTransformer(XsltExecutable xsl) {
         XsltTransformer transformer = xsl.load();
         transformer.setSchemaValidationMode(ValidationMode.LAX);
         transformer.setErrorListener(new PoguesErrorListener());
         return transformer;
     }
 
-    private Serializer createSerializer(Processor processor, OutputStream output) {
+    private Serializer createSerializer(OutputStream output) {
         Serializer out = processor.newSerializer(output);
         out.setOutputProperty(Serializer.Property.SAXON_STYLESHEET_VERSION, "2.0");
         out.setOutputProperty(Serializer.Property.METHOD, "xml");
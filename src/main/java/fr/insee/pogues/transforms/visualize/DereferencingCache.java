@@ -0,0 +1,136 @@
+package fr.insee.pogues.transforms.visualize;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fr.insee.pogues.utils.Hashes;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of de-referenced questionnaires. An entry is the composition of a root questionnaire, identified by
+ * the hash of its json, with the versions of the questionnaires it references: it is only used while these
+ * versions are unchanged, and it is dropped as soon as one of the questionnaires involved is updated or deleted.
+ */
+@Component
+public class DereferencingCache implements MeterBinder {
+
+    @Value("${fr.insee.pogues.dereferencing.cache.enabled:true}")
+    boolean enabled;
+
+    @Value("${fr.insee.pogues.dereferencing.cache.max-size:100}")
+    long maxSize;
+
+    private Cache<String, Entry> cache;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /** Versions of questionnaires, as currently stored. */
+    @FunctionalInterface
+    public interface VersionsLookup {
+        Map<String, Long> versions(Collection<String> ids) throws Exception;
+    }
+
+    private static class Entry {
+        private final Set<String> questionnaires = new HashSet<>();
+        private final Map<String, Long> referencedVersions;
+        private final String dereferenced;
+
+        private Entry(String rootId, Map<String, Long> referencedVersions, String dereferenced) {
+            this.questionnaires.add(rootId);
+            this.questionnaires.addAll(referencedVersions.keySet());
+            this.referencedVersions = referencedVersions;
+            this.dereferenced = dereferenced;
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        cache = Caffeine.newBuilder().maximumSize(maxSize).build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param questionnaire Json of the root questionnaire.
+     * @return Key of the questionnaire in the cache (SHA-256 of the json).
+     */
+    public static String key(String questionnaire) {
+        return Hashes.sha256(questionnaire);
+    }
+
+    /**
+     * @param key Key of the root questionnaire.
+     * @param versionsLookup Source of the current versions of the referenced questionnaires.
+     * @return The de-referenced questionnaire, null if absent or if a referenced questionnaire has changed since.
+     * @throws Exception if the current versions can't be read.
+     */
+    public String get(String key, VersionsLookup versionsLookup) throws Exception {
+        Entry entry = cache.getIfPresent(key);
+        if (entry != null) {
+            if (entry.referencedVersions.isEmpty()
+                    || entry.referencedVersions.equals(versionsLookup.versions(entry.referencedVersions.keySet()))) {
+                hits.increment();
+                return entry.dereferenced;
+            }
+            cache.invalidate(key);
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * @param key Key of the root questionnaire.
+     * @param rootId Id of the root questionnaire.
+     * @param referencedVersions Versions of the referenced questionnaires, read before they were loaded.
+     * @param dereferenced The de-referenced questionnaire.
+     */
+    public void put(String key, String rootId, Map<String, Long> referencedVersions, String dereferenced) {
+        cache.put(key, new Entry(rootId, Map.copyOf(referencedVersions), dereferenced));
+    }
+
+    /**
+     * Drop the de-referenced questionnaires involving the questionnaire, as root or as reference.
+     * @param id Id of a questionnaire updated or deleted.
+     */
+    public void invalidate(String id) {
+        cache.asMap().values().removeIf(entry -> entry.questionnaires.contains(id));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("pogues.dereferencing.cache.gets", hits, LongAdder::sum)
+                .tag("result", "hit")
+                .description("De-referenced questionnaires found in the cache")
+                .register(registry);
+        FunctionCounter.builder("pogues.dereferencing.cache.gets", misses, LongAdder::sum)
+                .tag("result", "miss")
+                .description("De-referenced questionnaires composed, since absent from the cache or outdated")
+                .register(registry);
+        Gauge.builder("pogues.dereferencing.cache.size", cache, Cache::estimatedSize)
+                .description("De-referenced questionnaires in the cache")
+                .register(registry);
+    }
+
+    long hitCount() {
+        return hits.sum();
+    }
+
+    long missCount() {
+        return misses.sum();
+    }
+
+}
@@ -1,128 +1,164 @@
 package fr.insee.pogues.transforms.visualize;
 
 import fr.insee.pogues.config.StaticResourcesForFOPConfig;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.FilenameUtils;
+import fr.insee.pogues.webservice.rest.PoguesException;
 import org.apache.fop.apps.Fop;
 import org.apache.fop.apps.FopFactory;
 import org.apache.fop.apps.MimeConstants;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.stream.StreamSource;
 import java.io.*;
-import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Map;
-
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders FO documents to PDF. The FopFactory (configuration and fonts) is built once and shared by all the
+ * renderings, which run on a bounded pool: a rendering holds the whole FO tree of a page sequence in memory,
+ * so the number of simultaneous renderings is limited and the requests beyond the queue capacity are rejected.
+ */
 @Service
 public class FOToPDFImpl implements FOToPDF {
 
 	final static Logger logger = LogManager.getLogger(FOToPDFImpl.class);
-	
+
 	public static final String TEMP_FOLDER_PATH = System.getProperty("java.io.tmpdir") + "/eno";
-	
-	public static final String FINAL_FO_EXTENSION = "-final-out.fo";
 
 	@Autowired
 	private StaticResourcesForFOPConfig staticResourcesForFOPConfig;
 
+	@Value("${fr.insee.pogues.pdf.render.threads:4}")
+	int renderThreads;
+
+	@Value("${fr.insee.pogues.pdf.render.queue-capacity:50}")
+	int renderQueueCapacity;
+
+	private FopFactory fopFactory;
+
+	private ThreadPoolExecutor renderExecutor;
+
+	private static final TransformerFactory transformerFactory = TransformerFactory.newInstance();
+
+	// Identity transformers (piping the FO to FOP) are not thread-safe: one per render thread
+	private static final ThreadLocal<Transformer> identityTransformer = new ThreadLocal<>();
+
+	@PostConstruct
+	void init() throws Exception {
+		// Fonts are loaded once by the factory (and their metrics kept in FOP's font cache)
+		try (InputStream isXconf = staticResourcesForFOPConfig.getFopXconf().getInputStream()) {
+			fopFactory = FopFactory.newInstance(staticResourcesForFOPConfig.getImgFolderUri(), isXconf);
+		}
+		AtomicInteger threadCount = new AtomicInteger();
+		renderExecutor = new ThreadPoolExecutor(renderThreads, renderThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(renderQueueCapacity),
+				runnable -> new Thread(runnable, "pdf-render-" + threadCount.incrementAndGet()));
+	}
+
+	@PreDestroy
+	void shutdown() {
+		renderExecutor.shutdown();
+	}
+
+	/**
+	 * Renders the FO input as PDF directly in the output.
+	 */
 	@Override
 	public void transform(InputStream input, OutputStream output, Map<String, Object> params, String surveyName)
 			throws Exception {
-		logger.debug("Eno transformation");
+		logger.debug("FOP transformation");
 		if (null == input) {
 			throw new NullPointerException("Null input");
 		}
 		if (null == output) {
 			throw new NullPointerException("Null output");
 		}
-		String odt = transform(input, params, surveyName);
-		logger.debug("Eno transformation finished");
-		output.write(odt.getBytes(StandardCharsets.UTF_8));
+		render(input, output);
+		logger.debug("FOP transformation finished");
 	}
 
+	/**
+	 * Renders the FO input in a PDF file of its own.
+	 * @return The path of the PDF file.
+	 */
 	@Override
 	public String transform(InputStream input, Map<String, Object> params, String surveyName) throws Exception {
 		if (null == input) {
 			throw new NullPointerException("Null input");
 		}
-		File enoInput;
-		enoInput = File.createTempFile("eno", ".xml");
-		FileUtils.copyInputStreamToFile(input, enoInput);
-		return transform(enoInput, params, surveyName);
+		Path dirTemp = Files.createDirectories(Path.of(TEMP_FOLDER_PATH));
+		Path outFilePDF = Files.createTempFile(dirTemp, "form-", ".pdf");
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(outFilePDF))) {
+			render(input, out);
+		} catch (Exception e) {
+			Files.deleteIfExists(outFilePDF);
+			throw e;
+		}
+		logger.info("PDF output file : " + outFilePDF.toAbsolutePath());
+		return outFilePDF.toAbsolutePath().toString();
 	}
 
 	@Override
 	public String transform(String input, Map<String, Object> params, String surveyName) throws Exception {
-		File enoInput;
 		if (null == input) {
 			throw new NullPointerException("Null input");
 		}
-		enoInput = File.createTempFile("eno", ".fo");
-		FileUtils.writeStringToFile(enoInput, input, StandardCharsets.UTF_8);
-		return transform(enoInput, params, surveyName);
+		return transform(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), params, surveyName);
 	}
 
-	private String transform(File file, Map<String, Object> params, String surveyName) throws Exception {
-
-
-		InputStream isXconf = staticResourcesForFOPConfig.getFopXconf().getInputStream();
-		URI imgFolderUri = staticResourcesForFOPConfig.getImgFolderUri();
-
-		// Step 1: Construct a FopFactory by specifying a reference to the
-		// configuration file
-		// (reuse if you plan to render multiple documents!)
-		FopFactory fopFactory = FopFactory.newInstance(imgFolderUri, isXconf);
-		
-		File dirTemp = new File(TEMP_FOLDER_PATH);
-		if (!dirTemp.exists()) {
-			if (dirTemp.mkdir()) {
-				logger.debug("Create eno temp directory");
-			} else {
-				logger.debug("Fail to create temp directory");
+	private void render(InputStream input, OutputStream output) throws Exception {
+		Future<?> rendering;
+		try {
+			rendering = renderExecutor.submit(() -> {
+				Fop fop = fopFactory.newFop(MimeConstants.MIME_PDF, output);
+				Source src = new StreamSource(input);
+				// Resulting SAX events (the FO) are piped through to FOP
+				Result res = new SAXResult(fop.getDefaultHandler());
+				identityTransformer().transform(src, res);
+				return null;
+			});
+		} catch (RejectedExecutionException e) {
+			throw new PoguesException(503, "Service Unavailable", "Too many PDF renderings in progress");
+		}
+		try {
+			rendering.get();
+		} catch (InterruptedException e) {
+			rendering.cancel(true);
+			Thread.currentThread().interrupt();
+			throw e;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
 			}
-		}		
-		String outFilePath = TEMP_FOLDER_PATH + "/form" + FINAL_FO_EXTENSION;
-		File outFilePDF = new File(FilenameUtils.removeExtension(outFilePath) + ".pdf");
-
-		// Step 2: Set up output stream.
-		// Note: Using BufferedOutputStream for performance reasons
-		// (helpful with FileOutputStreams).
-		OutputStream out = new BufferedOutputStream(new FileOutputStream(outFilePDF));
-
-		// Step 3: Construct fop with desired output format
-		Fop fop = fopFactory.newFop(MimeConstants.MIME_PDF, out);
-
-		// Step 4: Setup JAXP using identity transformer
-		TransformerFactory factory = TransformerFactory.newInstance();
-		Transformer transformer = factory.newTransformer(); // identity
-															// transformer
-
-		// Step 5: Setup input and output for XSLT transformation
-		// Setup input stream
-		Source src = new StreamSource(file);
-		// Resulting SAX events (the generated FO) must be piped through
-		// to FOP
-		Result res = new SAXResult(fop.getDefaultHandler());
-
-		// Step 6: Start XSLT transformation and FOP processing
-		transformer.transform(src, res);
-
-		// Clean-up
-		out.close();
-
-		logger.info("PDF output file : " + outFilePDF.getAbsolutePath());
-
-		return outFilePDF.getAbsolutePath();
+			throw e;
+		}
+	}
 
+	private static Transformer identityTransformer() throws TransformerConfigurationException {
+		Transformer transformer = identityTransformer.get();
+		if (transformer == null) {
+			synchronized (transformerFactory) {
+				transformer = transformerFactory.newTransformer();
+			}
+			identityTransformer.set(transformer);
+		}
+		transformer.reset();
+		return transformer;
 	}
-	
+
 }
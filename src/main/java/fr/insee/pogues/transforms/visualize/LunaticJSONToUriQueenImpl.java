@@ -1,8 +1,10 @@
 package fr.insee.pogues.transforms.visualize;
 
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 import org.json.simple.JSONObject;
@@ -12,7 +14,6 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import fr.insee.pogues.persistence.service.QuestionnairesService;
-import fr.insee.pogues.webservice.rest.PoguesException;
 
 @Service
 public class LunaticJSONToUriQueenImpl implements LunaticJSONToUriQueen{
@@ -38,24 +39,33 @@ public class LunaticJSONToUriQueenImpl implements LunaticJSONToUriQueen{
 	@Override
 	public void transform(InputStream input, OutputStream output, Map<String, Object> params, String surveyName)
 			throws Exception {
-		throw new RuntimeException("Not Implemented");
-		
+		if (null == input) {
+			throw new NullPointerException("Null input");
+		}
+		if (null == output) {
+			throw new NullPointerException("Null output");
+		}
+		output.write(transform(input, params, surveyName).getBytes(StandardCharsets.UTF_8));
 	}
 
 	@Override
 	public String transform(InputStream input, Map<String, Object> params, String surveyName) throws Exception {
-		throw new RuntimeException("Not Implemented");
+		if (null == input) {
+			throw new NullPointerException("Null input");
+		}
+		return visualizationUri((JSONObject) new JSONParser().parse(
+				new InputStreamReader(input, StandardCharsets.UTF_8)));
 	}
 
 	@Override
 	public String transform(String input, Map<String, Object> params, String surveyName) throws Exception {
-		JSONParser parser = new JSONParser();
-		JSONObject jsonContent = (JSONObject) parser.parse(input);
+		return visualizationUri((JSONObject) new JSONParser().parse(input));
+	}
+
+	private String visualizationUri(JSONObject jsonContent) throws Exception {
 		String id  = (String) jsonContent.get("id");
 		try {
-			questionnaireService.createJsonLunatic(jsonContent);
-		} catch (PoguesException e) {
-			questionnaireService.updateJsonLunatic(id, jsonContent);
+			questionnaireService.createOrUpdateJsonLunatic(jsonContent);
         } catch (Exception e) {
             throw new Exception(String.format("%s:%s", getClass().getName(), e.getMessage()));
         }
@@ -1,25 +1,38 @@
 package fr.insee.pogues.transforms.visualize;
 
+import fr.insee.pogues.exception.CyclicReferenceException;
 import fr.insee.pogues.exception.NullReferenceException;
 import fr.insee.pogues.model.Questionnaire;
 import fr.insee.pogues.persistence.service.QuestionnairesService;
 import fr.insee.pogues.utils.PoguesDeserializer;
 import fr.insee.pogues.utils.PoguesSerializer;
 import fr.insee.pogues.transforms.visualize.composition.QuestionnaireComposition;
-import fr.insee.pogues.utils.json.JSONFunctions;
+import fr.insee.pogues.utils.json.QuestionnaireHeader;
 import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 public class PoguesJSONToPoguesJSONDerefImpl implements PoguesJSONToPoguesJSONDeref{
@@ -32,12 +45,36 @@ public class PoguesJSONToPoguesJSONDerefImpl implements PoguesJSONToPoguesJSONDe
     @Autowired
     QuestionnairesService questionnairesService;
 
+    @Autowired
+    DereferencingCache dereferencingCache;
+
+    // Bounded: deserialization is CPU bound, and shared by all the requests
+    @Value("${fr.insee.pogues.deref.threads:4}")
+    int deserializationThreads;
+
+    private ExecutorService deserializationExecutor;
+
     public PoguesJSONToPoguesJSONDerefImpl() {}
 
     public PoguesJSONToPoguesJSONDerefImpl(QuestionnairesService questionnairesService) {
         this.questionnairesService = questionnairesService;
     }
 
+    @PostConstruct
+    void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        deserializationExecutor = Executors.newFixedThreadPool(deserializationThreads, runnable -> {
+            Thread thread = new Thread(runnable, "pogues-deref-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        deserializationExecutor.shutdownNow();
+    }
+
     @Override
     public void transform(InputStream input, OutputStream output, Map<String, Object> params, String surveyName) throws Exception {
         if (null == input) {
@@ -69,46 +106,214 @@ public class PoguesJSONToPoguesJSONDerefImpl implements PoguesJSONToPoguesJSONDe
             logger.info("No de-referencing needed");
             return input;
         }
-        Questionnaire questionnaire = transformAsQuestionnaire(input);
-        return PoguesSerializer.questionnaireJavaToString(questionnaire);
+        if (dereferencingCache == null || !dereferencingCache.isEnabled()) {
+            return PoguesSerializer.questionnaireJavaToString(transformAsQuestionnaire(input, null));
+        }
+        String key = DereferencingCache.key(input);
+        String dereferenced = dereferencingCache.get(key, questionnairesService::getQuestionnaireVersions);
+        if (dereferenced != null) {
+            logger.info("De-referenced questionnaire found in cache");
+            return dereferenced;
+        }
+        Map<String, Long> referencedVersions = new HashMap<>();
+        Questionnaire questionnaire = transformAsQuestionnaire(input, referencedVersions);
+        dereferenced = PoguesSerializer.questionnaireJavaToString(questionnaire);
+        dereferencingCache.put(key, questionnaire.getId(), referencedVersions, dereferenced);
+        return dereferenced;
     }
 
     public Questionnaire transformAsQuestionnaire(String input) throws Exception {
+        return transformAsQuestionnaire(input, null);
+    }
+
+    /**
+     * @param input Json of the questionnaire.
+     * @param referencedVersions If not null, filled with the versions of the referenced questionnaires,
+     *                           as they were before being loaded.
+     * @return The de-referenced questionnaire.
+     */
+    private Questionnaire transformAsQuestionnaire(String input, Map<String, Long> referencedVersions)
+            throws Exception {
         if (null == input) {
             throw new NullPointerException(NULL_INPUT_MESSAGE);
         }
-        // Parse Pogues json questionnaire
-        JSONParser parser = new JSONParser();
-        JSONObject jsonQuestionnaire = (JSONObject) parser.parse(input);
         // Get referenced questionnaire identifiers
         // TODO: The "childQuestionnaireRef" in the json should be supported by Pogues-Model
-        List<String> references = JSONFunctions.getChildReferencesFromQuestionnaire(jsonQuestionnaire);
+        List<String> references = QuestionnaireHeader.scan(input).getChildReferences();
         // Deserialize json into questionnaire object
-        Questionnaire questionnaire = PoguesDeserializer.questionnaireToJavaObject(jsonQuestionnaire);
+        Questionnaire questionnaire = PoguesDeserializer.questionnaireToJavaObject(input);
         //
-        deReference(references, questionnaire);
+        deReference(references, questionnaire, referencedVersions);
         logger.info("Sequences inserted");
         //
         return questionnaire;
     }
 
-    private void deReference(List<String> references, Questionnaire questionnaire) throws Exception {
-        for (String reference : references) {
-            JSONObject referencedJsonQuestionnaire = questionnairesService.getQuestionnaireByID(reference);
-            if (referencedJsonQuestionnaire == null) {
-                throw new NullReferenceException(String.format(
-                        "Null reference behind reference '%s' in questionnaire '%s'.",
-                        reference, questionnaire.getId()));
-            } else {
-                Questionnaire referencedQuestionnaire = PoguesDeserializer.questionnaireToJavaObject(referencedJsonQuestionnaire);
-                // Coherence check
-                if (! reference.equals(referencedQuestionnaire.getId())) {
-                    logger.warn("Reference '{}' found in questionnaire '{}' mismatch referenced questionnaire's id '{}'",
-                            reference, questionnaire.getId(), referencedQuestionnaire.getId());
+    /**
+     * De-reference the questionnaire, recursively: referenced questionnaires that have references themselves
+     * are composed before being inserted. Each distinct questionnaire of the reference graph is loaded
+     * and composed once, whatever the number of questionnaires referencing it.
+     * @param references References of the questionnaire, in order.
+     * @param questionnaire Root questionnaire.
+     * @param referencedVersions If not null, filled with the versions of the referenced questionnaires.
+     * @throws NullReferenceException if a referenced questionnaire doesn't exist.
+     * @throws CyclicReferenceException if questionnaires reference each other.
+     */
+    private void deReference(List<String> references, Questionnaire questionnaire,
+                             Map<String, Long> referencedVersions) throws Exception {
+        Map<String, List<String>> referenceGraph = new HashMap<>();
+        referenceGraph.put(questionnaire.getId(), references);
+        Map<String, Questionnaire> referencedQuestionnaires = loadReferences(
+                references, referenceGraph, referencedVersions);
+        checkCycles(questionnaire.getId(), referenceGraph, new ArrayList<>(), new HashSet<>());
+        compose(questionnaire.getId(), questionnaire, referenceGraph, referencedQuestionnaires,
+                referencingCounts(referenceGraph), new HashMap<>());
+    }
+
+    /**
+     * Load the reference graph level by level: the questionnaires of a level are fetched at once,
+     * and deserialized in parallel.
+     * @param references References of the root questionnaire.
+     * @param referenceGraph References of each questionnaire (by id), completed with the loaded questionnaires.
+     * @param referencedVersions If not null, filled with the versions of the questionnaires, read before loading
+     *                           them so that a concurrent update can't go unnoticed.
+     * @return The referenced questionnaires, mapped to their id.
+     */
+    private Map<String, Questionnaire> loadReferences(List<String> references, Map<String, List<String>> referenceGraph,
+                                                      Map<String, Long> referencedVersions) throws Exception {
+        Map<String, Questionnaire> referencedQuestionnaires = new HashMap<>();
+        Set<String> toLoad = notLoaded(references, referenceGraph);
+        while (!toLoad.isEmpty()) {
+            if (referencedVersions != null) {
+                referencedVersions.putAll(questionnairesService.getQuestionnaireVersions(toLoad));
+            }
+            Map<String, String> referencedJsonQuestionnaires = questionnairesService.getQuestionnairesRawByIDs(toLoad);
+            Map<String, Future<Questionnaire>> deserializations = new LinkedHashMap<>();
+            try {
+                for (String reference : toLoad) {
+                    String referencedJsonQuestionnaire = referencedJsonQuestionnaires.get(reference);
+                    if (referencedJsonQuestionnaire == null) {
+                        throw new NullReferenceException(String.format(
+                                "Null reference behind reference '%s' in questionnaire '%s'.",
+                                reference, referencingQuestionnaire(reference, referenceGraph)));
+                    }
+                    deserializations.put(reference, deserializationExecutor.submit(
+                            () -> PoguesDeserializer.questionnaireToJavaObject(referencedJsonQuestionnaire)));
+                    referenceGraph.put(reference,
+                            QuestionnaireHeader.scan(referencedJsonQuestionnaire).getChildReferences());
+                }
+                for (Map.Entry<String, Future<Questionnaire>> deserialization : deserializations.entrySet()) {
+                    referencedQuestionnaires.put(deserialization.getKey(), deserialized(deserialization.getValue()));
                 }
-                //
-                QuestionnaireComposition.insertReference(questionnaire, referencedQuestionnaire);
+            } finally {
+                deserializations.values().forEach(future -> future.cancel(true));
+            }
+            Set<String> nextLevel = new LinkedHashSet<>();
+            for (String reference : toLoad) {
+                nextLevel.addAll(notLoaded(referenceGraph.get(reference), referenceGraph));
+            }
+            toLoad = nextLevel;
+        }
+        return referencedQuestionnaires;
+    }
+
+    private static Set<String> notLoaded(List<String> references, Map<String, List<String>> referenceGraph) {
+        Set<String> notLoaded = new LinkedHashSet<>(references);
+        notLoaded.removeAll(referenceGraph.keySet());
+        return notLoaded;
+    }
+
+    private static String referencingQuestionnaire(String reference, Map<String, List<String>> referenceGraph) {
+        return referenceGraph.entrySet().stream()
+                .filter(references -> references.getValue().contains(reference))
+                .map(Map.Entry::getKey)
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * Depth-first walk of the reference graph, failing on the first questionnaire found in its own references.
+     * @param id Id of the questionnaire walked through.
+     * @param referenceGraph References of each questionnaire (by id).
+     * @param path Questionnaires walked through from the root to this one.
+     * @param checked Questionnaires whose references have already been checked.
+     * @throws CyclicReferenceException if the questionnaire is in the path.
+     */
+    private static void checkCycles(String id, Map<String, List<String>> referenceGraph,
+                                    List<String> path, Set<String> checked) throws CyclicReferenceException {
+        if (path.contains(id)) {
+            List<String> cycle = new ArrayList<>(path.subList(path.indexOf(id), path.size()));
+            cycle.add(id);
+            throw new CyclicReferenceException(String.format(
+                    "Cyclic reference between questionnaires: %s.", String.join(" -> ", cycle)));
+        }
+        if (!checked.add(id)) {
+            return;
+        }
+        path.add(id);
+        for (String reference : referenceGraph.get(id)) {
+            checkCycles(reference, referenceGraph, path, checked);
+        }
+        path.remove(path.size() - 1);
+    }
+
+    /**
+     * @return Number of references to each questionnaire (by id) in the reference graph.
+     */
+    private static Map<String, Integer> referencingCounts(Map<String, List<String>> referenceGraph) {
+        Map<String, Integer> counts = new HashMap<>();
+        referenceGraph.values().forEach(references ->
+                references.forEach(reference -> counts.merge(reference, 1, Integer::sum)));
+        return counts;
+    }
+
+    /**
+     * Insert the referenced questionnaires in the questionnaire, in the order of the references, after having
+     * composed them (once). Inserting a questionnaire modifies it (scope of its variables): a questionnaire
+     * referenced several times (diamond in the reference graph) is inserted as composed the first time, and as a
+     * copy of it, deserialized again, the next ones.
+     * @param id Id of the questionnaire in the reference graph.
+     * @param questionnaire Questionnaire to be composed.
+     * @param referenceGraph References of each questionnaire (by id).
+     * @param referencedQuestionnaires The referenced questionnaires, mapped to their id.
+     * @param referencingCounts Number of references to each questionnaire (by id).
+     * @param composed Referenced questionnaires already composed, mapped to their json if they are referenced
+     *                 several times (null otherwise).
+     */
+    private static void compose(String id, Questionnaire questionnaire, Map<String, List<String>> referenceGraph,
+                                Map<String, Questionnaire> referencedQuestionnaires,
+                                Map<String, Integer> referencingCounts, Map<String, String> composed)
+            throws Exception {
+        for (String reference : referenceGraph.get(id)) {
+            Questionnaire referencedQuestionnaire;
+            if (composed.containsKey(reference)) {
+                referencedQuestionnaire = PoguesDeserializer.questionnaireToJavaObject(composed.get(reference));
+            } else {
+                referencedQuestionnaire = referencedQuestionnaires.get(reference);
+                compose(reference, referencedQuestionnaire, referenceGraph, referencedQuestionnaires,
+                        referencingCounts, composed);
+                composed.put(reference, referencingCounts.get(reference) > 1
+                        ? PoguesSerializer.questionnaireJavaToString(referencedQuestionnaire)
+                        : null);
+            }
+            // Coherence check
+            if (! reference.equals(referencedQuestionnaire.getId())) {
+                logger.warn("Reference '{}' found in questionnaire '{}' mismatch referenced questionnaire's id '{}'",
+                        reference, questionnaire.getId(), referencedQuestionnaire.getId());
+            }
+            //
+            QuestionnaireComposition.insertReference(questionnaire, referencedQuestionnaire);
+        }
+    }
+
+    private static Questionnaire deserialized(Future<Questionnaire> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
             }
+            throw e;
         }
     }
 
@@ -1,12 +1,12 @@
 package fr.insee.pogues.transforms.visualize;
 
-import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -35,40 +35,26 @@ public class PoguesXMLToDDIImpl implements PoguesXMLToDDI {
 		if (null == output) {
 			throw new NullPointerException("Null output");
 		}
-		String xForm = transform(input, params, surveyName);
-		output.write(xForm.getBytes(StandardCharsets.UTF_8));
+		try {
+			enoClient.getXMLPoguesToDDI(input, output);
+		} catch (Exception e) {
+			throw new Exception(String.format("%s:%s", getClass().getName(), e.getMessage()));
+		}
 	}
 
 	@Override
 	public String transform(InputStream input, Map<String, Object> params, String surveyName) throws Exception {
-		if (null == input) {
-			throw new NullPointerException("Null input");
-		}
-		File enoInput;
-		enoInput = File.createTempFile("eno", ".xml");
-		FileUtils.copyInputStreamToFile(input, enoInput);
-		return transform(enoInput, params, surveyName);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		transform(input, output, params, surveyName);
+		return output.toString(StandardCharsets.UTF_8);
 	}
 
 	@Override
 	public String transform(String input, Map<String, Object> params, String surveyName) throws Exception {
-		File enoInput;
 		if (null == input) {
 			throw new NullPointerException("Null input");
 		}
-		enoInput = File.createTempFile("eno", ".xml");
-		FileUtils.writeStringToFile(enoInput, input, StandardCharsets.UTF_8);
-		return transform(enoInput, params, surveyName);
-	}
-
-	private String transform(File file, Map<String, Object> params, String surveyName) throws Exception {
-		try {
-			String questDDI = enoClient.getXMLPoguesToDDI(file);
-			logger.info("File "+file.getAbsolutePath()+" deleted : "+file.delete());
-			return questDDI;
-		} catch (Exception e) {
-			throw new Exception(String.format("%s:%s", getClass().getName(), e.getMessage()));
-		}
+		return transform(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), params, surveyName);
 	}
 
 }
@@ -1,7 +1,9 @@
 package fr.insee.pogues.transforms.visualize;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
@@ -32,21 +34,34 @@ public class XFormsToURIStromaeV1Impl implements XFormsToURIStromaeV1 {
 
     @Override
     public void transform(InputStream input, OutputStream output, Map<String, Object> params, String surveyName) throws Exception {
-        throw new RuntimeException("Not implemented");
+        if (null == input) {
+            throw new NullPointerException("Null input");
+        }
+        if (null == output) {
+            throw new NullPointerException("Null output");
+        }
+        output.write(transform(input, params, surveyName).getBytes(StandardCharsets.UTF_8));
     }
 
     @Override
     public String transform(InputStream input, Map<String, Object> params, String surveyName) throws Exception {
-        throw new RuntimeException("Not implemented");
+        if (null == input) {
+            throw new NullPointerException("Null input");
+        }
+        return visualizationUri(new InputStreamEntity(input), params);
     }
 
     @Override
     public String transform(String input, Map<String, Object> params, String surveyName) throws Exception {
+        return visualizationUri(new StringEntity(input, StandardCharsets.UTF_8), params);
+    }
+
+    private String visualizationUri(HttpEntity xforms, Map<String, Object> params) throws Exception {
     	try(CloseableHttpClient httpClient = httpClientBuilder.build()) {
             String uri = String.format("%s/%s/%s/%s", serviceUriHost, serviceUriVisualizationPath,
                     params.get("dataCollection"),params.get("questionnaire"));
             HttpPost post = new HttpPost(uri);
-            post.setEntity(new StringEntity(input, StandardCharsets.UTF_8));
+            post.setEntity(xforms);
             post.setHeader("Content-type", "application/xml");
             HttpResponse response = httpClient.execute(post);
             return String.format("%s/%s%s",serviceUriOrbeonHost,"rmesstromae",EntityUtils.toString(response.getEntity()));
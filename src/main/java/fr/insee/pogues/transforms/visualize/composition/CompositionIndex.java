@@ -0,0 +1,71 @@
+package fr.insee.pogues.transforms.visualize.composition;
+
+import fr.insee.pogues.model.ComponentType;
+import fr.insee.pogues.model.Questionnaire;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static fr.insee.pogues.utils.PoguesModelUtils.getSequences;
+
+/**
+ * Index of the questionnaires of a composition (a reference being replaced by the referenced questionnaire),
+ * built once so that the composition steps don't scan the questionnaires again for each filter or loop.
+ * Positions are those of the referencing questionnaire before the reference is replaced by its sequences.
+ */
+class CompositionIndex {
+
+    /** Position of the first level components (sequences / questionnaire references) of the referencing questionnaire */
+    private final Map<String, Integer> positions = new HashMap<>();
+    private final int childCount;
+    private final String reference;
+    private final List<ComponentType> referencedSequences;
+
+    CompositionIndex(Questionnaire questionnaire, Questionnaire referencedQuestionnaire) {
+        List<ComponentType> children = questionnaire.getChild();
+        for (int i = 0; i < children.size(); i++) {
+            positions.putIfAbsent(children.get(i).getId(), i);
+        }
+        childCount = children.size();
+        reference = referencedQuestionnaire.getId();
+        referencedSequences = getSequences(referencedQuestionnaire);
+    }
+
+    /**
+     * @return Position of the reference in the referencing questionnaire, the number of its components if absent.
+     */
+    int referencePosition() {
+        return positions.getOrDefault(reference, childCount);
+    }
+
+    /**
+     * @param beginMember Id of the first component of a filter or loop.
+     * @param endMember Id of the last component of a filter or loop.
+     * @return true if the reference is between these bounds (included) in the referencing questionnaire.
+     */
+    boolean isReferenceInBounds(String beginMember, String endMember) {
+        Integer referencePosition = positions.get(reference);
+        Integer beginPosition = positions.get(beginMember);
+        if (referencePosition == null || beginPosition == null || beginPosition > referencePosition) {
+            return false;
+        }
+        Integer endPosition = positions.get(endMember);
+        return endPosition == null || endPosition >= referencePosition;
+    }
+
+    /**
+     * @return Sequences of the referenced questionnaire (without the fake last sequence).
+     */
+    List<ComponentType> referencedSequences() {
+        return referencedSequences;
+    }
+
+    /**
+     * @return Id of the last sequence of the referenced questionnaire.
+     */
+    String referencedLastSequenceId() {
+        return referencedSequences.get(referencedSequences.size() - 1).getId();
+    }
+
+}
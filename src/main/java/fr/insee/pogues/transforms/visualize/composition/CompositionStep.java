@@ -16,4 +16,17 @@ public interface CompositionStep {
      */
     void apply(Questionnaire questionnaire, Questionnaire referencedQuestionnaire) throws DeReferencingException;
 
+    /**
+     * Update questionnaire content with referenced questionnaire given, using the index of the composition.
+     * Steps that look for components in the questionnaires should override this method.
+     * @param questionnaire Referencing questionnaire.
+     * @param referencedQuestionnaire Referenced questionnaire.
+     * @param index Index of the questionnaires, built at the beginning of the composition.
+     * @throws DeReferencingException if an error occurs during the de-referencing step.
+     */
+    default void apply(Questionnaire questionnaire, Questionnaire referencedQuestionnaire, CompositionIndex index)
+            throws DeReferencingException {
+        apply(questionnaire, referencedQuestionnaire);
+    }
+
 }
@@ -1,14 +1,11 @@
 package fr.insee.pogues.transforms.visualize.composition;
 
-import fr.insee.pogues.exception.DeReferencingException;
 import fr.insee.pogues.model.ComponentType;
 import fr.insee.pogues.model.Questionnaire;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.List;
 
-import static fr.insee.pogues.utils.PoguesModelUtils.getSequences;
-
 /**
  * Implementation of CompositionStep to replace questionnaire reference by its sequences.
  */
@@ -22,22 +19,26 @@ class InsertSequences implements CompositionStep {
      */
     @Override
     public void apply(Questionnaire questionnaire, Questionnaire referencedQuestionnaire) {
+        apply(questionnaire, referencedQuestionnaire, new CompositionIndex(questionnaire, referencedQuestionnaire));
+    }
+
+    /**
+     * Replace questionnaire reference by its sequences.
+     * @param questionnaire Referencing questionnaire.
+     * @param referencedQuestionnaire Referenced questionnaire.
+     * @param index Index of the composition.
+     */
+    @Override
+    public void apply(Questionnaire questionnaire, Questionnaire referencedQuestionnaire, CompositionIndex index) {
         //
-        List<ComponentType> refSequences = getSequences(referencedQuestionnaire);
-        int indexOfModification = 0;
-        for (ComponentType seq : questionnaire.getChild()) {
-            if (seq.getId().equals(referencedQuestionnaire.getId())) {
-                break;
-            }
-            indexOfModification++;
-        }
+        List<ComponentType> refSequences = index.referencedSequences();
+        int indexOfModification = index.referencePosition();
         log.debug("Index to modify {}", indexOfModification);
         // Suppression of the questionnaire reference
         questionnaire.getChild().remove(indexOfModification);
-        // Insertion of the sequences
-        for (int i=0; i<refSequences.size();i++) {
-            questionnaire.getChild().add(indexOfModification, referencedQuestionnaire.getChild().get(refSequences.size()-1-i));
-        }
+        // Insertion of the sequences (the following components are shifted once)
+        questionnaire.getChild().addAll(indexOfModification,
+                referencedQuestionnaire.getChild().subList(0, refSequences.size()));
         //
         log.info("Sequences from '{}' inserted in '{}'", referencedQuestionnaire.getId(), questionnaire.getId());
     }
@@ -21,9 +21,11 @@ public class QuestionnaireComposition {
     static class DeReferencingPipeline {
         Questionnaire questionnaire;
         Questionnaire referencedQuestionnaire;
+        CompositionIndex index;
         private DeReferencingPipeline(Questionnaire questionnaire, Questionnaire referencedQuestionnaire) {
             this.questionnaire = questionnaire;
             this.referencedQuestionnaire = referencedQuestionnaire;
+            this.index = new CompositionIndex(questionnaire, referencedQuestionnaire);
         }
 
         /**
@@ -43,7 +45,7 @@ public class QuestionnaireComposition {
          * @return The DeReferencingPipeline instance.
          */
         DeReferencingPipeline then(CompositionStep compositionStep) throws DeReferencingException {
-            compositionStep.apply(questionnaire, referencedQuestionnaire);
+            compositionStep.apply(questionnaire, referencedQuestionnaire, index);
             return this;
         }
     }
@@ -2,15 +2,11 @@ package fr.insee.pogues.transforms.visualize.composition;
 
 import fr.insee.pogues.exception.DeReferencingException;
 import fr.insee.pogues.exception.IllegalFlowControlException;
-import fr.insee.pogues.model.ComponentType;
 import fr.insee.pogues.model.FlowControlType;
 import fr.insee.pogues.model.Questionnaire;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.List;
-
 import static fr.insee.pogues.utils.PoguesModelUtils.getFlowControlBounds;
-import static fr.insee.pogues.utils.PoguesModelUtils.getSequences;
 
 /**
  * Implementation of CompositionStep to update FlowControl (filters) objects when de-referencing a questionnaire.
@@ -28,9 +24,22 @@ class UpdateFlowControlBounds implements CompositionStep {
     @Override
     public void apply(Questionnaire questionnaire, Questionnaire referencedQuestionnaire)
             throws DeReferencingException {
+        apply(questionnaire, referencedQuestionnaire, new CompositionIndex(questionnaire, referencedQuestionnaire));
+    }
+
+    /**
+     * Same as above, the sequences of the referenced questionnaire being taken from the index.
+     * @param questionnaire Referencing questionnaire.
+     * @param referencedQuestionnaire Referenced questionnaire.
+     * @param index Index of the composition.
+     * @throws DeReferencingException if an error occurs during flow controls update.
+     */
+    @Override
+    public void apply(Questionnaire questionnaire, Questionnaire referencedQuestionnaire, CompositionIndex index)
+            throws DeReferencingException {
         try {
             for (FlowControlType flowControlType : questionnaire.getFlowControl()) {
-                updateFlowControlBounds(referencedQuestionnaire, flowControlType);
+                updateFlowControlBounds(referencedQuestionnaire, flowControlType, index);
             }
             log.info("Flow controls' bounds updated in '{}' when de-referencing '{}'",
                     questionnaire.getId(), referencedQuestionnaire.getId());
@@ -46,10 +55,11 @@ class UpdateFlowControlBounds implements CompositionStep {
     /** Replace filter bounds that are reference a questionnaire by its first or last sequence.
      * @param referencedQuestionnaire Referenced questionnaire.
      * @param flowControlType The FlowControl object to be updated.
+     * @param index Index of the composition.
      * @throws IllegalFlowControlException If the FlowControl 'IfTrue' property doesn't match the format "id-id".
      */
-    private static void updateFlowControlBounds(Questionnaire referencedQuestionnaire, FlowControlType flowControlType)
-            throws IllegalFlowControlException {
+    private static void updateFlowControlBounds(Questionnaire referencedQuestionnaire, FlowControlType flowControlType,
+                                                CompositionIndex index) throws IllegalFlowControlException {
         //
         String reference = referencedQuestionnaire.getId();
         //
@@ -61,8 +71,7 @@ class UpdateFlowControlBounds implements CompositionStep {
             beginMember = referencedQuestionnaire.getChild().get(0).getId();
         }
         if (endMember.equals(reference)) {
-            List<ComponentType> referenceSequences = getSequences(referencedQuestionnaire);
-            endMember = referenceSequences.get(referenceSequences.size() - 1).getId();
+            endMember = index.referencedLastSequenceId();
         }
         flowControlType.setIfTrue(beginMember+"-"+endMember);
     }
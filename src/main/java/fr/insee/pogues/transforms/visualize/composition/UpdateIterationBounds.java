@@ -2,7 +2,6 @@ package fr.insee.pogues.transforms.visualize.composition;
 
 import fr.insee.pogues.exception.DeReferencingException;
 import fr.insee.pogues.exception.IllegalIterationException;
-import fr.insee.pogues.model.ComponentType;
 import fr.insee.pogues.model.IterationType;
 import fr.insee.pogues.model.Questionnaire;
 import lombok.extern.slf4j.Slf4j;
@@ -10,7 +9,6 @@ import lombok.extern.slf4j.Slf4j;
 import java.util.List;
 
 import static fr.insee.pogues.utils.PoguesModelUtils.getIterationBounds;
-import static fr.insee.pogues.utils.PoguesModelUtils.getSequences;
 
 /**
  * Implementation of CompositionStep to update Iteration (loops) objects when de-referencing a questionnaire.
@@ -28,10 +26,23 @@ class UpdateIterationBounds implements CompositionStep {
     @Override
     public void apply(Questionnaire questionnaire, Questionnaire referencedQuestionnaire)
             throws DeReferencingException {
+        apply(questionnaire, referencedQuestionnaire, new CompositionIndex(questionnaire, referencedQuestionnaire));
+    }
+
+    /**
+     * Same as above, the sequences of the referenced questionnaire being taken from the index.
+     * @param questionnaire Referencing questionnaire.
+     * @param referencedQuestionnaire Referenced questionnaire.
+     * @param index Index of the composition.
+     * @throws DeReferencingException if an error occurs during iterations update.
+     */
+    @Override
+    public void apply(Questionnaire questionnaire, Questionnaire referencedQuestionnaire, CompositionIndex index)
+            throws DeReferencingException {
         if (questionnaire.getIterations() != null) {
             try {
                 for (IterationType iterationType : questionnaire.getIterations().getIteration()) {
-                    updateIterationBounds(referencedQuestionnaire, iterationType);
+                    updateIterationBounds(referencedQuestionnaire, iterationType, index);
                 }
                 log.info("Iterations' bounds updated in '{}' when de-referencing '{}'",
                         questionnaire.getId(), referencedQuestionnaire.getId());
@@ -47,10 +58,11 @@ class UpdateIterationBounds implements CompositionStep {
     /** Replace loop bounds that reference a questionnaire by its first or last sequence.
      * @param referencedQuestionnaire Referenced questionnaire.
      * @param iterationType The Iteration object to be updated.
+     * @param index Index of the composition.
      * @throws IllegalIterationException if the 'MemberReference' property in the iteration is invalid.
      */
-    static void updateIterationBounds(Questionnaire referencedQuestionnaire, IterationType iterationType)
-            throws IllegalIterationException {
+    static void updateIterationBounds(Questionnaire referencedQuestionnaire, IterationType iterationType,
+                                      CompositionIndex index) throws IllegalIterationException {
         //
         String reference = referencedQuestionnaire.getId();
         //
@@ -62,8 +74,7 @@ class UpdateIterationBounds implements CompositionStep {
             iterationBounds.set(0, referencedQuestionnaire.getChild().get(0).getId());
         }
         if (endMember.equals(reference)) {
-            List<ComponentType> referenceSequences = getSequences(referencedQuestionnaire);
-            iterationBounds.set(1, referenceSequences.get(referenceSequences.size() - 1).getId());
+            iterationBounds.set(1, index.referencedLastSequenceId());
         }
     }
 
@@ -29,9 +29,22 @@ class UpdateReferencedVariablesScope implements CompositionStep {
     @Override
     public void apply(Questionnaire questionnaire, Questionnaire referencedQuestionnaire)
             throws DeReferencingException {
+        apply(questionnaire, referencedQuestionnaire, new CompositionIndex(questionnaire, referencedQuestionnaire));
+    }
+
+    /**
+     * Same as above, using the positions of the index instead of scanning the questionnaire for each iteration.
+     * @param questionnaire Referencing questionnaire.
+     * @param referencedQuestionnaire Referenced questionnaire.
+     * @param index Index of the composition.
+     * @throws DeReferencingException if an error occurs during variable scopes update.
+     */
+    @Override
+    public void apply(Questionnaire questionnaire, Questionnaire referencedQuestionnaire, CompositionIndex index)
+            throws DeReferencingException {
         try {
             if (questionnaire.getIterations() != null)
-                updateReferencedVariablesScope(questionnaire, referencedQuestionnaire);
+                updateReferencedVariablesScope(questionnaire, referencedQuestionnaire, index);
         } catch (IllegalIterationException e) {
             String message = String.format(
                     "Error when updating referenced variables scope in questionnaire '%s' with reference '%s'",
@@ -45,13 +58,14 @@ class UpdateReferencedVariablesScope implements CompositionStep {
      * For each iteration: update variables scope if the referenced questionnaire is in the scope of the iteration.
      * @param questionnaire Referencing questionnaire.
      * @param referencedQuestionnaire Referenced questionnaire.
+     * @param index Index of the composition.
      * @throws IllegalIterationException If the 'MemberReference' property is not of size 2
      * in one on the iteration object that has been scanned by the method.
      */
-    static void updateReferencedVariablesScope(Questionnaire questionnaire, Questionnaire referencedQuestionnaire)
-            throws IllegalIterationException {
+    static void updateReferencedVariablesScope(Questionnaire questionnaire, Questionnaire referencedQuestionnaire,
+                                               CompositionIndex index) throws IllegalIterationException {
         for (IterationType iterationType : questionnaire.getIterations().getIteration()) {
-            String scope = updateReferenceIfInBounds(questionnaire, referencedQuestionnaire, iterationType);
+            String scope = updateReferenceIfInBounds(referencedQuestionnaire, iterationType, index);
             if (scope != null) {
                 log.info("Scope of root variables from referenced questionnaire '{}' set to iteration scope '{}'",
                         referencedQuestionnaire.getId(), scope);
@@ -61,47 +75,26 @@ class UpdateReferencedVariablesScope implements CompositionStep {
     }
 
     /**
-     * Scan the referencing questionnaire to determine if the referenced questionnaire is in the scope of the
-     * loop (Iteration) given. If so, update the scope of the referenced questionnaire's variables.
-     * @param questionnaire Referencing questionnaire.
+     * Determine if the referenced questionnaire is in the scope of the loop (Iteration) given, from the positions
+     * of the first level components (sequences / questionnaire references) of the referencing questionnaire.
+     * If so, update the scope of the referenced questionnaire's variables.
      * @param referencedQuestionnaire Referenced questionnaire.
      * @param iterationType An iteration (loop) object.
+     * @param index Index of the composition.
      * @return null if the referenced questionnaire is not in the scope of the iteration given.
      * Otherwise, the identifier of the iteration, that has the referenced questionnaire in its scope.
      * @throws IllegalIterationException If the 'MemberReference' property is not of size 2
      * in one on the iteration object that has been scanned by the method.
      */
-    private static String updateReferenceIfInBounds(Questionnaire questionnaire,
-                                                    Questionnaire referencedQuestionnaire,
-                                                    IterationType iterationType) throws IllegalIterationException {
+    private static String updateReferenceIfInBounds(Questionnaire referencedQuestionnaire,
+                                                    IterationType iterationType,
+                                                    CompositionIndex index) throws IllegalIterationException {
         List<String> iterationBounds = getIterationBounds(iterationType);
-        String beginMember = iterationBounds.get(0);
-        String endMember = iterationBounds.get(1);
-        //
-        String result = null;
-        boolean inScope = false;
-        // Iterate on first level (sequences / questionnaire references)
-        for (ComponentType component : questionnaire.getChild()) {
-            // Declare following components as in the iteration's scope
-            if (beginMember.equals(component.getId())) {
-                inScope = true;
-            }
-            // If the referenced questionnaire is found...
-            if (referencedQuestionnaire.getId().equals(component.getId())) {
-                // If it is in iteration's scope, then update its variables
-                if (inScope) {
-                    result = iterationType.getId();
-                    updateVariablesScope(referencedQuestionnaire, iterationType);
-                }
-                // We have found what we wanted for this iteration object, break
-                break;
-            }
-            // If end of the iteration's scope is reached, break
-            if (endMember.equals(component.getId())) {
-                break;
-            }
+        if (!index.isReferenceInBounds(iterationBounds.get(0), iterationBounds.get(1))) {
+            return null;
         }
-        return result;
+        updateVariablesScope(referencedQuestionnaire, iterationType);
+        return iterationType.getId();
     }
 
     /**
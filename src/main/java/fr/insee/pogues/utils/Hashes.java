@@ -0,0 +1,57 @@
+package fr.insee.pogues.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/** Hashes used as keys of the caches (of a questionnaire, of a transformation and its input...). */
+public class Hashes {
+
+    private Hashes() {}
+
+    /**
+     * @param parts Strings hashed, separated by a zero byte (so that ("ab", "c") and ("a", "bc") differ).
+     * @return SHA-256 of the parts, in lower case hexadecimal (64 characters).
+     */
+    public static String sha256(String... parts) {
+        if (parts.length == 0) {
+            return hex(newSha256());
+        }
+        MessageDigest digest = sha256Digest(Arrays.copyOf(parts, parts.length - 1));
+        digest.update(parts[parts.length - 1].getBytes(StandardCharsets.UTF_8));
+        return hex(digest);
+    }
+
+    /**
+     * @param parts Strings hashed first, each one followed by a zero byte.
+     * @return SHA-256 digest of the parts, to be updated with the last part (when it is read as a stream, or is not
+     * a string): the hash is then the same as {@link #sha256(String...)} of all the parts.
+     */
+    public static MessageDigest sha256Digest(String... parts) {
+        MessageDigest digest = newSha256();
+        for (String part : parts) {
+            digest.update(part.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return digest;
+    }
+
+    /**
+     * @return Hash of the digest (which is reset), in lower case hexadecimal.
+     */
+    public static String hex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -3,16 +3,15 @@ package fr.insee.pogues.utils;
 import fr.insee.pogues.exception.PoguesDeserializationException;
 import fr.insee.pogues.model.Questionnaire;
 import lombok.extern.slf4j.Slf4j;
-import org.eclipse.persistence.jaxb.UnmarshallerProperties;
 import org.json.simple.JSONObject;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.transform.stream.StreamSource;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
 
 /** This should be moved in Pogues-Model. */
 @Slf4j
@@ -32,12 +31,7 @@ public class PoguesDeserializer {
         String questionnaireId = getIdFromJson(jsonQuestionnaire);
         try (InputStream inQuestionnaire = new ByteArrayInputStream(jsonQuestionnaire.toString().getBytes())) {
             StreamSource json = new StreamSource(inQuestionnaire);
-            //
-            JAXBContext context = JAXBContext.newInstance(Questionnaire.class);
-            Unmarshaller unmarshaller = context.createUnmarshaller();
-            unmarshaller.setProperty(UnmarshallerProperties.MEDIA_TYPE, "application/json");
-            unmarshaller.setProperty(UnmarshallerProperties.JSON_INCLUDE_ROOT, false);
-            //
+            Unmarshaller unmarshaller = PoguesJAXBContexts.jsonUnmarshaller();
             Questionnaire questionnaire = unmarshaller.unmarshal(json, Questionnaire.class).getValue();
             log.info("Successfully deserialized json questionnaire '{}'", questionnaireId);
             return questionnaire;
@@ -48,6 +42,32 @@ public class PoguesDeserializer {
         }
     }
 
+    /**
+     * Converts the json questionnaire given in a Pogues-Model questionnaire object, binding it directly from
+     * the json text (without building a json object first).
+     * @param jsonQuestionnaire Json of a Pogues questionnaire.
+     * @return Corresponding Pogues-Model questionnaire object.
+     * @throws PoguesDeserializationException if deserialization fails, or if the questionnaire has no id.
+     */
+    public static Questionnaire questionnaireToJavaObject(String jsonQuestionnaire)
+            throws PoguesDeserializationException {
+        log.info("Deserializing json questionnaire");
+        Questionnaire questionnaire;
+        try {
+            StreamSource json = new StreamSource(new StringReader(jsonQuestionnaire));
+            Unmarshaller unmarshaller = PoguesJAXBContexts.jsonUnmarshaller();
+            questionnaire = unmarshaller.unmarshal(json, Questionnaire.class).getValue();
+        } catch (JAXBException e) {
+            throw new PoguesDeserializationException(
+                    "Exception occurred while trying to deserialize json questionnaire", e);
+        }
+        if (questionnaire.getId() == null) {
+            throw new PoguesDeserializationException("Property 'id' is null in given json questionnaire.");
+        }
+        log.info("Successfully deserialized json questionnaire '{}'", questionnaire.getId());
+        return questionnaire;
+    }
+
     private static String getIdFromJson(JSONObject jsonQuestionnaire) throws PoguesDeserializationException {
         try {
             String id = (String) jsonQuestionnaire.get("id");
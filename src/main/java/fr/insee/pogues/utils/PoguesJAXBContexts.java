@@ -0,0 +1,91 @@
+package fr.insee.pogues.utils;
+
+import fr.insee.pogues.model.Questionnaire;
+import org.eclipse.persistence.jaxb.MarshallerProperties;
+import org.eclipse.persistence.jaxb.UnmarshallerProperties;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+/**
+ * JAXB contexts of the Pogues-Model, built once since creating a (MOXy) context reflects over the whole model.
+ * Contexts are thread-safe but marshallers and unmarshallers are not: they are created once per thread.
+ * This should be moved in Pogues-Model, with the serializers.
+ */
+public class PoguesJAXBContexts {
+
+    private PoguesJAXBContexts() {}
+
+    private static final JAXBContext QUESTIONNAIRE_CONTEXT = newContext(Questionnaire.class);
+    private static final JAXBContext VARIABLES_CONTEXT = newContext(Questionnaire.Variables.class);
+
+    private static final ThreadLocal<Unmarshaller> jsonUnmarshaller = new ThreadLocal<>();
+    private static final ThreadLocal<Marshaller> jsonMarshaller = new ThreadLocal<>();
+    private static final ThreadLocal<Marshaller> variablesJsonMarshaller = new ThreadLocal<>();
+
+    private static JAXBContext newContext(Class<?> modelClass) {
+        try {
+            return JAXBContext.newInstance(modelClass);
+        } catch (JAXBException e) {
+            throw new IllegalStateException("Unable to create JAXB context for " + modelClass.getName(), e);
+        }
+    }
+
+    /**
+     * @return The context of the Pogues-Model questionnaire.
+     */
+    public static JAXBContext questionnaireContext() {
+        return QUESTIONNAIRE_CONTEXT;
+    }
+
+    /**
+     * @return Unmarshaller of the current thread, reading json questionnaires (without root element).
+     * @throws JAXBException if the unmarshaller can't be created.
+     */
+    public static Unmarshaller jsonUnmarshaller() throws JAXBException {
+        Unmarshaller unmarshaller = jsonUnmarshaller.get();
+        if (unmarshaller == null) {
+            unmarshaller = QUESTIONNAIRE_CONTEXT.createUnmarshaller();
+            unmarshaller.setProperty(UnmarshallerProperties.MEDIA_TYPE, "application/json");
+            unmarshaller.setProperty(UnmarshallerProperties.JSON_INCLUDE_ROOT, false);
+            jsonUnmarshaller.set(unmarshaller);
+        }
+        return unmarshaller;
+    }
+
+    /**
+     * @return Marshaller of the current thread, writing formatted json questionnaires (without root element).
+     * @throws JAXBException if the marshaller can't be created.
+     */
+    public static Marshaller jsonMarshaller() throws JAXBException {
+        Marshaller marshaller = jsonMarshaller.get();
+        if (marshaller == null) {
+            marshaller = QUESTIONNAIRE_CONTEXT.createMarshaller();
+            marshaller.setProperty(MarshallerProperties.MEDIA_TYPE, "application/json");
+            marshaller.setProperty(MarshallerProperties.JSON_INCLUDE_ROOT, false);
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+            jsonMarshaller.set(marshaller);
+        }
+        return marshaller;
+    }
+
+    /**
+     * @return Marshaller of the current thread, writing the formatted json variables of a questionnaire
+     * (with root element).
+     * @throws JAXBException if the marshaller can't be created.
+     */
+    public static Marshaller variablesJsonMarshaller() throws JAXBException {
+        Marshaller marshaller = variablesJsonMarshaller.get();
+        if (marshaller == null) {
+            marshaller = VARIABLES_CONTEXT.createMarshaller();
+            marshaller.setProperty(MarshallerProperties.MEDIA_TYPE, "application/json");
+            marshaller.setProperty(MarshallerProperties.JSON_INCLUDE_ROOT, true);
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+            variablesJsonMarshaller.set(marshaller);
+        }
+        return marshaller;
+    }
+
+}
@@ -142,6 +142,9 @@ public class JSONFunctions {
 
 	public static List<String> getChildReferencesFromQuestionnaire(JSONObject questionnaire) {
 		JSONArray references = (JSONArray) questionnaire.get("childQuestionnaireRef");
+		if (references == null) {
+			return new ArrayList<>();
+		}
 		return IntStream.range(0, references.size())
 				.mapToObj(references::get)
 				.map(Object::toString)
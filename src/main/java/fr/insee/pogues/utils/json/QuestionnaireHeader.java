@@ -0,0 +1,76 @@
+package fr.insee.pogues.utils.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import fr.insee.pogues.exception.PoguesDeserializationException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Id and references ("childQuestionnaireRef") of a json questionnaire, read by a streaming scan of its first
+ * level properties: the other properties are skipped, without building any object.
+ */
+public class QuestionnaireHeader {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final String id;
+    private final List<String> childReferences;
+
+    private QuestionnaireHeader(String id, List<String> childReferences) {
+        this.id = id;
+        this.childReferences = childReferences;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return References of the questionnaire, in order (empty if it has none).
+     */
+    public List<String> getChildReferences() {
+        return childReferences;
+    }
+
+    /**
+     * Scan the json questionnaire, until its id and references have been found.
+     * @param jsonQuestionnaire Json of a Pogues questionnaire.
+     * @return Header of the questionnaire (the id is null if absent).
+     * @throws PoguesDeserializationException if the json is invalid, or if the id is not a string.
+     */
+    public static QuestionnaireHeader scan(String jsonQuestionnaire) throws PoguesDeserializationException {
+        String id = null;
+        List<String> childReferences = null;
+        try (JsonParser parser = jsonFactory.createParser(jsonQuestionnaire)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new PoguesDeserializationException("Json questionnaire is not an object.");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME && (id == null || childReferences == null)) {
+                String property = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("id".equals(property)) {
+                    if (value != JsonToken.VALUE_STRING) {
+                        throw new PoguesDeserializationException("Property 'id' is not a string in given json questionnaire.");
+                    }
+                    id = parser.getText();
+                } else if ("childQuestionnaireRef".equals(property) && value == JsonToken.START_ARRAY) {
+                    childReferences = new ArrayList<>();
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        childReferences.add(parser.getText());
+                        parser.skipChildren();
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            throw new PoguesDeserializationException("Unable to scan given json questionnaire", e);
+        }
+        return new QuestionnaireHeader(id, childReferences != null ? childReferences : new ArrayList<>());
+    }
+
+}
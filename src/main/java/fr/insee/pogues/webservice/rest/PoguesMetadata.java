@@ -15,12 +15,16 @@ import javax.ws.rs.core.StreamingOutput;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import fr.insee.pogues.metadata.model.ColecticaItem;
 import fr.insee.pogues.metadata.model.ColecticaItemRefList;
@@ -33,6 +37,7 @@ import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 
@@ -57,6 +62,9 @@ public class PoguesMetadata {
 
 	@Autowired
 	PoguesXMLToPoguesJSON xmlToJSON;
+
+	@Value("${fr.insee.pogues.metadata.code-lists.max-batch-size:200}")
+	int codeListsMaxBatchSize;
 	
 	@GetMapping("item/{id}")
 	@Produces(MediaType.APPLICATION_JSON)
@@ -144,4 +152,45 @@ public class PoguesMetadata {
 		}
 	}
 
-}
\ No newline at end of file
+	@PostMapping(value = "code-lists", consumes = org.springframework.http.MediaType.APPLICATION_JSON_VALUE,
+			produces = org.springframework.http.MediaType.APPLICATION_NDJSON_VALUE)
+	@Operation(
+			operationId = "streamCodeLists",
+			summary = "Stream code lists",
+			description = "Fetches the code lists with the given ids from the metadata repository and streams them, "
+					+ "converted to Pogues XML, as newline delimited JSON as soon as each one is converted "
+					+ "(in no particular order): {\"id\", \"codeList\"}, or {\"id\", \"status\", \"error\"} "
+					+ "for a code list that could not be fetched or converted"
+	)
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "200", description = "Success"),
+			@ApiResponse(responseCode = "400", description = "No id, or too many")
+	})
+	public ResponseEntity<StreamingResponseBody> streamCodeLists(
+			@Parameter(description = "Ids of the code lists", required = true) @RequestBody List<String> ids)
+			throws PoguesException {
+		if (ids == null || ids.isEmpty() || ids.size() > codeListsMaxBatchSize) {
+			throw new PoguesException(400, "Bad Request",
+					String.format("Between 1 and %d code list ids expected", codeListsMaxBatchSize));
+		}
+		StreamingResponseBody stream = output -> {
+			try {
+				metadataService.streamCodeLists(ids, output);
+			} catch (Exception e) {
+				logger.error(e.getMessage(), e);
+				throw new PoguesException(500, e.getMessage(), null);
+			}
+		};
+		return ResponseEntity.status(HttpStatus.OK)
+				.contentType(org.springframework.http.MediaType.APPLICATION_NDJSON)
+				.body(stream);
+	}
+
+	@ExceptionHandler(PoguesException.class)
+	public ResponseEntity<ApiError> handlePoguesException(PoguesException pe) {
+		logger.error(pe.getMessage(), pe);
+		ApiError apiErrorResponse = new ApiError(pe.getStatus(), pe.getMessage(), pe.getDetails());
+		return new ResponseEntity<>(apiErrorResponse, HttpStatus.valueOf(pe.getStatus()));
+	}
+
+}
@@ -23,14 +23,19 @@ import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -72,6 +77,7 @@ public class PoguesPersistence {
 	private static final String IDQUESTIONNAIRE_PATTERN="[a-zA-Z0-9]*";
 	private static final String BAD_REQUEST = "Bad Request";
     private static final String MESSAGE_INVALID_IDENTIFIER = "Identifier %s is invalid";
+    private static final int DEFAULT_PAGE_SIZE = 100;
 
 	@GetMapping("questionnaire/{id}")
     @Produces(MediaType.APPLICATION_JSON)
@@ -82,13 +88,24 @@ public class PoguesPersistence {
     )
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Success"),
+            @ApiResponse(responseCode = "304", description = "Not modified since the version given by If-None-Match"),
             @ApiResponse(responseCode = "404", description = "Not found")
     })	
-	public ResponseEntity<Object> getQuestionnaire(
-			@PathVariable(value = "id") String id
+	public ResponseEntity<String> getQuestionnaire(
+			@PathVariable(value = "id") String id,
+			WebRequest request
 	) throws Exception {
-			JSONObject result = questionnaireService.getQuestionnaireByID(id);
-			return ResponseEntity.status(HttpStatus.OK).body(result);
+			// Version is read before data: a concurrent update can only give an ETag older than the data,
+			// which at worst costs a new transfer or a 412 on the next update
+			String eTag = eTag(questionnaireService.getQuestionnaireVersion(id));
+			if (request.checkNotModified(eTag)) {
+				return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+			}
+			String result = questionnaireService.getQuestionnaireRawByID(id);
+			return ResponseEntity.status(HttpStatus.OK)
+					.eTag(eTag)
+					.contentType(org.springframework.http.MediaType.APPLICATION_JSON)
+					.body(result);
 	}
 	
     @GetMapping("questionnaire/json-lunatic/{id}")
@@ -102,12 +119,14 @@ public class PoguesPersistence {
             @ApiResponse(responseCode = "200", description = "Success"),
             @ApiResponse(responseCode = "404", description = "Not found")
     })
-	public ResponseEntity<Object> getJsonLunatic(
+	public ResponseEntity<String> getJsonLunatic(
 			@PathVariable(value = "id") String id
 	) throws Exception {
 		try {
-			JSONObject result = questionnaireService.getJsonLunaticByID(id);
-			return ResponseEntity.status(HttpStatus.OK).body(result);
+			String result = questionnaireService.getJsonLunaticRawByID(id);
+			return ResponseEntity.status(HttpStatus.OK)
+					.contentType(org.springframework.http.MediaType.APPLICATION_JSON)
+					.body(result);
 		} catch (Exception e) {
 			logger.error(e.getMessage(), e);
 			throw e;
@@ -167,6 +186,46 @@ public class PoguesPersistence {
         }
 	}
 	
+	@GetMapping("questionnaires/search/text")
+	@Produces(MediaType.APPLICATION_JSON)
+	@Operation(
+			operationId = "searchQuestionnairesText",
+	        summary = "Full-text search of questionnaires",
+            description = "Gets the metadata of the questionnaires matching every word of `q` (as a prefix of their "
+            		+ "words) in their Name and Label, names and labels of their variables, labels of their code lists "
+            		+ "and codes, and ids of their data collections, the best ranked first, with the total number of "
+            		+ "questionnaires matching (counted up to 10000, totalExact being false beyond); words shorter than "
+            		+ "3 characters are ignored; the next page is given by the Link header"
+    )
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Success"),
+            @ApiResponse(responseCode = "400", description = "Bad request")
+    })
+	public ResponseEntity<Object> searchQuestionnairesText(
+			@RequestParam("q") String q,
+			@RequestParam(value = "owner", required = false) String owner,
+			@RequestParam(value = "offset", defaultValue = "0") int offset,
+			@RequestParam(value = "limit", defaultValue = "20") int limit
+	) throws Exception {
+		try {
+			JSONObject result = questionnaireService.searchQuestionnaires(q, owner, offset, limit);
+			ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.OK);
+			// Not to overflow with a large offset
+			long nextOffset = (long) offset + limit;
+			if (nextOffset < ((Number) result.get("total")).longValue()) {
+				String next = ServletUriComponentsBuilder.fromCurrentRequest()
+						.replaceQueryParam("offset", nextOffset)
+						.replaceQueryParam("limit", limit)
+						.toUriString();
+				response.header(HttpHeaders.LINK, String.format("<%s>; rel=\"next\"", next));
+			}
+			return response.body(result);
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+			throw e;
+		}
+	}
+
 	@GetMapping("questionnaires/stamps")
 	@Produces(MediaType.APPLICATION_JSON)
 	@Operation(
@@ -297,21 +356,71 @@ public class PoguesPersistence {
 	@Operation(
 			operationId = "getQuestionnaireList",
 	        summary = "Get questionnaires",
-            description = "Gets the `QuestionnaireList` object"
+            description = "Gets the `QuestionnaireList` object. When `limit` is given, gets one page of questionnaires "
+            		+ "ordered by id, starting after the questionnaire `after`; the next page is given by the Link header"
     )
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Success"),
+            @ApiResponse(responseCode = "400", description = "Bad request"),
             @ApiResponse(responseCode = "404", description = "Not found")
     })
-	public ResponseEntity<Object> getQuestionnaireList() throws Exception {
+	public ResponseEntity<Object> getQuestionnaireList(
+			@RequestParam(value = "after", required = false) String after,
+			@RequestParam(value = "limit", required = false) Integer limit
+	) throws Exception {
 		try {
-			List<JSONObject> questionnaires = questionnaireService.getQuestionnaireList();
-			return ResponseEntity.status(HttpStatus.OK).body(questionnaires);
+			if (null == limit && null == after) {
+				List<JSONObject> questionnaires = questionnaireService.getQuestionnaireList();
+				return ResponseEntity.status(HttpStatus.OK).body(questionnaires);
+			}
+			int pageSize = null == limit ? DEFAULT_PAGE_SIZE : limit;
+			List<JSONObject> questionnaires = questionnaireService.getQuestionnaireList(after, pageSize);
+			ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.OK);
+			if (questionnaires.size() == pageSize) {
+				String last = (String) questionnaires.get(pageSize - 1).get("id");
+				String next = ServletUriComponentsBuilder.fromCurrentRequest()
+						.replaceQueryParam("after", last)
+						.replaceQueryParam("limit", pageSize)
+						.toUriString();
+				response.header(HttpHeaders.LINK, String.format("<%s>; rel=\"next\"", next));
+			}
+			return response.body(questionnaires);
 		} catch(Exception e) {
 			logger.error(e.getMessage(), e);
 			throw e;
 		}
 	}
+
+	@GetMapping(value = "questionnaires", produces = org.springframework.http.MediaType.APPLICATION_NDJSON_VALUE)
+	@Operation(
+			operationId = "streamQuestionnaireList",
+	        summary = "Stream questionnaires",
+            description = "Streams every questionnaire as newline delimited JSON (Accept: application/x-ndjson). "
+            		+ "The response is sent while it is read: a failure during the export (database error, client "
+            		+ "too slow) cannot change its status anymore, it ends the response early, the last line being "
+            		+ "possibly truncated (clients detect it by the incomplete chunked response)"
+    )
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Success"),
+            @ApiResponse(responseCode = "503", description = "Too many exports in progress")
+    })
+	public ResponseEntity<StreamingResponseBody> streamQuestionnaireList() {
+		StreamingResponseBody stream = output -> {
+			try {
+				questionnaireService.streamQuestionnaireList(output);
+			} catch (PoguesException e) {
+				// Rejected before anything was written
+				throw e;
+			} catch (Exception e) {
+				// Status and first lines already sent: the response is only cut short
+				logger.error("Questionnaires export interrupted: " + e.getMessage(), e);
+				throw new IOException("Questionnaires export interrupted", e);
+			}
+		};
+		return ResponseEntity.status(HttpStatus.OK)
+				.contentType(org.springframework.http.MediaType.APPLICATION_NDJSON)
+				.body(stream);
+	}
 	
 	@PutMapping("questionnaire/{id}")
 	@Consumes(MediaType.APPLICATION_JSON)
@@ -323,15 +432,18 @@ public class PoguesPersistence {
     )
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Success"),
-            @ApiResponse(responseCode = "404", description = "Not found")
+            @ApiResponse(responseCode = "404", description = "Not found"),
+            @ApiResponse(responseCode = "412", description = "Questionnaire modified since the version given by If-Match")
     })
 	public ResponseEntity<Object> updateQuestionnaire(
 			@PathVariable(value = "id") String id,
-			@RequestBody JSONObject jsonContent
+			@RequestBody JSONObject jsonContent,
+			@RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch
 	) throws Exception {
+		long version;
         try {
 			if (id.matches(IDQUESTIONNAIRE_PATTERN)) {
-				questionnaireService.updateQuestionnaire(id, jsonContent);
+				version = questionnaireService.updateQuestionnaire(id, jsonContent, expectedVersion(ifMatch));
 				logger.info("Questionnaire {} updated", id);
 			} else {
 				throw new PoguesException(400,BAD_REQUEST,String.format(MESSAGE_INVALID_IDENTIFIER,id));
@@ -343,7 +455,7 @@ public class PoguesPersistence {
         	logger.error(e.getMessage(), e);
             throw e;
         }
-        return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+        return ResponseEntity.status(HttpStatus.NO_CONTENT).eTag(eTag(version)).build();
 	}
 	
 	@PutMapping("questionnaire/json-lunatic/{id}")
@@ -372,6 +484,29 @@ public class PoguesPersistence {
         }
 	}
 
+	private static String eTag(long version) {
+		return "\"" + version + "\"";
+	}
+
+	/**
+	 * Version expected by an If-Match header: null when any version is accepted.
+	 * Only a single strong entity tag, as given by {@link #eTag(long)}, can match a version.
+	 */
+	private static Long expectedVersion(String ifMatch) throws PoguesException {
+		if (null == ifMatch || ifMatch.trim().equals("*")) {
+			return null;
+		}
+		String tag = ifMatch.trim();
+		if (tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+			try {
+				return Long.valueOf(tag.substring(1, tag.length() - 1));
+			} catch (NumberFormatException e) {
+				// Not a tag given by this service: can't match
+			}
+		}
+		throw new PoguesException(412, "Precondition Failed", String.format("If-Match %s doesn't match any version", ifMatch));
+	}
+
 	@PostMapping("questionnaires")
 	@Consumes(MediaType.APPLICATION_JSON)
 	@Operation(
@@ -1,13 +1,18 @@
 package fr.insee.pogues.webservice.rest;
 
 import fr.insee.pogues.persistence.service.QuestionnairesService;
-import fr.insee.pogues.transforms.PipeLine;
+import fr.insee.pogues.transforms.InFlightTransformations;
+import fr.insee.pogues.transforms.StreamPipeLine;
+import fr.insee.pogues.transforms.StreamPipeLineExecutor;
 import fr.insee.pogues.transforms.Transformer;
+import fr.insee.pogues.transforms.jobs.TransformationJob;
+import fr.insee.pogues.transforms.jobs.TransformationJobs;
 import fr.insee.pogues.transforms.visualize.*;
 import fr.insee.pogues.webservice.model.CaptureEnum;
 import fr.insee.pogues.webservice.model.ColumnsEnum;
 import fr.insee.pogues.webservice.model.OrientationEnum;
 import fr.insee.pogues.webservice.model.StudyUnitEnum;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
@@ -16,18 +21,20 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.InputStreamResource;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import java.io.ByteArrayInputStream;
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -80,8 +87,24 @@ public class PoguesTransforms {
 	@Autowired
 	PoguesJSONToPoguesJSONDeref jsonToJsonDeref;
 
+	@Autowired
+	TransformationJobs transformationJobs;
+
+	@Autowired
+	InFlightTransformations inFlightTransformations;
+
+	@Autowired
+	StreamPipeLineExecutor pipelineExecutor;
+
+	@Autowired(required = false)
+	MeterRegistry meterRegistry;
+
 	private static final String CONTENT_DISPOSITION = "Content-Disposition";
 
+	private static final String PDF_FILE_NAME = "form-final-out.pdf";
+
+	private static final String SPEC_FILE_NAME = "form.fodt";
+
 	@PostMapping(path = "visualize/{dataCollection}/{questionnaire}", consumes = MediaType.APPLICATION_JSON_VALUE)
 	@Operation(summary = "Get visualization URI from JSON serialized Pogues entity", description = "dataCollection MUST refer to the name attribute owned by the nested DataCollectionObject")
 	@io.swagger.v3.oas.annotations.parameters.RequestBody(description = "JSON representation of the Pogues Model")
@@ -89,20 +112,13 @@ public class PoguesTransforms {
 			@PathVariable(value = "dataCollection") String dataCollection,
 			@PathVariable(value = "questionnaire") String questionnaire,
 			@RequestParam(name = "references", defaultValue = "false") Boolean ref) throws Exception {
-		PipeLine pipeline = new PipeLine();
-		Map<String, Object> params = new HashMap<>();
-		params.put("dataCollection", dataCollection.toLowerCase());
-		params.put("questionnaire", questionnaire.toLowerCase());
-		params.put("needDeref", ref);
+		StreamPipeLine pipeline = visualizePipeline("visualize", request, dataCollection, questionnaire, ref);
 		try {
 			StreamingResponseBody stream = output -> {
 				try {
-					output.write(pipeline.from(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)))
-							.map(jsonToJsonDeref::transform, params, questionnaire.toLowerCase())
-							.map(jsonToXML::transform, params, questionnaire.toLowerCase())
-							.map(poguesXMLToDDI::transform, params, questionnaire.toLowerCase())
-							.map(ddiToXForm::transform, params, questionnaire.toLowerCase())
-							.map(xformToUri::transform, params, questionnaire.toLowerCase()).transform().getBytes());
+					inFlightTransformations.transform("visualize",
+							String.format("visualize/%s/%s?references=%s", dataCollection, questionnaire, ref),
+							request, pipeline, output);
 				} catch (Exception e) {
 					logger.error(e.getMessage());
 					throw new PoguesException(500, e.getMessage(), null);
@@ -119,18 +135,13 @@ public class PoguesTransforms {
 	@Operation(summary = "Get visualization URI CATI Queen from JSON serialized Pogues entity", description = "Get visualization URI CATI Queen from JSON serialized Pogues entity")
 	public ResponseEntity<StreamingResponseBody> visualizeCatiQueenFromBody(@RequestBody String request,
 			@PathVariable(value = "questionnaire") String questionnaireName) throws Exception {
-		PipeLine pipeline = new PipeLine();
-		Map<String, Object> params = new HashMap<>();
-		params.put("mode", "CATI");
+		StreamPipeLine pipeline = visualizeCatiQueenPipeline("visualize-queen-telephone", request, questionnaireName);
 		try {
 			StreamingResponseBody stream = output -> {
 				try {
-					output.write(pipeline.from(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)))
-							.map(jsonToXML::transform, params, questionnaireName.toLowerCase())
-							.map(poguesXMLToDDI::transform, params, questionnaireName.toLowerCase())
-							.map(ddiToLunaticJSON::transform, params, questionnaireName.toLowerCase())
-							.map(lunaticJSONToUriQueen::transform, params, questionnaireName.toLowerCase()).transform()
-							.getBytes());
+					inFlightTransformations.transform("visualize-queen-telephone",
+							String.format("visualize-queen-telephone/%s", questionnaireName),
+							request, pipeline, output);
 				} catch (Exception e) {
 					logger.error(e.getMessage());
 					throw new PoguesException(500, e.getMessage(), null);
@@ -148,20 +159,13 @@ public class PoguesTransforms {
 	public ResponseEntity<StreamingResponseBody> visualizeQueenFromBody(@RequestBody String request,
 			@PathVariable(value = "questionnaire") String questionnaireName,
 			@RequestParam(name = "references", defaultValue = "false") Boolean ref) throws Exception {
-		PipeLine pipeline = new PipeLine();
-		Map<String, Object> params = new HashMap<>();
-		params.put("mode", "CAPI");
-		params.put("needDeref", ref);
+		StreamPipeLine pipeline = visualizeQueenPipeline("visualize-queen", request, questionnaireName, ref);
 		try {
 			StreamingResponseBody stream = output -> {
 				try {
-					output.write(pipeline.from(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)))
-							.map(jsonToJsonDeref::transform, params, questionnaireName.toLowerCase())
-							.map(jsonToXML::transform, params, questionnaireName.toLowerCase())
-							.map(poguesXMLToDDI::transform, params, questionnaireName.toLowerCase())
-							.map(ddiToLunaticJSON::transform, params, questionnaireName.toLowerCase())
-							.map(lunaticJSONToUriQueen::transform, params, questionnaireName.toLowerCase()).transform()
-							.getBytes());
+					inFlightTransformations.transform("visualize-queen",
+							String.format("visualize-queen/%s?references=%s", questionnaireName, ref),
+							request, pipeline, output);
 				} catch (Exception e) {
 					logger.error(e.getMessage());
 					throw new PoguesException(500, e.getMessage(), null);
@@ -179,21 +183,13 @@ public class PoguesTransforms {
 	public ResponseEntity<StreamingResponseBody> visualizeStromaeV2FromBody(@RequestBody String request,
 			@PathVariable(value = "questionnaire") String questionnaireName,
 			@RequestParam(name = "references", defaultValue = "false") Boolean ref) throws Exception {
-		PipeLine pipeline = new PipeLine();
-		Map<String, Object> params = new HashMap<>();
-		params.put("questionnaire", questionnaireName.toLowerCase());
-		params.put("needDeref", ref);
-		params.put("mode", "CAWI");
+		StreamPipeLine pipeline = visualizeStromaeV2Pipeline("visualize-stromae-v2", request, questionnaireName, ref);
 		try {
 			StreamingResponseBody stream = output -> {
 				try {
-					output.write(pipeline.from(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)))
-							.map(jsonToJsonDeref::transform, params, questionnaireName.toLowerCase())
-							.map(jsonToXML::transform, params, questionnaireName.toLowerCase())
-							.map(poguesXMLToDDI::transform, params, questionnaireName.toLowerCase())
-							.map(ddiToLunaticJSON::transform, params, questionnaireName.toLowerCase())
-							.map(lunaticJSONToUriStromaeV2::transform, params, questionnaireName.toLowerCase())
-							.transform().getBytes());
+					inFlightTransformations.transform("visualize-stromae-v2",
+							String.format("visualize-stromae-v2/%s?references=%s", questionnaireName, ref),
+							request, pipeline, output);
 				} catch (Exception e) {
 					logger.error(e.getMessage());
 					throw new PoguesException(500, e.getMessage(), null);
@@ -211,16 +207,17 @@ public class PoguesTransforms {
 	public ResponseEntity<StreamingResponseBody> visualizeFromDDIBody(@RequestBody String request,
 			@PathVariable(value = "dataCollection") String dataCollection,
 			@PathVariable(value = "questionnaire") String questionnaire) throws Exception {
-		PipeLine pipeline = new PipeLine();
+		StreamPipeLine pipeline = new StreamPipeLine(pipelineExecutor, meterRegistry, "visualize-from-ddi");
 		Map<String, Object> params = new HashMap<>();
 		params.put("dataCollection", dataCollection.toLowerCase());
 		params.put("questionnaire", questionnaire.toLowerCase());
 		try {
 			StreamingResponseBody stream = output -> {
 				try {
-					output.write(pipeline.from(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)))
-							.map(ddiToXForm::transform, params, questionnaire.toLowerCase())
-							.map(xformToUri::transform, params, questionnaire.toLowerCase()).transform().getBytes());
+					pipeline.from(request)
+							.map(ddiToXForm, params, questionnaire.toLowerCase())
+							.map(xformToUri, params, questionnaire.toLowerCase())
+							.transform(output);
 				} catch (Exception e) {
 					logger.error(e.getMessage());
 					throw new PoguesException(500, e.getMessage(), null);
@@ -237,19 +234,11 @@ public class PoguesTransforms {
 	@Operation(summary = "Get visualization spec from JSON serialized Pogues entity", hidden = true)
 	public ResponseEntity<StreamingResponseBody> visualizeSpecFromBody(@RequestBody String request,
 			@RequestParam(name = "references", defaultValue = "false") Boolean ref) throws Exception {
-		PipeLine pipeline = new PipeLine();
-		Map<String, Object> params = new HashMap<>();
-		params.put("needDeref", ref);
-		String questionnaireName = "spec";
+		StreamPipeLine pipeline = visualizeSpecPipeline("visualize-spec", request, ref);
 		try {
 			StreamingResponseBody stream = output -> {
 				try {
-					output.write(
-							pipeline.from(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)))
-									.map(jsonToJsonDeref::transform, params, questionnaireName)
-									.map(jsonToXML::transform, params, questionnaireName)
-									.map(poguesXMLToDDI::transform, params, questionnaireName)
-									.map(ddiToOdt::transform, params, questionnaireName).transform().getBytes());
+					pipeline.transform(output);
 				} catch (Exception e) {
 					logger.error(e.getMessage());
 					throw new PoguesException(500, e.getMessage(), null);
@@ -257,7 +246,7 @@ public class PoguesTransforms {
 			};
 
 			return ResponseEntity.status(HttpStatus.OK).contentType(MediaType.APPLICATION_OCTET_STREAM)
-					.header(CONTENT_DISPOSITION, "attachment; filename=form.fodt").body(stream);
+					.header(CONTENT_DISPOSITION, "attachment; filename=" + SPEC_FILE_NAME).body(stream);
 		} catch (Exception e) {
 			logger.error(e.getMessage(), e);
 			throw e;
@@ -268,18 +257,18 @@ public class PoguesTransforms {
 	@Operation(summary = "Get visualization DDI file from JSON serialized Pogues entity")
 	public ResponseEntity<StreamingResponseBody> visualizeDDIFromBody(@RequestBody String request,
 			@RequestParam(name = "references", defaultValue = "false") Boolean ref) throws Exception {
-		PipeLine pipeline = new PipeLine();
+		StreamPipeLine pipeline = new StreamPipeLine(pipelineExecutor, meterRegistry, "visualize-ddi");
 		Map<String, Object> params = new HashMap<>();
 		params.put("needDeref", ref);
 		String questionnaireName = "ddi";
 		try {
 			StreamingResponseBody stream = output -> {
 				try {
-					output.write(
-							pipeline.from(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)))
-									.map(jsonToJsonDeref::transform, params, questionnaireName)
-									.map(jsonToXML::transform, params, questionnaireName)
-									.map(poguesXMLToDDI::transform, params, questionnaireName).transform().getBytes());
+					pipeline.from(request)
+							.map(jsonToJsonDeref, params, questionnaireName)
+							.map(jsonToXML, params, questionnaireName)
+							.map(poguesXMLToDDI, params, questionnaireName)
+							.transform(output);
 				} catch (Exception e) {
 					logger.error(e.getMessage());
 					throw new PoguesException(500, e.getMessage(), null);
@@ -296,42 +285,20 @@ public class PoguesTransforms {
 
 	@PostMapping(path = "visualize-pdf", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
 	@Operation(summary = "Get visualization PDF questionnaire from JSON serialized Pogues entity")
-	public ResponseEntity<InputStreamResource> visualizePDFFromBody(@RequestBody String request,
+	public ResponseEntity<StreamingResponseBody> visualizePDFFromBody(@RequestBody String request,
 			@RequestParam(name = "references", defaultValue = "false") Boolean ref) throws Exception {
-		PipeLine pipeline = new PipeLine();
-		Map<String, Object> params = new HashMap<>();
-		params.put("needDeref", ref);
-		String filePath = null;
-		String questionnaireName = "pdf";
-		try {
-			filePath = pipeline.from(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)))
-					.map(jsonToJsonDeref::transform, params, questionnaireName)
-					.map(jsonToXML::transform, params, questionnaireName)
-					.map(poguesXMLToDDI::transform, params, questionnaireName)
-					.map(ddiToFo::transform, params, questionnaireName)
-					.map(foToPdf::transform, params, questionnaireName).transform();
-		} catch (Exception e) {
-			logger.error(e.getMessage(),e);
-			throw new PoguesException(500, e.getMessage(), null);
-		}
-		File file = new File(filePath);
-		InputStream inputStream = new FileInputStream(file);
-		InputStreamResource inputStreamResource = new InputStreamResource(inputStream);
-		return ResponseEntity.status(HttpStatus.OK).contentType(MediaType.APPLICATION_OCTET_STREAM)
-				.header(CONTENT_DISPOSITION, "attachment; filename=\"" + file.getName() + "\"")
-				.body(inputStreamResource);
-
+		return pdfResponse(visualizeFOPipeline("visualize-pdf", request, ref), new HashMap<>(), "pdf");
 	}
 
 	@PostMapping(path = "ddi2pdf", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
 	@Operation(summary = "Get visualization PDF questionnaire from DDI questionnaire")
-	public ResponseEntity<InputStreamResource> ddi2pdfWithParamTest(@RequestBody String questDDI,
+	public ResponseEntity<StreamingResponseBody> ddi2pdfWithParamTest(@RequestBody String questDDI,
 			@RequestParam(name = "columns") ColumnsEnum columns,
 			@RequestParam(name = "orientation") OrientationEnum orientation,
 			@RequestParam(name = "capture") CaptureEnum capture,
 			@RequestParam(name = "studyunit") StudyUnitEnum studyUnit,
 			@RequestParam(name = "timequestion") Boolean timequestion) throws Exception {
-		PipeLine pipeline = new PipeLine();
+		StreamPipeLine pipeline = new StreamPipeLine(pipelineExecutor, meterRegistry, "ddi2pdf");
 		Map<String, Object> params = new HashMap<>();
 		if (columns != null) {
 			params.put("columns", columns.getNbcolumn());
@@ -348,51 +315,248 @@ public class PoguesTransforms {
 		if (timequestion != null) {
 			params.put("timequestion", timequestion.toString());
 		}
-		String filePath = null;
 		String questionnaireName = "pdf";
+		pipeline.from(questDDI)
+				.map(ddiToFo, params, questionnaireName);
+		return pdfResponse(pipeline, params, questionnaireName);
+	}
 
-		try {
-			filePath = pipeline.from(new ByteArrayInputStream(questDDI.getBytes(StandardCharsets.UTF_8)))
-					.map(ddiToFo::transform, params, questionnaireName)
-					.map(foToPdf::transform, params, questionnaireName)
-					.transform();
-		} catch (Exception e) {
-			logger.error(e.getMessage());
-			throw new PoguesException(500, e.getMessage(), null);
-		}
+	@PostMapping(path = "fo2pdf", consumes = MediaType.APPLICATION_XML_VALUE, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+	@Operation(summary = "Get visualization PDF questionnaire from FO questionnaire")
+	public ResponseEntity<StreamingResponseBody> fo2Pdf(@RequestBody String questFO) throws Exception {
+		return pdfResponse(new StreamPipeLine(pipelineExecutor, meterRegistry, "fo2pdf").from(questFO), new HashMap<>(), "pdf");
+	}
 
-		File file = new File(filePath);
-		InputStream inputStream = new FileInputStream(file);
-		InputStreamResource inputStreamResource = new InputStreamResource(inputStream);
+	/**
+	 * The PDF is rendered directly in the response, from the FO produced by the pipeline given.
+	 */
+	private ResponseEntity<StreamingResponseBody> pdfResponse(StreamPipeLine foPipeline, Map<String, Object> params,
+			String questionnaireName) {
+		StreamingResponseBody stream = output -> {
+			try {
+				foPipeline.map(foToPdf, params, questionnaireName).transform(output);
+			} catch (IOException e) {
+				throw e;
+			} catch (Exception e) {
+				logger.error(e.getMessage(), e);
+				throw new PoguesException(500, e.getMessage(), null);
+			}
+		};
 		return ResponseEntity.status(HttpStatus.OK).contentType(MediaType.APPLICATION_OCTET_STREAM)
-				.header(CONTENT_DISPOSITION, "attachment; filename=\"" + file.getName() + "\"")
-				.body(inputStreamResource);
+				.header(CONTENT_DISPOSITION, "attachment; filename=\"" + PDF_FILE_NAME + "\"")
+				.body(stream);
 	}
 
-	@PostMapping(path = "fo2pdf", consumes = MediaType.APPLICATION_XML_VALUE, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
-	@Operation(summary = "Get visualization PDF questionnaire from FO questionnaire")
-	public ResponseEntity<InputStreamResource> fo2Pdf(@RequestBody String questFO) throws Exception {
-		String filePath = null;
-		String questionnaireName = "pdf";
+	/*
+	 * Pipelines of the long visualizations, run in the response or as jobs.
+	 */
 
-		PipeLine pipeline = new PipeLine();
+	private StreamPipeLine visualizePipeline(String endpoint, String request, String dataCollection,
+			String questionnaire, Boolean ref) {
 		Map<String, Object> params = new HashMap<>();
-		try {
-			filePath = pipeline.from(new ByteArrayInputStream(questFO.getBytes(StandardCharsets.UTF_8)))
-					.map(foToPdf::transform, params, questionnaireName)
-					.transform();
-			;
-		} catch (Exception e) {
-			logger.error(e.getMessage(), e);
-			throw e;
+		params.put("dataCollection", dataCollection.toLowerCase());
+		params.put("questionnaire", questionnaire.toLowerCase());
+		params.put("needDeref", ref);
+		return new StreamPipeLine(pipelineExecutor, meterRegistry, endpoint).from(request)
+				.map(jsonToJsonDeref, params, questionnaire.toLowerCase())
+				.map(jsonToXML, params, questionnaire.toLowerCase())
+				.map(poguesXMLToDDI, params, questionnaire.toLowerCase())
+				.map(ddiToXForm, params, questionnaire.toLowerCase())
+				.map(xformToUri, params, questionnaire.toLowerCase());
+	}
+
+	private StreamPipeLine visualizeCatiQueenPipeline(String endpoint, String request, String questionnaireName) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("mode", "CATI");
+		return new StreamPipeLine(pipelineExecutor, meterRegistry, endpoint).from(request)
+				.map(jsonToXML, params, questionnaireName.toLowerCase())
+				.map(poguesXMLToDDI, params, questionnaireName.toLowerCase())
+				.map(ddiToLunaticJSON, params, questionnaireName.toLowerCase())
+				.map(lunaticJSONToUriQueen, params, questionnaireName.toLowerCase());
+	}
+
+	private StreamPipeLine visualizeQueenPipeline(String endpoint, String request, String questionnaireName,
+			Boolean ref) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("mode", "CAPI");
+		params.put("needDeref", ref);
+		return new StreamPipeLine(pipelineExecutor, meterRegistry, endpoint).from(request)
+				.map(jsonToJsonDeref, params, questionnaireName.toLowerCase())
+				.map(jsonToXML, params, questionnaireName.toLowerCase())
+				.map(poguesXMLToDDI, params, questionnaireName.toLowerCase())
+				.map(ddiToLunaticJSON, params, questionnaireName.toLowerCase())
+				.map(lunaticJSONToUriQueen, params, questionnaireName.toLowerCase());
+	}
+
+	private StreamPipeLine visualizeStromaeV2Pipeline(String endpoint, String request, String questionnaireName,
+			Boolean ref) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("questionnaire", questionnaireName.toLowerCase());
+		params.put("needDeref", ref);
+		params.put("mode", "CAWI");
+		return new StreamPipeLine(pipelineExecutor, meterRegistry, endpoint).from(request)
+				.map(jsonToJsonDeref, params, questionnaireName.toLowerCase())
+				.map(jsonToXML, params, questionnaireName.toLowerCase())
+				.map(poguesXMLToDDI, params, questionnaireName.toLowerCase())
+				.map(ddiToLunaticJSON, params, questionnaireName.toLowerCase())
+				.map(lunaticJSONToUriStromaeV2, params, questionnaireName.toLowerCase());
+	}
+
+	private StreamPipeLine visualizeSpecPipeline(String endpoint, String request, Boolean ref) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("needDeref", ref);
+		String questionnaireName = "spec";
+		return new StreamPipeLine(pipelineExecutor, meterRegistry, endpoint).from(request)
+				.map(jsonToJsonDeref, params, questionnaireName)
+				.map(jsonToXML, params, questionnaireName)
+				.map(poguesXMLToDDI, params, questionnaireName)
+				.map(ddiToOdt, params, questionnaireName);
+	}
+
+	/**
+	 * Pipeline of the PDF visualization, up to the FO to be rendered.
+	 */
+	private StreamPipeLine visualizeFOPipeline(String endpoint, String request, Boolean ref) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("needDeref", ref);
+		String questionnaireName = "pdf";
+		return new StreamPipeLine(pipelineExecutor, meterRegistry, endpoint).from(request)
+				.map(jsonToJsonDeref, params, questionnaireName)
+				.map(jsonToXML, params, questionnaireName)
+				.map(poguesXMLToDDI, params, questionnaireName)
+				.map(ddiToFo, params, questionnaireName);
+	}
+
+	/*
+	 * Jobs: the long visualizations run in the background, the job being polled (GET jobs/{id}) until its result
+	 * can be downloaded (GET jobs/{id}/result). Identical submissions of a job in progress get this job.
+	 */
+
+	@PostMapping(path = "jobs/visualize/{dataCollection}/{questionnaire}", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+	@Operation(summary = "Submit a job getting the visualization URI from JSON serialized Pogues entity", description = "dataCollection MUST refer to the name attribute owned by the nested DataCollectionObject")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "202", description = "Job submitted"),
+			@ApiResponse(responseCode = "503", description = "Too many jobs in progress") })
+	public ResponseEntity<TransformationJob> submitVisualize(@RequestBody String request,
+			@PathVariable(value = "dataCollection") String dataCollection,
+			@PathVariable(value = "questionnaire") String questionnaire,
+			@RequestParam(name = "references", defaultValue = "false") Boolean ref) throws PoguesException {
+		StreamPipeLine pipeline = visualizePipeline("jobs/visualize", request, dataCollection, questionnaire, ref);
+		return accepted(transformationJobs.submit(
+				String.format("visualize/%s/%s?references=%s", dataCollection, questionnaire, ref),
+				request, pipeline, MediaType.TEXT_PLAIN_VALUE, null));
+	}
+
+	@PostMapping(path = "jobs/visualize-queen-telephone/{questionnaire}", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+	@Operation(summary = "Submit a job getting the visualization URI CATI Queen from JSON serialized Pogues entity")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "202", description = "Job submitted"),
+			@ApiResponse(responseCode = "503", description = "Too many jobs in progress") })
+	public ResponseEntity<TransformationJob> submitVisualizeCatiQueen(@RequestBody String request,
+			@PathVariable(value = "questionnaire") String questionnaireName) throws PoguesException {
+		StreamPipeLine pipeline = visualizeCatiQueenPipeline("jobs/visualize-queen-telephone", request, questionnaireName);
+		return accepted(transformationJobs.submit(
+				String.format("visualize-queen-telephone/%s", questionnaireName),
+				request, pipeline, MediaType.TEXT_PLAIN_VALUE, null));
+	}
+
+	@PostMapping(path = "jobs/visualize-queen/{questionnaire}", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+	@Operation(summary = "Submit a job getting the visualization URI CAPI Queen from JSON serialized Pogues entity")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "202", description = "Job submitted"),
+			@ApiResponse(responseCode = "503", description = "Too many jobs in progress") })
+	public ResponseEntity<TransformationJob> submitVisualizeQueen(@RequestBody String request,
+			@PathVariable(value = "questionnaire") String questionnaireName,
+			@RequestParam(name = "references", defaultValue = "false") Boolean ref) throws PoguesException {
+		StreamPipeLine pipeline = visualizeQueenPipeline("jobs/visualize-queen", request, questionnaireName, ref);
+		return accepted(transformationJobs.submit(
+				String.format("visualize-queen/%s?references=%s", questionnaireName, ref),
+				request, pipeline, MediaType.TEXT_PLAIN_VALUE, null));
+	}
+
+	@PostMapping(path = "jobs/visualize-stromae-v2/{questionnaire}", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+	@Operation(summary = "Submit a job getting the visualization URI Stromae V2 from JSON serialized Pogues entity")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "202", description = "Job submitted"),
+			@ApiResponse(responseCode = "503", description = "Too many jobs in progress") })
+	public ResponseEntity<TransformationJob> submitVisualizeStromaeV2(@RequestBody String request,
+			@PathVariable(value = "questionnaire") String questionnaireName,
+			@RequestParam(name = "references", defaultValue = "false") Boolean ref) throws PoguesException {
+		StreamPipeLine pipeline = visualizeStromaeV2Pipeline("jobs/visualize-stromae-v2", request, questionnaireName, ref);
+		return accepted(transformationJobs.submit(
+				String.format("visualize-stromae-v2/%s?references=%s", questionnaireName, ref),
+				request, pipeline, MediaType.TEXT_PLAIN_VALUE, null));
+	}
+
+	@PostMapping(path = "jobs/visualize-spec", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+	@Operation(summary = "Submit a job getting the visualization spec from JSON serialized Pogues entity", hidden = true)
+	public ResponseEntity<TransformationJob> submitVisualizeSpec(@RequestBody String request,
+			@RequestParam(name = "references", defaultValue = "false") Boolean ref) throws PoguesException {
+		StreamPipeLine pipeline = visualizeSpecPipeline("jobs/visualize-spec", request, ref);
+		return accepted(transformationJobs.submit(String.format("visualize-spec?references=%s", ref),
+				request, pipeline, MediaType.APPLICATION_OCTET_STREAM_VALUE, SPEC_FILE_NAME));
+	}
+
+	@PostMapping(path = "jobs/visualize-pdf", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+	@Operation(summary = "Submit a job getting the visualization PDF questionnaire from JSON serialized Pogues entity")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "202", description = "Job submitted"),
+			@ApiResponse(responseCode = "503", description = "Too many jobs in progress") })
+	public ResponseEntity<TransformationJob> submitVisualizePDF(@RequestBody String request,
+			@RequestParam(name = "references", defaultValue = "false") Boolean ref) throws PoguesException {
+		StreamPipeLine pipeline = visualizeFOPipeline("jobs/visualize-pdf", request, ref)
+				.map(foToPdf, new HashMap<>(), "pdf");
+		return accepted(transformationJobs.submit(String.format("visualize-pdf?references=%s", ref),
+				request, pipeline, MediaType.APPLICATION_OCTET_STREAM_VALUE, PDF_FILE_NAME));
+	}
+
+	@GetMapping(path = "jobs/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+	@Operation(summary = "Get the status of a transformation job")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "200", description = "OK"),
+			@ApiResponse(responseCode = "404", description = "Unknown or expired job") })
+	public ResponseEntity<TransformationJob> getJob(@PathVariable(value = "id") String id) throws PoguesException {
+		return ResponseEntity.ok(job(id));
+	}
+
+	@GetMapping(path = "jobs/{id}/result")
+	@Operation(summary = "Get the result of a transformation job")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "200", description = "OK"),
+			@ApiResponse(responseCode = "404", description = "Unknown or expired job"),
+			@ApiResponse(responseCode = "409", description = "Job still in progress"),
+			@ApiResponse(responseCode = "500", description = "Job failed") })
+	public ResponseEntity<StreamingResponseBody> getJobResult(@PathVariable(value = "id") String id)
+			throws PoguesException {
+		TransformationJob job = job(id);
+		if (job.getStatus() == TransformationJob.Status.FAILED) {
+			throw new PoguesException(500, "Transformation error", job.getError());
+		}
+		if (job.getStatus() != TransformationJob.Status.DONE) {
+			throw new PoguesException(409, "Conflict", String.format("Job %s is %s", id, job.getStatus()));
+		}
+		Path result = job.getResult();
+		StreamingResponseBody stream = output -> Files.copy(result, output);
+		ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.OK)
+				.contentType(MediaType.parseMediaType(job.getContentType()));
+		if (job.getFileName() != null) {
+			response.header(CONTENT_DISPOSITION, "attachment; filename=\"" + job.getFileName() + "\"");
 		}
+		return response.body(stream);
+	}
 
-		File file = new File(filePath);
-		InputStream inputStream = new FileInputStream(file);
-		InputStreamResource inputStreamResource = new InputStreamResource(inputStream);
-		return ResponseEntity.status(HttpStatus.OK).contentType(MediaType.APPLICATION_OCTET_STREAM)
-				.header(CONTENT_DISPOSITION, "attachment; filename=\"" + file.getName() + "\"")
-				.body(inputStreamResource);
+	private TransformationJob job(String id) throws PoguesException {
+		TransformationJob job = transformationJobs.get(id);
+		if (job == null) {
+			throw new PoguesException(404, "Not found", String.format("Unknown or expired job %s", id));
+		}
+		return job;
+	}
+
+	private ResponseEntity<TransformationJob> accepted(TransformationJob job) {
+		URI location = ServletUriComponentsBuilder.fromCurrentContextPath()
+				.path("/api/transform/jobs/{id}").buildAndExpand(job.getId()).toUri();
+		return ResponseEntity.accepted().location(location).body(job);
 	}
 
 	@PostMapping(path = "json2xml", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_XML_VALUE)
@@ -478,4 +642,11 @@ public class PoguesTransforms {
 		return ResponseEntity.status(HttpStatus.OK).contentType(type).body(stream);
 	}
 
+	@ExceptionHandler(PoguesException.class)
+	public ResponseEntity<ApiError> handlePoguesException(PoguesException pe) {
+		logger.error(pe.getMessage(), pe);
+		ApiError apiErrorResponse = new ApiError(pe.getStatus(), pe.getMessage(), pe.getDetails());
+		return new ResponseEntity<>(apiErrorResponse, HttpStatus.valueOf(pe.getStatus()));
+	}
+
 }
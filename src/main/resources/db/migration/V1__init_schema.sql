@@ -0,0 +1,12 @@
+-- Initial schema, as it existed before versioned migrations were introduced.
+-- Existing databases are baselined at this version, so this script only runs on empty databases.
+
+CREATE TABLE IF NOT EXISTS pogues (
+    id   text PRIMARY KEY,
+    data json
+);
+
+CREATE TABLE IF NOT EXISTS visu_lunatic (
+    id           text PRIMARY KEY,
+    data_lunatic json
+);
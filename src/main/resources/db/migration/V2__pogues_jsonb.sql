@@ -0,0 +1,16 @@
+-- Store questionnaires as jsonb: documents are parsed once when written instead of on every read,
+-- and can be indexed.
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM information_schema.columns
+               WHERE table_schema = current_schema() AND table_name = 'pogues'
+                 AND column_name = 'data' AND data_type = 'json') THEN
+        ALTER TABLE pogues ALTER COLUMN data TYPE jsonb USING data::jsonb;
+    END IF;
+END $$;
+
+-- Owner lookups: questionnaires/search, questionnaires/search/meta and questionnaires/stamps
+CREATE INDEX IF NOT EXISTS pogues_owner_idx ON pogues ((data ->> 'owner'));
+
+-- Containment queries on documents (data @> '{...}')
+CREATE INDEX IF NOT EXISTS pogues_data_idx ON pogues USING gin (data jsonb_path_ops);
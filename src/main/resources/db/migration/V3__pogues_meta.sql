@@ -0,0 +1,18 @@
+-- Narrow projection of the questionnaire attributes displayed in the questionnaires list
+-- (questionnaires/search/meta), so that listing does not read the whole documents.
+-- Rows are written in the same transaction as the pogues row (QuestionnairesServiceQueryPostgresqlImpl)
+-- and rows missing for questionnaires stored before this version are filled in by MetaQuestionnaireBackfill.
+CREATE TABLE IF NOT EXISTS pogues_meta (
+    id                 text PRIMARY KEY,
+    owner              text,
+    name               jsonb,
+    label              jsonb,
+    last_updated_date  jsonb,
+    final              jsonb,
+    data_collection    jsonb,
+    target_mode        jsonb,
+    flow_logic         jsonb,
+    formulas_language  jsonb
+);
+
+CREATE INDEX IF NOT EXISTS pogues_meta_owner_idx ON pogues_meta (owner);
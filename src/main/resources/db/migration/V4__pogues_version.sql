@@ -0,0 +1,6 @@
+-- Version of each questionnaire, changed on every write: used as ETag by questionnaire/{id}
+-- (conditional GET with If-None-Match, optimistic concurrency with If-Match on PUT).
+-- Values come from a sequence so that a version is never reused, even after a delete.
+CREATE SEQUENCE IF NOT EXISTS pogues_version_seq;
+
+ALTER TABLE pogues ADD COLUMN IF NOT EXISTS version bigint NOT NULL DEFAULT nextval('pogues_version_seq');
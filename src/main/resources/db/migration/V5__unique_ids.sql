@@ -0,0 +1,18 @@
+-- INSERT ... ON CONFLICT (id) needs a unique index on id. Tables created by V1 have one (primary key),
+-- databases created before migrations were introduced may not.
+DO $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM pg_index i
+                   JOIN pg_attribute a ON a.attrelid = i.indrelid AND a.attnum = i.indkey[0]
+                   WHERE i.indrelid = 'pogues'::regclass AND i.indisunique AND i.indnatts = 1 AND a.attname = 'id') THEN
+        CREATE UNIQUE INDEX pogues_id_idx ON pogues (id);
+    END IF;
+
+    IF NOT EXISTS (SELECT 1 FROM pg_index i
+                   JOIN pg_attribute a ON a.attrelid = i.indrelid AND a.attnum = i.indkey[0]
+                   WHERE i.indrelid = 'visu_lunatic'::regclass AND i.indisunique AND i.indnatts = 1 AND a.attname = 'id') THEN
+        -- Visualizations were written with a create-then-update fallback: keep a single row per id
+        DELETE FROM visu_lunatic a USING visu_lunatic b WHERE a.id = b.id AND a.ctid < b.ctid;
+        CREATE UNIQUE INDEX visu_lunatic_id_idx ON visu_lunatic (id);
+    END IF;
+END $$;
@@ -0,0 +1,48 @@
+-- Full-text search over the questionnaires (questionnaires/search/text): the searched words of each questionnaire,
+-- weighted by where they come from, are kept in a tsvector maintained by a trigger, so that whichever statement
+-- writes a questionnaire also updates its entry (and deleting the row deletes it).
+--   A: Name and Label of the questionnaire
+--   B: names and labels of the variables, ids of the data collections
+--   C: labels of the code lists and of their codes
+-- The 'simple' configuration is used (no stemming nor stop words): most of the searched words are identifiers,
+-- and words are matched by prefix.
+
+CREATE OR REPLACE FUNCTION pogues_array(value jsonb) RETURNS jsonb
+    LANGUAGE sql IMMUTABLE AS $$
+    SELECT CASE WHEN jsonb_typeof(value) = 'array' THEN value ELSE '[]'::jsonb END
+$$;
+
+CREATE OR REPLACE FUNCTION pogues_search_vector(data jsonb) RETURNS tsvector
+    LANGUAGE sql IMMUTABLE AS $$
+    SELECT setweight(to_tsvector('simple', concat_ws(' ',
+               data ->> 'Name',
+               (SELECT string_agg(label, ' ') FROM jsonb_array_elements_text(pogues_array(data -> 'Label')) AS l(label)))), 'A')
+        || setweight(to_tsvector('simple', concat_ws(' ',
+               (SELECT string_agg(concat_ws(' ', variable ->> 'Name', variable ->> 'Label'), ' ')
+                FROM jsonb_array_elements(pogues_array(data #> '{Variables,Variable}')) AS v(variable)),
+               (SELECT string_agg(collection ->> 'id', ' ')
+                FROM jsonb_array_elements(pogues_array(data -> 'DataCollection')) AS d(collection)))), 'B')
+        || setweight(to_tsvector('simple', concat_ws(' ',
+               (SELECT string_agg(concat_ws(' ', code_list ->> 'Label',
+                           (SELECT string_agg(code ->> 'Label', ' ')
+                            FROM jsonb_array_elements(pogues_array(code_list -> 'Code')) AS k(code))), ' ')
+                FROM jsonb_array_elements(pogues_array(data #> '{CodeLists,CodeList}')) AS c(code_list)))), 'C')
+$$;
+
+ALTER TABLE pogues ADD COLUMN IF NOT EXISTS search tsvector;
+
+CREATE OR REPLACE FUNCTION pogues_search_update() RETURNS trigger
+    LANGUAGE plpgsql AS $$
+BEGIN
+    NEW.search := pogues_search_vector(NEW.data);
+    RETURN NEW;
+END $$;
+
+DROP TRIGGER IF EXISTS pogues_search_trigger ON pogues;
+CREATE TRIGGER pogues_search_trigger BEFORE INSERT OR UPDATE OF data ON pogues
+    FOR EACH ROW EXECUTE PROCEDURE pogues_search_update();
+
+-- Questionnaires stored before this version
+UPDATE pogues SET search = pogues_search_vector(data);
+
+CREATE INDEX IF NOT EXISTS pogues_search_idx ON pogues USING gin (search);
@@ -0,0 +1,84 @@
+package fr.insee.pogues.api.remote.eno.transforms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class CachingEnoClientTest {
+
+    private EnoClientImpl enoClient;
+    private CachingEnoClient cachingEnoClient;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        enoClient = mock(EnoClientImpl.class);
+        EnoResultCache cache = new EnoResultCache();
+        cache.enabled = true;
+        cache.memoryMaxBytes = 1024;
+        cache.maxEntryBytes = 256;
+        cache.init();
+        cachingEnoClient = new CachingEnoClient();
+        cachingEnoClient.enoClient = enoClient;
+        cachingEnoClient.cache = cache;
+    }
+
+    private static InputStream ddi() {
+        return new ByteArrayInputStream("<DDI/>".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void unchangedInputIsTransformedOnce() throws Exception {
+        doAnswer(invocation -> {
+            invocation.getArgument(1, OutputStream.class).write("{}".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(enoClient).getDDITOLunaticJSON(any(InputStream.class), any(OutputStream.class), anyMap());
+        for (String mode : new String[] { "CAWI", "CAWI", "CAPI" }) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            cachingEnoClient.getDDITOLunaticJSON(ddi(), output, Map.of("mode", mode));
+            assertEquals("{}", output.toString(StandardCharsets.UTF_8));
+        }
+        // Once per mode
+        verify(enoClient, times(2)).getDDITOLunaticJSON(any(InputStream.class), any(OutputStream.class), anyMap());
+    }
+
+    @Test
+    void resultLargerThanAnEntryIsStreamedButNotCached() throws Exception {
+        String fo = "<fo>" + "x".repeat(300) + "</fo>";
+        doAnswer(invocation -> {
+            invocation.getArgument(1, OutputStream.class).write(fo.getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(enoClient).getDDIToFO(any(InputStream.class), any(OutputStream.class));
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            cachingEnoClient.getDDIToFO(ddi(), output);
+            assertEquals(fo, output.toString(StandardCharsets.UTF_8));
+        }
+        verify(enoClient, times(2)).getDDIToFO(any(InputStream.class), any(OutputStream.class));
+    }
+
+    @Test
+    void failureIsNotCached() throws Exception {
+        doThrow(new IOException("Eno error 500")).when(enoClient).getDDIToFO(any(InputStream.class), any(OutputStream.class));
+        assertThrows(IOException.class, () -> cachingEnoClient.getDDIToFO(ddi(), new ByteArrayOutputStream()));
+        assertThrows(IOException.class, () -> cachingEnoClient.getDDIToFO(ddi(), new ByteArrayOutputStream()));
+        verify(enoClient, times(2)).getDDIToFO(any(InputStream.class), any(OutputStream.class));
+    }
+
+}
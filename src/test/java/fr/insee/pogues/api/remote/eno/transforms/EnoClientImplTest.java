@@ -0,0 +1,91 @@
+package fr.insee.pogues.api.remote.eno.transforms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+class EnoClientImplTest {
+
+    @TempDir
+    Path tempDir;
+
+    CloseableHttpClient httpClient;
+    CloseableHttpResponse response;
+    EnoClientImpl enoClient;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        httpClient = mock(CloseableHttpClient.class);
+        response = mock(CloseableHttpResponse.class);
+        when(httpClient.execute(any(HttpUriRequest.class))).thenReturn(response);
+        enoClient = new EnoClientImpl();
+        enoClient.httpClient = httpClient;
+        enoClient.enoScheme = "https";
+        enoClient.enoHost = "eno.example.com";
+    }
+
+    @Test
+    void responseIsReadAndClosed() throws Exception {
+        when(response.getEntity()).thenReturn(new StringEntity("<DDI/>", "UTF-8"));
+        File input = Files.writeString(tempDir.resolve("input.xml"), "<Questionnaire/>").toFile();
+        assertEquals("<DDI/>", enoClient.getXMLPoguesToDDI(input));
+        ArgumentCaptor<HttpUriRequest> request = ArgumentCaptor.forClass(HttpUriRequest.class);
+        verify(httpClient).execute(request.capture());
+        assertEquals("https://eno.example.com/questionnaire/poguesxml-2-ddi", request.getValue().getURI().toString());
+        assertEquals(HttpPost.METHOD_NAME, request.getValue().getMethod());
+        verify(response).close();
+    }
+
+    @Test
+    void pdfResponseIsWrittenAndClosed() throws Exception {
+        when(response.getEntity()).thenReturn(new StringEntity("%PDF", "UTF-8"));
+        File input = Files.writeString(tempDir.resolve("input.fo"), "<fo/>").toFile();
+        String output = enoClient.getDDIToPDF(input);
+        assertEquals("%PDF", Files.readString(Path.of(output)));
+        verify(response).close();
+    }
+
+    @Test
+    void streamedResponseIsWrittenAndClosed() throws Exception {
+        when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK"));
+        when(response.getEntity()).thenReturn(new StringEntity("<DDI/>", "UTF-8"));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        enoClient.getXMLPoguesToDDI(new ByteArrayInputStream("<Questionnaire/>".getBytes(StandardCharsets.UTF_8)), output);
+        assertEquals("<DDI/>", output.toString(StandardCharsets.UTF_8));
+        verify(response).close();
+    }
+
+    @Test
+    void streamedErrorIsNotWritten() throws Exception {
+        when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 500, "Internal Server Error"));
+        when(response.getEntity()).thenReturn(new StringEntity("Transformation error", "UTF-8"));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ByteArrayInputStream input = new ByteArrayInputStream("<DDI/>".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IOException.class, () -> enoClient.getDDIToFO(input, output));
+        assertEquals(0, output.size());
+        verify(response).close();
+    }
+}
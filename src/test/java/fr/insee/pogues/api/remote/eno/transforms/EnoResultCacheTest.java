@@ -0,0 +1,82 @@
+package fr.insee.pogues.api.remote.eno.transforms;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class EnoResultCacheTest {
+
+    private static final byte[] DDI = "<DDI/>".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path tempDir;
+
+    private EnoResultCache cache(long diskMaxBytes) throws Exception {
+        EnoResultCache cache = new EnoResultCache();
+        cache.enabled = true;
+        cache.memoryMaxBytes = 1024;
+        cache.maxEntryBytes = 256;
+        cache.diskPath = tempDir.toString();
+        cache.diskMaxBytes = diskMaxBytes;
+        cache.init();
+        return cache;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void keyIsTheHashOfTheTransformationAndInput() {
+        assertEquals(EnoResultCache.key("fo", DDI), EnoResultCache.key("fo", DDI.clone()));
+        assertNotEquals(EnoResultCache.key("fo", DDI), EnoResultCache.key("fodt", DDI));
+        assertNotEquals(EnoResultCache.key("lunatic-json/CAWI", DDI), EnoResultCache.key("lunatic-json/CAPI", DDI));
+        assertEquals(64, EnoResultCache.key("fo", DDI).length());
+    }
+
+    @Test
+    void resultsSurviveARestartOnDisk() throws Exception {
+        String key = EnoResultCache.key("fo", DDI);
+        cache(1024).put(key, bytes("<fo/>"));
+        EnoResultCache restarted = cache(1024);
+        assertArrayEquals(bytes("<fo/>"), restarted.get(key));
+        assertArrayEquals(bytes("<fo/>"), restarted.get(key));
+        assertEquals(1L, restarted.statistics().get("diskHits"));
+        assertEquals(1L, restarted.statistics().get("memoryHits"));
+    }
+
+    @Test
+    void leastRecentlyUsedResultsAreEvictedFromDisk() throws Exception {
+        EnoResultCache cache = cache(10);
+        cache.put("a".repeat(64), bytes("1234"));
+        cache.put("b".repeat(64), bytes("1234"));
+        cache.get("a".repeat(64));
+        cache.put("c".repeat(64), bytes("1234"));
+        assertTrue(Files.exists(tempDir.resolve("a".repeat(64))));
+        assertFalse(Files.exists(tempDir.resolve("b".repeat(64))));
+        assertTrue(Files.exists(tempDir.resolve("c".repeat(64))));
+        assertEquals(8L, cache.statistics().get("diskBytes"));
+    }
+
+    @Test
+    void flushDropsAllResults() throws Exception {
+        EnoResultCache cache = cache(1024);
+        String key = EnoResultCache.key("fo", DDI);
+        cache.put(key, bytes("<fo/>"));
+        assertEquals(1, cache.flush());
+        assertNull(cache.get(key));
+        assertNull(cache(1024).get(key));
+        assertEquals(1L, cache.statistics().get("misses"));
+    }
+
+}
@@ -0,0 +1,115 @@
+package fr.insee.pogues.metadata;
+
+import fr.insee.pogues.metadata.client.MetadataClient;
+import fr.insee.pogues.metadata.model.ColecticaItem;
+import fr.insee.pogues.metadata.model.ColecticaItemRef;
+import fr.insee.pogues.metadata.model.ColecticaItemRefList;
+import fr.insee.pogues.metadata.model.Unit;
+import fr.insee.pogues.metadata.repository.MetadataRepositoryImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+class TestCachedMetadataRepository {
+
+    @Mock
+    MetadataClient metadataClient;
+
+    @InjectMocks
+    MetadataRepositoryImpl metadataRepository;
+
+    @BeforeEach
+    public void beforeEach() {
+        metadataRepository = new MetadataRepositoryImpl();
+        initMocks(this);
+        ReflectionTestUtils.setField(metadataRepository, "environment", new MockEnvironment());
+        ReflectionTestUtils.setField(metadataRepository, "enabled", true);
+        ReflectionTestUtils.invokeMethod(metadataRepository, "init");
+    }
+
+    private static ColecticaItem item(String identifier, int version) {
+        ColecticaItem item = new ColecticaItem();
+        item.agencyId = "fr.insee";
+        item.identifier = identifier;
+        item.version = String.valueOf(version);
+        return item;
+    }
+
+    private static ColecticaItemRefList refs(String... identifiers) {
+        return new ColecticaItemRefList(List.of(identifiers).stream()
+                .map(identifier -> new ColecticaItemRef(identifier, 1, "fr.insee"))
+                .collect(Collectors.toList()));
+    }
+
+    private static List<String> identifiers(List<ColecticaItem> items) {
+        return items.stream().map(ColecticaItem::getIdentifier).collect(Collectors.toList());
+    }
+
+    @Test
+    void unitsAreFetchedOnce() throws Exception {
+        Unit unit = new Unit();
+        when(metadataClient.getUnits()).thenReturn(List.of(unit));
+        assertEquals(List.of(unit), metadataRepository.getUnits());
+        assertEquals(List.of(unit), metadataRepository.getUnits());
+        verify(metadataClient, times(1)).getUnits();
+    }
+
+    @Test
+    void failuresAreNotCached() throws Exception {
+        when(metadataClient.getCodeList("cl1"))
+                .thenThrow(new ResourceAccessException("Connection refused"))
+                .thenReturn("ddi");
+        assertThrows(ResourceAccessException.class, () -> metadataRepository.getCodeList("cl1"));
+        assertEquals("ddi", metadataRepository.getCodeList("cl1"));
+        assertEquals("ddi", metadataRepository.getCodeList("cl1"));
+        verify(metadataClient, times(2)).getCodeList("cl1");
+    }
+
+    @Test
+    void onlyMissingItemsAreRequested() throws Exception {
+        when(metadataClient.getItems(any())).thenReturn(List.of(item("a", 1), item("b", 1)));
+        assertEquals(List.of("a", "b"), identifiers(metadataRepository.getItems(refs("a", "b"))));
+
+        when(metadataClient.getItems(any())).thenReturn(List.of(item("c", 1)));
+        assertEquals(List.of("b", "c", "a"), identifiers(metadataRepository.getItems(refs("b", "c", "a"))));
+
+        ArgumentCaptor<ColecticaItemRefList> requested = ArgumentCaptor.forClass(ColecticaItemRefList.class);
+        verify(metadataClient, times(2)).getItems(requested.capture());
+        List<ColecticaItemRef> second = requested.getAllValues().get(1).identifiers;
+        assertEquals(1, second.size());
+        assertEquals("c", second.get(0).identifier);
+
+        metadataRepository.getItems(refs("a", "c"));
+        verifyNoMoreInteractions(metadataClient);
+    }
+
+    @Test
+    void hitRatioIsMeasuredPerOperation() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        metadataRepository.bindTo(registry);
+        when(metadataClient.getDDIDocument("q1")).thenReturn("ddi");
+        metadataRepository.getDDIDocument("q1");
+        metadataRepository.getDDIDocument("q1");
+        metadataRepository.getDDIDocument("q1");
+        assertEquals(2, registry.get("pogues.metadata.cache.gets")
+                .tags("operation", "ddi-document", "result", "hit").functionCounter().count());
+        assertEquals(1, registry.get("pogues.metadata.cache.gets")
+                .tags("operation", "ddi-document", "result", "miss").functionCounter().count());
+        assertEquals(2.0 / 3, registry.get("pogues.metadata.cache.hit.ratio")
+                .tags("operation", "ddi-document").gauge().value(), 0.001);
+    }
+}
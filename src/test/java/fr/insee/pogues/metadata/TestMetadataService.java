@@ -0,0 +1,112 @@
+package fr.insee.pogues.metadata;
+
+import fr.insee.pogues.metadata.repository.MetadataRepository;
+import fr.insee.pogues.metadata.service.MetadataServiceImpl;
+import fr.insee.pogues.transforms.reuse.DDIToPoguesXMLCodeList;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+class TestMetadataService {
+
+    @Mock
+    MetadataRepository metadataRepository;
+
+    @Mock
+    DDIToPoguesXMLCodeList ddiToXML;
+
+    @InjectMocks
+    MetadataServiceImpl metadataService;
+
+    @BeforeEach
+    public void beforeEach() throws Exception {
+        metadataService = new MetadataServiceImpl();
+        initMocks(this);
+        ReflectionTestUtils.setField(metadataService, "codeListThreads", 4);
+        ReflectionTestUtils.invokeMethod(metadataService, "init");
+        when(ddiToXML.transform(anyString(), any(), any())).thenAnswer(i -> "<CodeList>" + i.getArgument(0) + "</CodeList>");
+    }
+
+    @AfterEach
+    public void afterEach() {
+        ReflectionTestUtils.invokeMethod(metadataService, "shutdown");
+    }
+
+    private static Map<String, JSONObject> lines(ByteArrayOutputStream output) throws Exception {
+        Map<String, JSONObject> results = new HashMap<>();
+        JSONParser parser = new JSONParser();
+        for (String line : output.toString(StandardCharsets.UTF_8).split("\n")) {
+            JSONObject result = (JSONObject) parser.parse(line);
+            assertNull(results.put((String) result.get("id"), result), "One line per code list");
+        }
+        return results;
+    }
+
+    @Test
+    void codeListIsConverted() throws Exception {
+        when(metadataRepository.getCodeList("cl1")).thenReturn("ddi1");
+        assertEquals("<CodeList>ddi1</CodeList>", metadataService.getCodeList("cl1"));
+    }
+
+    @Test
+    void failuresDontFailTheBatch() throws Exception {
+        when(metadataRepository.getCodeList("cl1")).thenReturn("ddi1");
+        when(metadataRepository.getCodeList("cl2"))
+                .thenThrow(new HttpClientErrorException(HttpStatus.NOT_FOUND, "Not Found"));
+        when(metadataRepository.getCodeList("cl3")).thenReturn("ddi3");
+        when(ddiToXML.transform(eq("ddi3"), any(), any())).thenThrow(new IllegalArgumentException("Invalid DDI"));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        metadataService.streamCodeLists(List.of("cl1", "cl2", "cl3", "cl1"), output);
+        Map<String, JSONObject> results = lines(output);
+        assertEquals(3, results.size());
+        assertEquals("<CodeList>ddi1</CodeList>", results.get("cl1").get("codeList"));
+        assertEquals(404L, results.get("cl2").get("status"));
+        assertNull(results.get("cl2").get("codeList"));
+        assertEquals(500L, results.get("cl3").get("status"));
+        assertEquals("Invalid DDI", results.get("cl3").get("error"));
+        verify(metadataRepository, times(1)).getCodeList("cl1");
+    }
+
+    @Test
+    void resultsAreWrittenAsSoonAsConverted() throws Exception {
+        CountDownLatch fastWritten = new CountDownLatch(1);
+        when(metadataRepository.getCodeList("slow")).thenAnswer(i -> {
+            assertTrue(fastWritten.await(5, TimeUnit.SECONDS), "Fast code list written first");
+            return "slow";
+        });
+        when(metadataRepository.getCodeList("fast")).thenReturn("fast");
+        ByteArrayOutputStream output = new ByteArrayOutputStream() {
+            @Override
+            public void flush() {
+                fastWritten.countDown();
+            }
+        };
+        metadataService.streamCodeLists(List.of("slow", "fast"), output);
+        String[] lines = output.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        JSONParser parser = new JSONParser();
+        assertEquals("fast", ((JSONObject) parser.parse(lines[0])).get("id"));
+        assertEquals("<CodeList>slow</CodeList>", ((JSONObject) parser.parse(lines[1])).get("codeList"));
+    }
+}
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.sql.SQLException;
@@ -17,9 +18,11 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import fr.insee.pogues.persistence.query.EntityNotFoundException;
 import fr.insee.pogues.persistence.query.NonUniqueResultException;
 import fr.insee.pogues.persistence.query.QuestionnairesServiceQuery;
 import fr.insee.pogues.persistence.service.QuestionnairesServiceImpl;
+import fr.insee.pogues.transforms.visualize.DereferencingCache;
 import fr.insee.pogues.webservice.rest.PoguesException;
 
 @ExtendWith(MockitoExtension.class)
@@ -28,6 +31,9 @@ class TestQuestionnaireService {
     @Mock
     QuestionnairesServiceQuery questionnairesServiceQuery;
 
+    @Mock
+    DereferencingCache dereferencingCache;
+
     @InjectMocks
     QuestionnairesServiceImpl questionnairesService;
 
@@ -62,6 +68,45 @@ class TestQuestionnaireService {
 
     }
 
+    @Test
+    void rawQuestionnaireNotFoundThrowsException() throws Exception {
+        when(questionnairesServiceQuery.getQuestionnaireRawByID("id"))
+                .thenReturn(null);
+        Throwable exception = assertThrows(PoguesException.class,()->questionnairesService.getQuestionnaireRawByID("id"));
+        assertEquals("Not found",exception.getMessage());
+    }
+
+    @Test
+    void getRawQuestionnaireById() throws Exception {
+        String q = "{\"id\":\"foo\"}";
+        when(questionnairesServiceQuery.getQuestionnaireRawByID("foo")).thenReturn(q);
+        assertEquals(q, questionnairesService.getQuestionnaireRawByID("foo"));
+    }
+
+    @Test
+    void versionOfUnknownQuestionnaireThrowsException() throws Exception {
+        when(questionnairesServiceQuery.getQuestionnaireVersion("id")).thenReturn(null);
+        Throwable exception = assertThrows(PoguesException.class,()->questionnairesService.getQuestionnaireVersion("id"));
+        assertEquals("Not found",exception.getMessage());
+    }
+
+    @Test
+    void updateOfUnknownQuestionnaireThrowsNotFound() throws Exception {
+        JSONObject q = new JSONObject();
+        when(questionnairesServiceQuery.updateQuestionnaire("id", q, 3L))
+                .thenThrow(new EntityNotFoundException("Entity with id id not found"));
+        PoguesException exception = assertThrows(PoguesException.class,()->questionnairesService.updateQuestionnaire("id", q, 3L));
+        assertEquals(404, exception.getStatus());
+    }
+
+    @Test
+    void updateReturnsNewVersion() throws Exception {
+        JSONObject q = new JSONObject();
+        when(questionnairesServiceQuery.updateQuestionnaire("id", q, 3L)).thenReturn(4L);
+        assertEquals(4L, questionnairesService.updateQuestionnaire("id", q, 3L));
+        verify(dereferencingCache).invalidate("id");
+    }
+
     @Test
     void ambiguousIdThrowsException() throws Exception {
         when(questionnairesServiceQuery.getQuestionnaireByID("id"))
@@ -98,6 +143,27 @@ class TestQuestionnaireService {
         }
     }
 
+    @Test
+    void pageReturnsNormally() throws Exception {
+        List<JSONObject> page = List.of(new JSONObject(), new JSONObject());
+        when(questionnairesServiceQuery.getQuestionnaires("foo", 2)).thenReturn(page);
+        assertEquals(page, questionnairesService.getQuestionnaireList("foo", 2));
+    }
+
+    @Test
+    void emptyPageIsNotAnError() throws Exception {
+        when(questionnairesServiceQuery.getQuestionnaires("foo", 10)).thenReturn(new ArrayList<>());
+        assertEquals(0, questionnairesService.getQuestionnaireList("foo", 10).size());
+    }
+
+    @Test
+    void invalidPageSizeThrowsException() throws Exception {
+        Throwable exception = assertThrows(PoguesException.class,()->questionnairesService.getQuestionnaireList(null, 0));
+        assertEquals("Bad Request",exception.getMessage());
+        exception = assertThrows(PoguesException.class,()->questionnairesService.getQuestionnaireList(null, 100000));
+        assertEquals("Bad Request",exception.getMessage());
+    }
+
     @Test
     void deleteExceptionPropagate() throws Exception {
         doThrow(new SQLException("Test: Exception should propagate"))
@@ -112,6 +178,7 @@ class TestQuestionnaireService {
     void deleteQuestionnaireById() throws Exception {
         doAnswer(invocationOnMock -> null).when(questionnairesServiceQuery).deleteQuestionnaireByID("foo");
         questionnairesService.deleteQuestionnaireByID("foo");
+        verify(dereferencingCache).invalidate("foo");
     }
 }
 
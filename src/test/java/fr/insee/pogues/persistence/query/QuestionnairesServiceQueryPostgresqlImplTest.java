@@ -0,0 +1,220 @@
+package fr.insee.pogues.persistence.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import org.json.simple.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.postgresql.util.PGobject;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import fr.insee.pogues.config.auth.security.restrictions.StampsRestrictionsService;
+import fr.insee.pogues.webservice.rest.PoguesException;
+
+/**
+ * Write operations should cost a single statement (one round trip to the database) in the nominal case.
+ */
+@ExtendWith(MockitoExtension.class)
+class QuestionnairesServiceQueryPostgresqlImplTest {
+
+    private static final String RESTRICTED = "RESTRICTED";
+
+    @Mock
+    JdbcTemplate jdbcTemplate;
+
+    @Mock
+    StampsRestrictionsService stampsRestrictionsService;
+
+    @InjectMocks
+    QuestionnairesServiceQueryPostgresqlImpl questionnairesServiceQuery;
+
+    @BeforeEach
+    void setUp() {
+        questionnairesServiceQuery.stampRestricted = RESTRICTED;
+    }
+
+    private int statements() {
+        return mockingDetails(jdbcTemplate).getInvocations().size();
+    }
+
+    private JSONObject questionnaire(String id, String owner) {
+        JSONObject questionnaire = new JSONObject();
+        questionnaire.put("id", id);
+        questionnaire.put("owner", owner);
+        return questionnaire;
+    }
+
+    @Test
+    void createQuestionnaireIsOneStatement() throws Exception {
+        when(jdbcTemplate.queryForList(anyString(), eq(String.class), any(), any())).thenReturn(List.of("q1"));
+        questionnairesServiceQuery.createQuestionnaire(questionnaire("q1", "STAMP"));
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(jdbcTemplate).queryForList(sql.capture(), eq(String.class), any(), any());
+        assertTrue(sql.getValue().contains("ON CONFLICT (id) DO NOTHING"));
+        assertTrue(sql.getValue().contains("pogues_meta"));
+        assertEquals(1, statements());
+    }
+
+    @Test
+    void createExistingQuestionnaireThrowsException() throws Exception {
+        when(jdbcTemplate.queryForList(anyString(), eq(String.class), any(), any())).thenReturn(List.of());
+        JSONObject questionnaire = questionnaire("q1", "STAMP");
+        assertThrows(NonUniqueResultException.class, () -> questionnairesServiceQuery.createQuestionnaire(questionnaire));
+        assertEquals(1, statements());
+    }
+
+    @Test
+    void createJsonLunaticIsOneStatement() throws Exception {
+        when(jdbcTemplate.update(contains("ON CONFLICT (id) DO NOTHING"), any(Object.class), any(Object.class))).thenReturn(1);
+        questionnairesServiceQuery.createJsonLunatic(questionnaire("q1", "STAMP"));
+        assertEquals(1, statements());
+    }
+
+    @Test
+    void createOrUpdateJsonLunaticIsOneStatement() throws Exception {
+        when(jdbcTemplate.update(contains("ON CONFLICT (id) DO UPDATE"), any(Object.class), any(Object.class))).thenReturn(1);
+        questionnairesServiceQuery.createOrUpdateJsonLunatic(questionnaire("q1", "STAMP"));
+        assertEquals(1, statements());
+    }
+
+    @Test
+    void updateQuestionnaireIsOneStatement() throws Exception {
+        when(jdbcTemplate.queryForList(anyString(), eq(Long.class), any(), eq("q1"), eq(3L))).thenReturn(List.of(4L));
+        assertEquals(4L, questionnairesServiceQuery.updateQuestionnaire("q1", questionnaire("q1", "STAMP"), 3L));
+        assertEquals(1, statements());
+        verifyNoInteractions(stampsRestrictionsService);
+    }
+
+    @Test
+    void updateOfModifiedQuestionnaireThrowsPreconditionFailed() throws Exception {
+        when(jdbcTemplate.queryForList(anyString(), eq(Long.class), any(), eq("q1"), eq(3L))).thenReturn(List.of());
+        when(jdbcTemplate.queryForObject(anyString(), eq(Long.class), eq("q1"))).thenReturn(5L);
+        JSONObject questionnaire = questionnaire("q1", "STAMP");
+        PoguesException exception = assertThrows(PoguesException.class,
+                () -> questionnairesServiceQuery.updateQuestionnaire("q1", questionnaire, 3L));
+        assertEquals(412, exception.getStatus());
+    }
+
+    @Test
+    void updateOfUnknownQuestionnaireThrowsNotFound() throws Exception {
+        when(jdbcTemplate.queryForList(anyString(), eq(Long.class), any(), eq("q1"))).thenReturn(List.of());
+        JSONObject questionnaire = questionnaire("q1", "STAMP");
+        assertThrows(EntityNotFoundException.class,
+                () -> questionnairesServiceQuery.updateQuestionnaire("q1", questionnaire, null));
+        assertEquals(1, statements());
+    }
+
+    @Test
+    void deleteQuestionnaireIsOneStatement() throws Exception {
+        when(jdbcTemplate.queryForList(anyString(), eq(String.class), eq("q1"), eq(RESTRICTED))).thenReturn(List.of("q1"));
+        questionnairesServiceQuery.deleteQuestionnaireByID("q1");
+        assertEquals(1, statements());
+        verifyNoInteractions(stampsRestrictionsService);
+    }
+
+    @Test
+    void deleteUnknownQuestionnaireThrowsNotFound() throws Exception {
+        when(jdbcTemplate.queryForList(anyString(), eq(String.class), eq("q1"), eq(RESTRICTED))).thenReturn(List.of());
+        when(jdbcTemplate.queryForList(contains("data ->> 'owner'"), eq(String.class), eq("q1"))).thenReturn(List.of());
+        PoguesException exception = assertThrows(PoguesException.class,
+                () -> questionnairesServiceQuery.deleteQuestionnaireByID("q1"));
+        assertEquals(404, exception.getStatus());
+        assertEquals(2, statements());
+    }
+
+    @Test
+    void deleteRestrictedQuestionnaireByAnotherStampThrowsForbidden() throws Exception {
+        when(jdbcTemplate.queryForList(anyString(), eq(String.class), eq("q1"), eq(RESTRICTED))).thenReturn(List.of());
+        when(jdbcTemplate.queryForList(contains("data ->> 'owner'"), eq(String.class), eq("q1"))).thenReturn(List.of(RESTRICTED));
+        when(stampsRestrictionsService.isQuestionnaireOwner(RESTRICTED)).thenReturn(false);
+        PoguesException exception = assertThrows(PoguesException.class,
+                () -> questionnairesServiceQuery.deleteQuestionnaireByID("q1"));
+        assertEquals(403, exception.getStatus());
+        assertEquals(2, statements());
+    }
+
+    @Test
+    void deleteRestrictedQuestionnaireByItsOwner() throws Exception {
+        when(jdbcTemplate.queryForList(anyString(), eq(String.class), eq("q1"), eq(RESTRICTED))).thenReturn(List.of());
+        when(jdbcTemplate.queryForList(anyString(), eq(String.class), eq("q1"))).thenReturn(List.of(RESTRICTED), List.of("q1"));
+        when(stampsRestrictionsService.isQuestionnaireOwner(RESTRICTED)).thenReturn(true);
+        questionnairesServiceQuery.deleteQuestionnaireByID("q1");
+        assertEquals(3, statements());
+    }
+
+    @Test
+    void getQuestionnairesRawByIDsIsOneStatement() throws Exception {
+        questionnairesServiceQuery.getQuestionnairesRawByIDs(List.of("q1", "q2", "q3"));
+        verify(jdbcTemplate).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+        assertEquals(1, statements());
+    }
+
+    @Test
+    void getQuestionnairesByNoIDsIsNoStatement() throws Exception {
+        assertTrue(questionnairesServiceQuery.getQuestionnairesRawByIDs(List.of()).isEmpty());
+        assertEquals(0, statements());
+    }
+
+    @Test
+    void searchQuestionnairesIsOneStatement() throws Exception {
+        PGobject result = new PGobject();
+        result.setType("jsonb");
+        result.setValue("{\"total\": 3, \"totalExact\": true, \"questionnaires\": [{\"id\": \"q2\"}, {\"id\": \"q1\"}]}");
+        when(jdbcTemplate.queryForObject(anyString(), eq(PGobject.class), eq("cat:*"), eq("STAMP"), eq(2), eq(0),
+                eq("STAMP")))
+                .thenReturn(result);
+        JSONObject page = questionnairesServiceQuery.searchQuestionnaires("cat:*", "STAMP", 0, 2);
+        assertEquals(3L, page.get("total"));
+        assertEquals(2, ((List<?>) page.get("questionnaires")).size());
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(jdbcTemplate).queryForObject(sql.capture(), eq(PGobject.class), eq("cat:*"), eq("STAMP"), eq(2), eq(0),
+                eq("STAMP"));
+        assertTrue(sql.getValue().contains("search @@ query"));
+        // Matches counted up to a cap, not all of them
+        assertTrue(sql.getValue().contains("LIMIT " + (QuestionnairesServiceQueryPostgresqlImpl.MAX_SEARCH_TOTAL + 1)));
+        assertTrue(sql.getValue().contains("pogues_meta"));
+        assertEquals(1, statements());
+    }
+
+    @Test
+    void exportsBeyondTheConnectionBudgetAreRejected() throws Exception {
+        questionnairesServiceQuery.streamMaxConcurrent = 1;
+        questionnairesServiceQuery.streamIdleTimeout = 60000;
+        questionnairesServiceQuery.init();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        doAnswer(invocation -> {
+            // Second export while the first one holds its connection
+            PoguesException e = assertThrows(PoguesException.class,
+                    () -> questionnairesServiceQuery.streamQuestionnaires(new ByteArrayOutputStream()));
+            assertEquals(503, e.getStatus());
+            return null;
+        }).when(jdbcTemplate).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+        questionnairesServiceQuery.streamQuestionnaires(output);
+        // Released once ended
+        questionnairesServiceQuery.streamQuestionnaires(output);
+        verify(jdbcTemplate, times(2)).queryForObject(contains("idle_in_transaction_session_timeout"),
+                eq(String.class), eq("60000"));
+    }
+}
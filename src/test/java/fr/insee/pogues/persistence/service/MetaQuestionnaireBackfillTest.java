@@ -0,0 +1,41 @@
+package fr.insee.pogues.persistence.service;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import fr.insee.pogues.persistence.query.QuestionnairesServiceQuery;
+
+@ExtendWith(MockitoExtension.class)
+class MetaQuestionnaireBackfillTest {
+
+    @Mock
+    QuestionnairesServiceQuery questionnairesServiceQuery;
+
+    @InjectMocks
+    MetaQuestionnaireBackfill backfill;
+
+    @Test
+    void backfillRunsBatchesUntilNothingIsMissing() throws Exception {
+        backfill.enabled = true;
+        backfill.batchSize = 2;
+        when(questionnairesServiceQuery.backfillMetaQuestionnaires(2)).thenReturn(2, 1, 0);
+        backfill.run(null);
+        verify(questionnairesServiceQuery, times(3)).backfillMetaQuestionnaires(2);
+    }
+
+    @Test
+    void disabledBackfillDoesNothing() throws Exception {
+        backfill.enabled = false;
+        backfill.run(null);
+        verify(questionnairesServiceQuery, never()).backfillMetaQuestionnaires(anyInt());
+    }
+}
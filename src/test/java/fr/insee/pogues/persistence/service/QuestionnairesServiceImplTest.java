@@ -0,0 +1,58 @@
+package fr.insee.pogues.persistence.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import fr.insee.pogues.persistence.query.QuestionnairesServiceQuery;
+import fr.insee.pogues.webservice.rest.PoguesException;
+
+@ExtendWith(MockitoExtension.class)
+class QuestionnairesServiceImplTest {
+
+    @Mock
+    QuestionnairesServiceQuery questionnairesServiceQuery;
+
+    @InjectMocks
+    QuestionnairesServiceImpl questionnairesService;
+
+    @Test
+    void searchedWordsArePrefixes() {
+        assertEquals("cat:* & var:* & comp:*", QuestionnairesServiceImpl.prefixQuery("CAT_VAR_COMP_1"));
+        assertEquals("esa:* & 2018:*", QuestionnairesServiceImpl.prefixQuery("esa-dc-2018"));
+        assertEquals("télétravail:* & été:*", QuestionnairesServiceImpl.prefixQuery(" Télétravail  été été"));
+    }
+
+    @Test
+    void queryOperatorsAreIgnored() {
+        assertEquals("abc:* & bcd:*", QuestionnairesServiceImpl.prefixQuery("abc | !bcd:*"));
+        assertNull(QuestionnairesServiceImpl.prefixQuery("&|!():* '"));
+    }
+
+    @Test
+    void shortWordsAreIgnored() {
+        assertNull(QuestionnairesServiceImpl.prefixQuery("a b1 de"));
+    }
+
+    @Test
+    void searchWithoutWordIsBadRequest() throws Exception {
+        PoguesException e = assertThrows(PoguesException.class,
+                () -> questionnairesService.searchQuestionnaires(" - a ", null, 0, 20));
+        assertEquals(400, e.getStatus());
+        verifyNoInteractions(questionnairesServiceQuery);
+    }
+
+    @Test
+    void searchOfEveryOwner() throws Exception {
+        questionnairesService.searchQuestionnaires("catalogue", "", 20, 20);
+        verify(questionnairesServiceQuery).searchQuestionnaires("catalogue:*", null, 20, 20);
+    }
+}
@@ -0,0 +1,77 @@
+package fr.insee.pogues.search.repository;
+
+import fr.insee.pogues.search.model.DDIItem;
+import fr.insee.pogues.search.model.DataCollectionContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+class TestCachedPoguesItemRepository {
+
+    @Mock
+    PoguesItemRepositoryImpl remote;
+
+    @InjectMocks
+    CachedPoguesItemRepository repository;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        repository = new CachedPoguesItemRepository();
+        initMocks(this);
+        when(remote.getSubGroups()).thenReturn(List.of(item("s1")));
+        when(remote.getStudyUnits("s1")).thenReturn(List.of(item("o1"), item("o2")));
+        when(remote.getDataCollections("o1")).thenReturn(List.of(item("d1")));
+        when(remote.getDataCollections("o2")).thenReturn(List.of());
+    }
+
+    private static DDIItem item(String id) {
+        DDIItem item = new DDIItem();
+        item.setId(id);
+        return item;
+    }
+
+    @Test
+    void remoteIsCalledUntilLoaded() throws Exception {
+        assertEquals("s1", repository.getSubGroups().get(0).getId());
+        verify(remote).getSubGroups();
+    }
+
+    @Test
+    void hierarchyIsServedFromSnapshot() throws Exception {
+        assertTrue(repository.refresh());
+        clearInvocations(remote);
+        assertEquals("s1", repository.getSubGroups().get(0).getId());
+        assertEquals(2, repository.getStudyUnits("s1").size());
+        assertEquals("d1", repository.getDataCollections("o1").get(0).getId());
+        assertTrue(repository.getDataCollections("o2").isEmpty());
+        DataCollectionContext context = repository.getDataCollectionContext("d1");
+        assertEquals("s1", context.getSerieId());
+        assertEquals("o1", context.getOperationId());
+        verifyNoInteractions(remote);
+    }
+
+    @Test
+    void itemsCreatedSinceSnapshotAreFetched() throws Exception {
+        repository.refresh();
+        when(remote.getDataCollections("o3")).thenReturn(List.of(item("d3")));
+        assertEquals("d3", repository.getDataCollections("o3").get(0).getId());
+        verify(remote).getDataCollections("o3");
+    }
+
+    @Test
+    void lastSnapshotIsKeptWhenRefreshFails() throws Exception {
+        repository.refresh();
+        when(remote.getStudyUnits("s1")).thenThrow(new ResourceAccessException("Read timed out"));
+        assertFalse(repository.refresh());
+        assertEquals(2, repository.getStudyUnits("s1").size());
+        verify(remote, times(2)).getStudyUnits("s1");
+    }
+}
@@ -0,0 +1,131 @@
+package fr.insee.pogues.transforms;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InFlightTransformationsTest {
+
+    private InFlightTransformations inFlightTransformations;
+    private SimpleMeterRegistry registry;
+    private StreamPipeLineExecutor stageExecutor;
+
+    private final AtomicInteger runs = new AtomicInteger();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        inFlightTransformations = new InFlightTransformations();
+        inFlightTransformations.enabled = true;
+        inFlightTransformations.meterRegistry = registry;
+        stageExecutor = new StreamPipeLineExecutor(4);
+        stageExecutor.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        stageExecutor.shutdown();
+    }
+
+    /** Pipeline upper casing its input once released, or failing if the input is "fail". */
+    private StreamPipeLine pipeline(String input) {
+        return new StreamPipeLine(stageExecutor).from(input)
+                .map((String i, Map<String, Object> params, String survey) -> {
+                    runs.incrementAndGet();
+                    started.countDown();
+                    release.await();
+                    if ("fail".equals(i)) {
+                        throw new IllegalStateException("Expected error");
+                    }
+                    return i.toUpperCase();
+                }, null, null);
+    }
+
+    private Future<String> request(ExecutorService executor, String transformation, String input) {
+        return executor.submit(() -> {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            inFlightTransformations.transform("visualize", transformation, input, pipeline(input), output);
+            return output.toString(StandardCharsets.UTF_8);
+        });
+    }
+
+    private void awaitCoalesced(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (coalesced() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private double coalesced() {
+        return registry.get("pogues.transforms.requests").tags("coalesced", "true").counters().stream()
+                .mapToDouble(counter -> counter.count()).sum();
+    }
+
+    @Test
+    void identicalRequestsShareOneRun() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Future<String> first = request(executor, "visualize/q", "questionnaire");
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            Future<String> second = request(executor, "visualize/q", "questionnaire");
+            Future<String> third = request(executor, "visualize/q", "questionnaire");
+            awaitCoalesced(2);
+            release.countDown();
+            assertEquals("QUESTIONNAIRE", first.get(10, TimeUnit.SECONDS));
+            assertEquals("QUESTIONNAIRE", second.get(10, TimeUnit.SECONDS));
+            assertEquals("QUESTIONNAIRE", third.get(10, TimeUnit.SECONDS));
+            assertEquals(1, runs.get());
+            assertEquals(2, coalesced());
+            assertEquals(1, registry.get("pogues.transforms.requests")
+                    .tags("endpoint", "visualize", "coalesced", "false").counter().count());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void failureIsShared() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = request(executor, "visualize/q", "fail");
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            Future<String> second = request(executor, "visualize/q", "fail");
+            awaitCoalesced(1);
+            release.countDown();
+            for (Future<String> request : new Future[] { first, second }) {
+                Exception exception = assertThrows(Exception.class, () -> request.get(10, TimeUnit.SECONDS));
+                assertEquals("Expected error", exception.getCause().getMessage());
+            }
+            assertEquals(1, runs.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void sequentialRequestsRunAgain() throws Exception {
+        release.countDown();
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            inFlightTransformations.transform("visualize", "visualize/q", "questionnaire", pipeline("questionnaire"), output);
+            assertEquals("QUESTIONNAIRE", output.toString(StandardCharsets.UTF_8));
+        }
+        assertEquals(2, runs.get());
+    }
+
+}
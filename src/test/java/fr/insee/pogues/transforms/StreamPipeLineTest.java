@@ -0,0 +1,166 @@
+package fr.insee.pogues.transforms;
+
+import fr.insee.pogues.webservice.rest.PoguesException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamPipeLineTest {
+
+    private StreamPipeLineExecutor stageExecutor;
+
+    @BeforeEach
+    void setUp() {
+        stageExecutor = new StreamPipeLineExecutor(4);
+        stageExecutor.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        stageExecutor.shutdown();
+    }
+
+    /** Transformer copying its input, in upper case, one chunk at a time. */
+    private static class UpperCase implements Transformer {
+        @Override
+        public void transform(InputStream input, OutputStream output, Map<String, Object> params, String surveyName)
+                throws IOException {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(new String(buffer, 0, read, StandardCharsets.US_ASCII).toUpperCase()
+                        .getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+
+        @Override
+        public String transform(InputStream input, Map<String, Object> params, String surveyName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String transform(String input, Map<String, Object> params, String surveyName) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class Failing extends UpperCase {
+        @Override
+        public void transform(InputStream input, OutputStream output, Map<String, Object> params, String surveyName)
+                throws IOException {
+            output.write(input.readNBytes(10));
+            throw new IllegalStateException("Expected error");
+        }
+    }
+
+    private static class FirstLine extends UpperCase {
+        @Override
+        public void transform(InputStream input, OutputStream output, Map<String, Object> params, String surveyName)
+                throws IOException {
+            int b;
+            while ((b = input.read()) != '\n') {
+                output.write(b);
+            }
+        }
+    }
+
+    private static String largeDocument() {
+        return "first line\n" + "abcdefghij".repeat(500_000);
+    }
+
+    @Test
+    void passesThrough() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new StreamPipeLine(stageExecutor).from("some document").transform(output);
+        assertEquals("some document", output.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void stagesAreChained() throws Exception {
+        String document = largeDocument();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new StreamPipeLine(stageExecutor).from(document)
+                .map(new UpperCase(), null, null)
+                .map((String i, Map<String, Object> params, String survey) -> i + "-concat", null, null)
+                .map(new UpperCase(), null, null)
+                .transform(output);
+        assertEquals(document.toUpperCase() + "-CONCAT", output.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void firstFailureIsThrown() {
+        // The stage after the failing one gets a truncated input, the one before a closed pipe
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        StreamPipeLine pipeline = new StreamPipeLine(stageExecutor).from(largeDocument())
+                .map(new UpperCase(), null, null)
+                .map(new Failing(), null, null)
+                .map((String i, Map<String, Object> params, String survey) -> {
+                    throw new IllegalArgumentException("Truncated input");
+                }, null, null);
+        Exception exception = assertThrows(IllegalStateException.class, () -> pipeline.transform(output));
+        assertEquals("Expected error", exception.getMessage());
+    }
+
+    @Test
+    void stageMayNotReadItsWholeInput() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new StreamPipeLine(stageExecutor).from(largeDocument())
+                .map(new UpperCase(), null, null)
+                .map(new FirstLine(), null, null)
+                .transform(output);
+        assertEquals("FIRST LINE", output.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void stagesAreMeasured() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        String document = largeDocument();
+        new StreamPipeLine(stageExecutor, registry, "test").from(document)
+                .map(new UpperCase(), null, null)
+                .map(new FirstLine(), null, null)
+                .transform(new ByteArrayOutputStream());
+        assertEquals(1, registry.get("pogues.pipeline.stage.duration")
+                .tags("endpoint", "test", "stage", "UpperCase").timer().count());
+        assertEquals(document.length(), registry.get("pogues.pipeline.stage.input")
+                .tags("endpoint", "test", "stage", "UpperCase").summary().totalAmount());
+        assertEquals("FIRST LINE".length(), registry.get("pogues.pipeline.stage.output")
+                .tags("endpoint", "test", "stage", "FirstLine").summary().totalAmount());
+        assertEquals(1, registry.get("pogues.pipeline.stage.active")
+                .tags("endpoint", "test", "stage", "FirstLine").timer().count());
+    }
+
+    @Test
+    void onlyFirstFailureIsCounted() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        StreamPipeLine pipeline = new StreamPipeLine(stageExecutor, registry, "test").from(largeDocument())
+                .map(new UpperCase(), null, null)
+                .map(new Failing(), null, null)
+                .map(new UpperCase(), null, null);
+        assertThrows(IllegalStateException.class, () -> pipeline.transform(new ByteArrayOutputStream()));
+        assertEquals(1, registry.get("pogues.pipeline.stage.errors").counters().size());
+        assertEquals(1, registry.get("pogues.pipeline.stage.errors").tags("stage", "Failing").counter().count());
+    }
+
+    @Test
+    void pipelineIsRejectedWithoutStageThreads() {
+        // 6 stages: 5 of them on stage threads, one more than available
+        StreamPipeLine pipeline = new StreamPipeLine(stageExecutor).from(largeDocument());
+        for (int i = 0; i < 6; i++) {
+            pipeline.map(new UpperCase(), null, null);
+        }
+        PoguesException exception = assertThrows(PoguesException.class,
+                () -> pipeline.transform(new ByteArrayOutputStream()));
+        assertEquals(503, exception.getStatus());
+    }
+
+}
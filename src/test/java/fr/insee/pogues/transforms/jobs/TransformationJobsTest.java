@@ -0,0 +1,134 @@
+package fr.insee.pogues.transforms.jobs;
+
+import fr.insee.pogues.transforms.StreamPipeLine;
+import fr.insee.pogues.transforms.StreamPipeLineExecutor;
+import fr.insee.pogues.webservice.rest.PoguesException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransformationJobsTest {
+
+    @TempDir
+    Path tempDir;
+
+    private TransformationJobs transformationJobs;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final StreamPipeLineExecutor stageExecutor = new StreamPipeLineExecutor(4);
+
+    private TransformationJobs transformationJobs(int threads, int queueCapacity) throws Exception {
+        transformationJobs = new TransformationJobs();
+        transformationJobs.threads = threads;
+        transformationJobs.queueCapacity = queueCapacity;
+        transformationJobs.ttlMinutes = 30;
+        transformationJobs.resultsDir = tempDir.toString();
+        transformationJobs.init();
+        return transformationJobs;
+    }
+
+    @BeforeEach
+    void setUp() {
+        stageExecutor.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        transformationJobs.shutdown();
+        stageExecutor.shutdown();
+    }
+
+    /** Pipeline upper casing its input, once released. */
+    private StreamPipeLine pipeline(String input) {
+        return new StreamPipeLine(stageExecutor).from(input)
+                .map((String i, Map<String, Object> params, String survey) -> {
+                    release.await();
+                    return i.toUpperCase();
+                }, null, null);
+    }
+
+    private static TransformationJob awaitEnd(TransformationJob job) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!job.isEnded() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(job.isEnded());
+        return job;
+    }
+
+    @Test
+    void resultIsWrittenOnceDone() throws Exception {
+        TransformationJob job = transformationJobs(1, 1)
+                .submit("visualize", "questionnaire", pipeline("questionnaire"), "text/plain", null);
+        assertSame(job, transformationJobs.get(job.getId()));
+        assertFalse(job.isEnded());
+        release.countDown();
+        awaitEnd(job);
+        assertEquals(TransformationJob.Status.DONE, job.getStatus());
+        assertEquals("QUESTIONNAIRE", Files.readString(job.getResult()));
+    }
+
+    @Test
+    void identicalSubmissionsGetTheJobInProgress() throws Exception {
+        transformationJobs(1, 1);
+        TransformationJob job = transformationJobs.submit("visualize", "questionnaire", pipeline("questionnaire"), "text/plain", null);
+        assertSame(job, transformationJobs.submit("visualize", "questionnaire", pipeline("questionnaire"), "text/plain", null));
+        TransformationJob pdfJob = transformationJobs.submit("visualize-pdf", "questionnaire", pipeline("questionnaire"), "text/plain", null);
+        assertNotSame(job, pdfJob);
+        release.countDown();
+        awaitEnd(job);
+        // Out of the queue as well
+        awaitEnd(pdfJob);
+        // Ended: a new job
+        assertNotSame(job, transformationJobs.submit("visualize", "questionnaire", pipeline("questionnaire"), "text/plain", null));
+    }
+
+    @Test
+    void submissionsBeyondQueueCapacityAreRejected() throws Exception {
+        transformationJobs(1, 1);
+        transformationJobs.submit("visualize", "q1", pipeline("q1"), "text/plain", null);
+        transformationJobs.submit("visualize", "q2", pipeline("q2"), "text/plain", null);
+        PoguesException exception = assertThrows(PoguesException.class,
+                () -> transformationJobs.submit("visualize", "q3", pipeline("q3"), "text/plain", null));
+        assertEquals(503, exception.getStatus());
+    }
+
+    @Test
+    void failureIsRecorded() throws Exception {
+        StreamPipeLine failing = new StreamPipeLine(stageExecutor).from("questionnaire")
+                .map((String i, Map<String, Object> params, String survey) -> {
+                    throw new IllegalStateException("Expected error");
+                }, null, null);
+        TransformationJob job = awaitEnd(transformationJobs(1, 1)
+                .submit("visualize", "questionnaire", failing, "text/plain", null));
+        assertEquals(TransformationJob.Status.FAILED, job.getStatus());
+        assertEquals("Expected error", job.getError());
+        assertNull(job.getResult());
+    }
+
+    @Test
+    void expiredJobsAreDropped() throws Exception {
+        TransformationJob job = transformationJobs(1, 1)
+                .submit("visualize", "questionnaire", pipeline("questionnaire"), "text/plain", null);
+        release.countDown();
+        awaitEnd(job);
+        transformationJobs.cleanUp();
+        assertSame(job, transformationJobs.get(job.getId()));
+        transformationJobs.ttlMinutes = -1;
+        transformationJobs.cleanUp();
+        assertNull(transformationJobs.get(job.getId()));
+        assertFalse(Files.exists(job.getResult()));
+    }
+
+}
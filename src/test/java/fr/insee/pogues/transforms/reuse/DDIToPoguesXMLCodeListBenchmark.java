@@ -0,0 +1,93 @@
+package fr.insee.pogues.transforms.reuse;
+
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.Serializer;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XsltExecutable;
+import net.sf.saxon.s9api.XsltTransformer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call cost of the transformation of DDI code lists, with a processor created and the stylesheet compiled for
+ * each call (previous implementation) and with the stylesheet compiled once by {@link DDIToPoguesXMLCodeListImpl}.
+ * Run with the main method from the IDE, or from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DDIToPoguesXMLCodeListBenchmark {
+
+    private static final String XSLT_FILE_CODE_LIST = "transforms/xslt/ddi2xml-code-list.xsl";
+
+    @Param({"simple.xml", "hierarchical.xml", "large.xml"})
+    public String codeListFile;
+
+    private String ddi;
+    private DDIToPoguesXMLCodeListImpl ddiToXMLCodeList;
+
+    @Setup
+    public void setUp() throws Exception {
+        ddi = DDIToPoguesXMLCodeListImplTest.fixture(codeListFile);
+        ddiToXMLCodeList = new DDIToPoguesXMLCodeListImpl();
+    }
+
+    @Benchmark
+    public String compiledPerCall() throws Exception {
+        Processor processor = new Processor(false);
+        XsltExecutable xsl;
+        try (InputStream xslResource = getClass().getClassLoader().getResourceAsStream(XSLT_FILE_CODE_LIST)) {
+            xsl = processor.newXsltCompiler().compile(new StreamSource(xslResource));
+        }
+        return transform(processor, xsl);
+    }
+
+    @Benchmark
+    public String compiledOnce() throws Exception {
+        return ddiToXMLCodeList.transform(ddi, null, null);
+    }
+
+    private String transform(Processor processor, XsltExecutable xsl) throws SaxonApiException {
+        XdmNode source = processor.newDocumentBuilder().build(new StreamSource(new StringReader(ddi)));
+        XsltTransformer transformer = xsl.load();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Serializer serializer = processor.newSerializer(output);
+        serializer.setOutputProperty(Serializer.Property.INDENT, "yes");
+        serializer.setOutputProperty(Serializer.Property.OMIT_XML_DECLARATION, "yes");
+        transformer.setInitialContextNode(source);
+        transformer.setDestination(serializer);
+        transformer.transform();
+        return output.toString(StandardCharsets.UTF_8).trim();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DDIToPoguesXMLCodeListBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+
+}
@@ -0,0 +1,77 @@
+package fr.insee.pogues.transforms.reuse;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DDIToPoguesXMLCodeListImplTest {
+
+    private DDIToPoguesXMLCodeListImpl ddiToXMLCodeList;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ddiToXMLCodeList = new DDIToPoguesXMLCodeListImpl();
+    }
+
+    static String fixture(String name) throws IOException {
+        try (InputStream input = Objects.requireNonNull(DDIToPoguesXMLCodeListImplTest.class.getClassLoader()
+                .getResourceAsStream("transforms/DDIToPoguesXMLCodeList/" + name))) {
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static int count(String text, String fragment) {
+        return text.split(fragment, -1).length - 1;
+    }
+
+    @Test
+    void codeListIsTransformed() throws Exception {
+        String codeList = ddiToXMLCodeList.transform(fixture("simple.xml"), null, null);
+        assertTrue(codeList.startsWith("<CodeList"));
+        assertTrue(codeList.contains("id=\"cl-yes-no\""));
+        assertTrue(codeList.contains("<Name>OUI_NON</Name>"));
+        assertTrue(codeList.contains("<Label>Oui / Non / Ne sait pas</Label>"));
+        assertEquals(3, count(codeList, "<Code id="));
+        assertTrue(codeList.contains("<Label>Ne sait pas</Label>"));
+    }
+
+    @Test
+    void subCodesHaveTheirParent() throws Exception {
+        String codeList = ddiToXMLCodeList.transform(fixture("hierarchical.xml"), null, null);
+        assertEquals(12, count(codeList, "<Code id="));
+        assertEquals(9, count(codeList, "<Parent>"));
+        assertTrue(codeList.contains("<Parent>code-2</Parent>"));
+        assertTrue(codeList.contains("<Label>Activité 2.3</Label>"));
+    }
+
+    @Test
+    void compiledStylesheetIsSharedSafely() throws Exception {
+        String ddi = fixture("large.xml");
+        String expected = ddiToXMLCodeList.transform(ddi, null, null);
+        assertEquals(300, count(expected, "<Code id="));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> codeLists = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                codeLists.add(executor.submit(() -> ddiToXMLCodeList.transform(ddi, null, null)));
+            }
+            for (Future<String> codeList : codeLists) {
+                assertEquals(expected, codeList.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
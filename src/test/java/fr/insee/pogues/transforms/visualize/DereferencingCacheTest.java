@@ -0,0 +1,66 @@
+package fr.insee.pogues.transforms.visualize;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DereferencingCacheTest {
+
+    private static final String ROOT = "{\"id\": \"root\", \"childQuestionnaireRef\": [\"child\"]}";
+
+    private DereferencingCache dereferencingCache;
+
+    @BeforeEach
+    void setUp() {
+        dereferencingCache = new DereferencingCache();
+        dereferencingCache.enabled = true;
+        dereferencingCache.maxSize = 10;
+        dereferencingCache.init();
+    }
+
+    @Test
+    void keyIsTheHashOfTheQuestionnaire() {
+        assertEquals(DereferencingCache.key(ROOT), DereferencingCache.key(new String(ROOT)));
+        assertNotEquals(DereferencingCache.key(ROOT), DereferencingCache.key(ROOT + " "));
+        assertEquals(64, DereferencingCache.key(ROOT).length());
+    }
+
+    @Test
+    void hitWhileReferencedVersionsAreUnchanged() throws Exception {
+        String key = DereferencingCache.key(ROOT);
+        assertNull(dereferencingCache.get(key, ids -> Map.of("child", 1L)));
+        dereferencingCache.put(key, "root", Map.of("child", 1L), "dereferenced");
+        assertEquals("dereferenced", dereferencingCache.get(key, ids -> Map.of("child", 1L)));
+        assertEquals(1, dereferencingCache.hitCount());
+        assertEquals(1, dereferencingCache.missCount());
+    }
+
+    @Test
+    void missWhenAReferencedQuestionnaireHasChanged() throws Exception {
+        String key = DereferencingCache.key(ROOT);
+        dereferencingCache.put(key, "root", Map.of("child", 1L), "dereferenced");
+        assertNull(dereferencingCache.get(key, ids -> Map.of("child", 2L)));
+        // Deleted
+        dereferencingCache.put(key, "root", Map.of("child", 1L), "dereferenced");
+        assertNull(dereferencingCache.get(key, ids -> Map.of()));
+        assertEquals(2, dereferencingCache.missCount());
+    }
+
+    @Test
+    void updateOfAnyQuestionnaireInvolvedInvalidates() throws Exception {
+        String key = DereferencingCache.key(ROOT);
+        dereferencingCache.put(key, "root", Map.of("child", 1L), "dereferenced");
+        dereferencingCache.invalidate("other");
+        assertEquals("dereferenced", dereferencingCache.get(key, ids -> Map.of("child", 1L)));
+        dereferencingCache.invalidate("child");
+        assertNull(dereferencingCache.get(key, ids -> Map.of("child", 1L)));
+        dereferencingCache.put(key, "root", Map.of("child", 1L), "dereferenced");
+        dereferencingCache.invalidate("root");
+        assertNull(dereferencingCache.get(key, ids -> Map.of("child", 1L)));
+    }
+}
@@ -0,0 +1,109 @@
+package fr.insee.pogues.transforms.visualize;
+
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.ByteArrayResource;
+
+import fr.insee.pogues.config.StaticResourcesForFOPConfig;
+
+@ExtendWith(MockitoExtension.class)
+class FOToPDFImplTest {
+
+	private static final int RENDERINGS = 20;
+
+	// Uncompressed PDF streams, so that the page tree of each result can be checked
+	private static final String FOP_CONF = "<fop version=\"1.0\"><renderers><renderer mime=\"application/pdf\">"
+			+ "<filterList><value>null</value></filterList></renderer></renderers></fop>";
+
+	@TempDir
+	Path tempDir;
+
+	@Mock
+	StaticResourcesForFOPConfig staticResourcesForFOPConfig;
+
+	@InjectMocks
+	FOToPDFImpl foToPDF;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		when(staticResourcesForFOPConfig.getFopXconf()).thenReturn(new ByteArrayResource(FOP_CONF.getBytes(StandardCharsets.UTF_8)));
+		when(staticResourcesForFOPConfig.getImgFolderUri()).thenReturn(tempDir.toUri());
+		foToPDF.renderThreads = 4;
+		foToPDF.renderQueueCapacity = RENDERINGS;
+		foToPDF.init();
+	}
+
+	@AfterEach
+	void tearDown() {
+		foToPDF.shutdown();
+	}
+
+	private static String fo(int pages) {
+		StringBuilder fo = new StringBuilder("<fo:root xmlns:fo=\"http://www.w3.org/1999/XSL/Format\">"
+				+ "<fo:layout-master-set><fo:simple-page-master master-name=\"page\">"
+				+ "<fo:region-body/></fo:simple-page-master></fo:layout-master-set>"
+				+ "<fo:page-sequence master-reference=\"page\"><fo:flow flow-name=\"xsl-region-body\">");
+		for (int page = 1; page <= pages; page++) {
+			fo.append("<fo:block break-before=\"page\">Page ").append(page).append("</fo:block>");
+		}
+		return fo.append("</fo:flow></fo:page-sequence></fo:root>").toString();
+	}
+
+	@Test
+	void renderingsInParallelDoNotInterfere() throws Exception {
+		ExecutorService callers = Executors.newFixedThreadPool(RENDERINGS);
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			for (int i = 0; i < RENDERINGS; i++) {
+				int pages = i % 5 + 1;
+				Callable<String> call = () -> {
+					ByteArrayOutputStream output = new ByteArrayOutputStream();
+					foToPDF.transform(new ByteArrayInputStream(fo(pages).getBytes(StandardCharsets.UTF_8)), output, null, "pdf");
+					return output.toString(StandardCharsets.ISO_8859_1);
+				};
+				results.add(callers.submit(call));
+			}
+			for (int i = 0; i < RENDERINGS; i++) {
+				String pdf = results.get(i).get();
+				assertTrue(pdf.startsWith("%PDF-"));
+				assertTrue(pdf.contains("/Count " + (i % 5 + 1) + "\n"), "Rendering " + i);
+				assertTrue(pdf.stripTrailing().endsWith("%%EOF"));
+			}
+		} finally {
+			callers.shutdownNow();
+		}
+	}
+
+	@Test
+	void eachRenderingHasItsOwnFile() throws Exception {
+		String first = foToPDF.transform(fo(1), null, "pdf");
+		String second = foToPDF.transform(fo(2), null, "pdf");
+		assertNotEquals(first, second);
+		assertTrue(Files.readString(Path.of(first), StandardCharsets.ISO_8859_1).contains("/Count 1\n"));
+		assertTrue(Files.readString(Path.of(second), StandardCharsets.ISO_8859_1).contains("/Count 2\n"));
+		Files.delete(Path.of(first));
+		Files.delete(Path.of(second));
+	}
+}
@@ -3,12 +3,12 @@ package fr.insee.pogues.transforms.visualize;
 import fr.insee.pogues.conversion.JSONDeserializer;
 import fr.insee.pogues.conversion.JSONSerializer;
 import fr.insee.pogues.conversion.XMLSerializer;
+import fr.insee.pogues.exception.CyclicReferenceException;
 import fr.insee.pogues.exception.NullReferenceException;
 import fr.insee.pogues.model.*;
 import fr.insee.pogues.persistence.service.QuestionnairesService;
 import fr.insee.pogues.utils.PoguesSerializer;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
@@ -19,9 +19,12 @@ import java.io.OutputStream;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -30,6 +33,21 @@ import static org.junit.jupiter.api.Assertions.*;
  */
 class PoguesJSONToPoguesJSONDerefImplTest {
 
+    private final List<PoguesJSONToPoguesJSONDerefImpl> started = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        started.forEach(PoguesJSONToPoguesJSONDerefImpl::shutdown);
+    }
+
+    private PoguesJSONToPoguesJSONDerefImpl deref(QuestionnairesService questionnairesService) {
+        PoguesJSONToPoguesJSONDerefImpl deref = new PoguesJSONToPoguesJSONDerefImpl(questionnairesService);
+        deref.deserializationThreads = 2;
+        deref.init();
+        started.add(deref);
+        return deref;
+    }
+
     @Test
     void transform_nullCases() {
         //
@@ -77,12 +95,10 @@ class PoguesJSONToPoguesJSONDerefImplTest {
         String testedInput = Files.readString(Path.of(url.toURI()));
         // Mock questionnaire service
         QuestionnairesService questionnairesService = Mockito.mock(QuestionnairesService.class);
-        Mockito.when(questionnairesService.getQuestionnaireByID("l4i3m6qa")).thenReturn(null);
-        Mockito.when(questionnairesService.getQuestionnaireByID("l6dnlrka")).thenReturn(null);
-        Mockito.when(questionnairesService.getQuestionnaireByID("lct8pcsy")).thenReturn(null);
+        Mockito.when(questionnairesService.getQuestionnairesRawByIDs(Mockito.any())).thenReturn(Map.of());
 
         //
-        PoguesJSONToPoguesJSONDerefImpl deref = new PoguesJSONToPoguesJSONDerefImpl(questionnairesService);
+        PoguesJSONToPoguesJSONDerefImpl deref = deref(questionnairesService);
         assertThrows(NullReferenceException.class, () -> deref.transformAsQuestionnaire(testedInput));
     }
 
@@ -104,15 +120,13 @@ class PoguesJSONToPoguesJSONDerefImplTest {
         assert url1 != null;
         assert url2 != null;
         assert url3 != null;
-        JSONParser jsonParser = new JSONParser();
-        JSONObject jsonQuestionnaire1 = (JSONObject) jsonParser.parse(Files.readString(Path.of(url1.toURI())));
-        JSONObject jsonQuestionnaire2 = (JSONObject) jsonParser.parse(Files.readString(Path.of(url2.toURI())));
-        JSONObject jsonQuestionnaire3 = (JSONObject) jsonParser.parse(Files.readString(Path.of(url3.toURI())));
+        String jsonQuestionnaire1 = Files.readString(Path.of(url1.toURI()));
+        String jsonQuestionnaire2 = Files.readString(Path.of(url2.toURI()));
+        String jsonQuestionnaire3 = Files.readString(Path.of(url3.toURI()));
         // Mock questionnaire service
         QuestionnairesService questionnairesService = Mockito.mock(QuestionnairesService.class);
-        Mockito.when(questionnairesService.getQuestionnaireByID("l4i3m6qa")).thenReturn(jsonQuestionnaire1);
-        Mockito.when(questionnairesService.getQuestionnaireByID("l6dnlrka")).thenReturn(jsonQuestionnaire2);
-        Mockito.when(questionnairesService.getQuestionnaireByID("lct8pcsy")).thenReturn(jsonQuestionnaire3);
+        Mockito.when(questionnairesService.getQuestionnairesRawByIDs(Mockito.any())).thenReturn(Map.of(
+                "l4i3m6qa", jsonQuestionnaire1, "l6dnlrka", jsonQuestionnaire2, "lct8pcsy", jsonQuestionnaire3));
         // Read tested questionnaire
         URL url = classLoader.getResource(testRelativePath+"/lct78jr8.json");
         assert url != null;
@@ -120,7 +134,7 @@ class PoguesJSONToPoguesJSONDerefImplTest {
 
         // When
         // Apply de-referencing service
-        PoguesJSONToPoguesJSONDerefImpl deref = new PoguesJSONToPoguesJSONDerefImpl(questionnairesService);
+        PoguesJSONToPoguesJSONDerefImpl deref = deref(questionnairesService);
         Questionnaire outQuestionnaire = deref.transformAsQuestionnaire(testedInput);
 
         // Then
@@ -162,13 +176,12 @@ class PoguesJSONToPoguesJSONDerefImplTest {
         URL url2 = classLoader.getResource(testRelativePath+"/referenced2.json");
         assert url1 != null;
         assert url2 != null;
-        JSONParser jsonParser = new JSONParser();
-        JSONObject jsonQuestionnaire1 = (JSONObject) jsonParser.parse(Files.readString(Path.of(url1.toURI())));
-        JSONObject jsonQuestionnaire2 = (JSONObject) jsonParser.parse(Files.readString(Path.of(url2.toURI())));
+        String jsonQuestionnaire1 = Files.readString(Path.of(url1.toURI()));
+        String jsonQuestionnaire2 = Files.readString(Path.of(url2.toURI()));
         // Mock questionnaire service
         QuestionnairesService questionnairesService = Mockito.mock(QuestionnairesService.class);
-        Mockito.when(questionnairesService.getQuestionnaireByID("le2v7xet")).thenReturn(jsonQuestionnaire1);
-        Mockito.when(questionnairesService.getQuestionnaireByID("le8ffc6k")).thenReturn(jsonQuestionnaire2);
+        Mockito.when(questionnairesService.getQuestionnairesRawByIDs(Mockito.any())).thenReturn(Map.of(
+                "le2v7xet", jsonQuestionnaire1, "le8ffc6k", jsonQuestionnaire2));
         // Read tested questionnaire
         URL url = classLoader.getResource(testRelativePath+"/reference.json");
         assert url != null;
@@ -176,7 +189,7 @@ class PoguesJSONToPoguesJSONDerefImplTest {
 
         // When
         // Apply de-referencing service
-        PoguesJSONToPoguesJSONDerefImpl deref = new PoguesJSONToPoguesJSONDerefImpl(questionnairesService);
+        PoguesJSONToPoguesJSONDerefImpl deref = deref(questionnairesService);
         Questionnaire outQuestionnaire = deref.transformAsQuestionnaire(testedInput);
 
         // Then
@@ -211,11 +224,10 @@ class PoguesJSONToPoguesJSONDerefImplTest {
         ClassLoader classLoader = this.getClass().getClassLoader();
         URL referencedUrl = classLoader.getResource(testRelativePath+"/l4i3m6qa_referenced.json");
         assert referencedUrl != null;
-        JSONParser jsonParser = new JSONParser();
-        JSONObject referencedJson = (JSONObject) jsonParser.parse(Files.readString(Path.of(referencedUrl.toURI())));
+        String referencedJson = Files.readString(Path.of(referencedUrl.toURI()));
         // Mock questionnaire service
         QuestionnairesService questionnairesService = Mockito.mock(QuestionnairesService.class);
-        Mockito.when(questionnairesService.getQuestionnaireByID("l4i3m6qa")).thenReturn(referencedJson);
+        Mockito.when(questionnairesService.getQuestionnairesRawByIDs(Mockito.any())).thenReturn(Map.of("l4i3m6qa", referencedJson));
         // Read tested questionnaire
         URL referenceUrl = classLoader.getResource(testRelativePath+"/leybnsd0_reference.json");
         assert referenceUrl != null;
@@ -223,7 +235,7 @@ class PoguesJSONToPoguesJSONDerefImplTest {
 
         // When
         // Apply de-referencing service
-        PoguesJSONToPoguesJSONDerefImpl deref = new PoguesJSONToPoguesJSONDerefImpl(questionnairesService);
+        PoguesJSONToPoguesJSONDerefImpl deref = deref(questionnairesService);
         Questionnaire outQuestionnaire = deref.transformAsQuestionnaire(testedInput);
 
         // Then
@@ -252,16 +264,17 @@ class PoguesJSONToPoguesJSONDerefImplTest {
             String folderName, List<String> referencedFileNames, List<String> referenceIds) throws Exception {
         assert referencedFileNames.size() == referenceIds.size();
         String testRelativePath = TEST_FOLDER+folderName;
-        JSONParser jsonParser = new JSONParser();
         QuestionnairesService questionnairesService = Mockito.mock(QuestionnairesService.class);
+        Map<String, String> referencedQuestionnaires = new HashMap<>();
         for (int i=0; i<referencedFileNames.size(); i++) {
             // Load test questionnaire into json objects
             URL url = classLoader.getResource(testRelativePath+"/"+referencedFileNames.get(i));
             assert url != null;
-            JSONObject jsonQuestionnaire1 = (JSONObject) jsonParser.parse(Files.readString(Path.of(url.toURI())));
-            // Mock questionnaire service
-            Mockito.when(questionnairesService.getQuestionnaireByID(referenceIds.get(i))).thenReturn(jsonQuestionnaire1);
+            String jsonQuestionnaire1 = Files.readString(Path.of(url.toURI()));
+            referencedQuestionnaires.put(referenceIds.get(i), jsonQuestionnaire1);
         }
+        // Mock questionnaire service
+        Mockito.when(questionnairesService.getQuestionnairesRawByIDs(Mockito.any())).thenReturn(referencedQuestionnaires);
         return questionnairesService;
 
     }
@@ -281,7 +294,7 @@ class PoguesJSONToPoguesJSONDerefImplTest {
         String testedInput = readQuestionnaire(folderName, "lfqic931_reference.json");
 
         // When
-        PoguesJSONToPoguesJSONDerefImpl deref = new PoguesJSONToPoguesJSONDerefImpl(questionnairesService);
+        PoguesJSONToPoguesJSONDerefImpl deref = deref(questionnairesService);
         Questionnaire outQuestionnaire = deref.transformAsQuestionnaire(testedInput);
 
         // Then
@@ -302,7 +315,7 @@ class PoguesJSONToPoguesJSONDerefImplTest {
         String testedInput = readQuestionnaire(folderName, "lfqx2030_reference.json");
 
         // When
-        PoguesJSONToPoguesJSONDerefImpl deref = new PoguesJSONToPoguesJSONDerefImpl(questionnairesService);
+        PoguesJSONToPoguesJSONDerefImpl deref = deref(questionnairesService);
         Questionnaire outQuestionnaire = deref.transformAsQuestionnaire(testedInput);
 
         // Then
@@ -323,7 +336,7 @@ class PoguesJSONToPoguesJSONDerefImplTest {
         String testedInput = readQuestionnaire(folderName, "lftc9bn9_reference.json");
 
         // When
-        PoguesJSONToPoguesJSONDerefImpl deref = new PoguesJSONToPoguesJSONDerefImpl(questionnairesService);
+        PoguesJSONToPoguesJSONDerefImpl deref = deref(questionnairesService);
         Questionnaire outQuestionnaire = deref.transformAsQuestionnaire(testedInput);
 
         // Then
@@ -357,7 +370,7 @@ class PoguesJSONToPoguesJSONDerefImplTest {
         String testedInput = readQuestionnaire(folderName, "lgyr1y6x_host.json");
 
         // When
-        PoguesJSONToPoguesJSONDerefImpl deref = new PoguesJSONToPoguesJSONDerefImpl(questionnairesService);
+        PoguesJSONToPoguesJSONDerefImpl deref = deref(questionnairesService);
         Questionnaire outQuestionnaire = deref.transformAsQuestionnaire(testedInput);
 
         // Then
@@ -397,7 +410,7 @@ class PoguesJSONToPoguesJSONDerefImplTest {
         String testedInput = readQuestionnaire(folderName, "SRCV-20230418.json");
 
         // When
-        PoguesJSONToPoguesJSONDerefImpl deref = new PoguesJSONToPoguesJSONDerefImpl(questionnairesService);
+        PoguesJSONToPoguesJSONDerefImpl deref = deref(questionnairesService);
         Questionnaire outQuestionnaire = deref.transformAsQuestionnaire(testedInput);
 
         // Then
@@ -405,4 +418,100 @@ class PoguesJSONToPoguesJSONDerefImplTest {
         assertNotEquals("", PoguesSerializer.questionnaireJavaToString(outQuestionnaire));
     }
 
+    /**
+     * The referenced questionnaire 'lftc45n2' references itself 'lftdvxe6'.
+     * The result should be the same as when the root questionnaire references both. */
+    @Test
+    void dereference_nestedReferences() throws Exception {
+        // Given
+        String folderName = "nested_references";
+        QuestionnairesService questionnairesService = mockQuestionnaireService(
+                folderName,
+                List.of("lftc45n2_referencing.json", "lftdvxe6_referenced.json"),
+                List.of("lftc45n2", "lftdvxe6"));
+        String testedInput = readQuestionnaire(folderName, "lftc9bn9_reference.json");
+
+        // When
+        PoguesJSONToPoguesJSONDerefImpl deref = deref(questionnairesService);
+        Questionnaire outQuestionnaire = deref.transformAsQuestionnaire(testedInput);
+
+        // Then
+        assertEquals(3, outQuestionnaire.getChild().size());
+        assertEquals("REF1_S1", outQuestionnaire.getChild().get(0).getName());
+        assertEquals("REF2_S1", outQuestionnaire.getChild().get(1).getName());
+        assertEquals("idendquest", outQuestionnaire.getChild().get(2).getId());
+        // One query per level of the reference graph
+        Mockito.verify(questionnairesService).getQuestionnairesRawByIDs(Set.of("lftc45n2"));
+        Mockito.verify(questionnairesService).getQuestionnairesRawByIDs(Set.of("lftdvxe6"));
+    }
+
+    /**
+     * The root questionnaire references 'lftc45n2' and 'lfu2ref3', which both reference 'lftdvxe6'.
+     * 'lftdvxe6' is loaded once, but each of its insertions gets components of its own. */
+    @Test
+    void dereference_diamondReferences() throws Exception {
+        // Given
+        String folderName = "diamond_references";
+        QuestionnairesService questionnairesService = mockQuestionnaireService(
+                folderName,
+                List.of("lftc45n2_referencing.json", "lfu2ref3_referencing.json", "lftdvxe6_referenced.json"),
+                List.of("lftc45n2", "lfu2ref3", "lftdvxe6"));
+        String testedInput = readQuestionnaire(folderName, "lftc9bn9_reference.json");
+
+        // When
+        PoguesJSONToPoguesJSONDerefImpl deref = deref(questionnairesService);
+        Questionnaire outQuestionnaire = deref.transformAsQuestionnaire(testedInput);
+
+        // Then
+        assertEquals(5, outQuestionnaire.getChild().size());
+        assertEquals("REF1_S1", outQuestionnaire.getChild().get(0).getName());
+        assertEquals("REF2_S1", outQuestionnaire.getChild().get(1).getName());
+        assertEquals("REF3_S1", outQuestionnaire.getChild().get(2).getName());
+        assertEquals("REF2_S1", outQuestionnaire.getChild().get(3).getName());
+        assertEquals("idendquest", outQuestionnaire.getChild().get(4).getId());
+        assertNotSame(outQuestionnaire.getChild().get(1), outQuestionnaire.getChild().get(3));
+        // One query per level of the reference graph
+        Mockito.verify(questionnairesService).getQuestionnairesRawByIDs(Set.of("lftc45n2", "lfu2ref3"));
+        Mockito.verify(questionnairesService).getQuestionnairesRawByIDs(Set.of("lftdvxe6"));
+    }
+
+    @Test
+    void dereference_cyclicReferences() throws Exception {
+        // Given
+        QuestionnairesService questionnairesService = Mockito.mock(QuestionnairesService.class);
+        Mockito.when(questionnairesService.getQuestionnairesRawByIDs(Mockito.any())).thenReturn(Map.of(
+                "B", "{\"id\": \"B\", \"childQuestionnaireRef\": [\"C\"]}",
+                "C", "{\"id\": \"C\", \"childQuestionnaireRef\": [\"A\"]}"));
+        String testedInput = "{\"id\": \"A\", \"childQuestionnaireRef\": [\"B\"]}";
+
+        // When
+        PoguesJSONToPoguesJSONDerefImpl deref = deref(questionnairesService);
+        CyclicReferenceException exception = assertThrows(CyclicReferenceException.class,
+                () -> deref.transformAsQuestionnaire(testedInput));
+
+        // Then
+        assertTrue(exception.getMessage().contains("A -> B -> C -> A"));
+    }
+
+    @Test
+    void dereference_cached() throws Exception {
+        // Given
+        String testedInput = "{\"id\": \"A\", \"childQuestionnaireRef\": [\"B\"]}";
+        QuestionnairesService questionnairesService = Mockito.mock(QuestionnairesService.class);
+        Mockito.when(questionnairesService.getQuestionnaireVersions(Set.of("B"))).thenReturn(Map.of("B", 3L));
+        DereferencingCache dereferencingCache = new DereferencingCache();
+        dereferencingCache.enabled = true;
+        dereferencingCache.maxSize = 10;
+        dereferencingCache.init();
+        dereferencingCache.put(DereferencingCache.key(testedInput), "A", Map.of("B", 3L), "dereferenced A");
+
+        // When
+        PoguesJSONToPoguesJSONDerefImpl deref = deref(questionnairesService);
+        deref.dereferencingCache = dereferencingCache;
+
+        // Then
+        assertEquals("dereferenced A", deref.transform(testedInput, Map.of("needDeref", true), "A"));
+        Mockito.verify(questionnairesService, Mockito.never()).getQuestionnairesRawByIDs(Mockito.any());
+    }
+
 }
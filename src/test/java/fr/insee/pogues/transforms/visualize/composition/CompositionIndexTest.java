@@ -0,0 +1,58 @@
+package fr.insee.pogues.transforms.visualize.composition;
+
+import fr.insee.pogues.model.Questionnaire;
+import fr.insee.pogues.model.SequenceType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompositionIndexTest {
+
+    private final Questionnaire questionnaire = new Questionnaire();
+    private final Questionnaire referenced1 = new Questionnaire();
+    private final Questionnaire referenced2 = new Questionnaire();
+
+    @BeforeEach
+    public void createQuestionnaires() {
+        QuestionnaireCompositionTest.questionnairesContent(questionnaire, referenced1, referenced2);
+        // seq1, ref1, ref2, seq2, fake last sequence
+    }
+
+    @Test
+    void referencePosition() {
+        assertEquals(1, new CompositionIndex(questionnaire, referenced1).referencePosition());
+        assertEquals(2, new CompositionIndex(questionnaire, referenced2).referencePosition());
+    }
+
+    @Test
+    void referenceInBounds() {
+        CompositionIndex index = new CompositionIndex(questionnaire, referenced2);
+        assertTrue(index.isReferenceInBounds("seq1", "seq2"));
+        assertTrue(index.isReferenceInBounds("ref2", "ref2"));
+        assertTrue(index.isReferenceInBounds("ref1", "ref2"));
+        assertFalse(index.isReferenceInBounds("seq1", "ref1"));
+        assertFalse(index.isReferenceInBounds("seq2", "seq2"));
+        assertFalse(index.isReferenceInBounds("unknown", "seq2"));
+    }
+
+    @Test
+    void referenceNotInQuestionnaire() {
+        Questionnaire other = new Questionnaire();
+        other.setId("other");
+        CompositionIndex index = new CompositionIndex(questionnaire, other);
+        assertFalse(index.isReferenceInBounds("seq1", "seq2"));
+        assertEquals(questionnaire.getChild().size(), index.referencePosition());
+    }
+
+    @Test
+    void referencedLastSequence() {
+        SequenceType sequence12 = new SequenceType();
+        sequence12.setId("seq12");
+        referenced1.getChild().add(sequence12);
+        CompositionIndex index = new CompositionIndex(questionnaire, referenced1);
+        assertEquals(2, index.referencedSequences().size());
+        assertEquals("seq12", index.referencedLastSequenceId());
+    }
+
+}
@@ -0,0 +1,220 @@
+package fr.insee.pogues.transforms.visualize.composition;
+
+import fr.insee.pogues.exception.DeReferencingException;
+import fr.insee.pogues.exception.IllegalFlowControlException;
+import fr.insee.pogues.exception.IllegalIterationException;
+import fr.insee.pogues.model.*;
+import fr.insee.pogues.utils.PoguesModelUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static fr.insee.pogues.utils.PoguesModelUtils.getFlowControlBounds;
+import static fr.insee.pogues.utils.PoguesModelUtils.getIterationBounds;
+import static fr.insee.pogues.utils.PoguesModelUtils.getSequences;
+
+/**
+ * Cost of the insertion of a reference in a large questionnaire (components, filters and loops around the
+ * reference), with the steps scanning the questionnaires for each filter / loop (previous implementation,
+ * reproduced below) and with the index built once per composition.
+ * Run with the main method from the IDE, or from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuestionnaireCompositionBenchmark {
+
+    /** Number of sequences in the referencing questionnaire, and in the referenced one. */
+    @Param({"1000", "5000"})
+    public int components;
+
+    /** Number of filters and of loops in the referencing questionnaire. */
+    @Param({"2000"})
+    public int filters;
+
+    private Questionnaire questionnaire;
+    private Questionnaire referencedQuestionnaire;
+
+    // The composition modifies the questionnaires: new ones for each call
+    @Setup(Level.Invocation)
+    public void setUp() {
+        referencedQuestionnaire = referencedQuestionnaire(components);
+        questionnaire = referencingQuestionnaire(components, filters, referencedQuestionnaire);
+    }
+
+    @Benchmark
+    public Questionnaire linearScans() throws Exception {
+        LinearScans.updateReferencedVariablesScope(questionnaire, referencedQuestionnaire);
+        LinearScans.insertSequences(questionnaire, referencedQuestionnaire);
+        new InsertVariables().apply(questionnaire, referencedQuestionnaire);
+        new InsertCodeLists().apply(questionnaire, referencedQuestionnaire);
+        LinearScans.updateFlowControlBounds(questionnaire, referencedQuestionnaire);
+        new InsertFlowControls().apply(questionnaire, referencedQuestionnaire);
+        LinearScans.updateIterationBounds(questionnaire, referencedQuestionnaire);
+        new InsertIterations().apply(questionnaire, referencedQuestionnaire);
+        return questionnaire;
+    }
+
+    @Benchmark
+    public Questionnaire indexed() throws DeReferencingException {
+        QuestionnaireComposition.insertReference(questionnaire, referencedQuestionnaire);
+        return questionnaire;
+    }
+
+    private static Questionnaire referencedQuestionnaire(int components) {
+        Questionnaire referenced = new Questionnaire();
+        referenced.setId("ref");
+        for (int i = 0; i < components; i++) {
+            referenced.getChild().add(sequence("refSeq" + i));
+        }
+        referenced.getChild().add(sequence(PoguesModelUtils.FAKE_LAST_ELEMENT_ID));
+        referenced.setVariables(new Questionnaire.Variables());
+        for (int i = 0; i < components; i++) {
+            VariableType variable = new CollectedVariableType();
+            variable.setName("REF_VAR" + i);
+            referenced.getVariables().getVariable().add(variable);
+        }
+        return referenced;
+    }
+
+    /**
+     * Sequences with the reference in the middle, filters and loops around it, ending on the reference
+     * (so that their bounds are updated), and the loops declared before the one containing the reference.
+     */
+    private static Questionnaire referencingQuestionnaire(int components, int filters, Questionnaire referenced) {
+        Questionnaire questionnaire = new Questionnaire();
+        questionnaire.setId("questionnaire");
+        int middle = components / 2;
+        for (int i = 0; i < components; i++) {
+            if (i == middle) {
+                questionnaire.getChild().add(referenced);
+            }
+            questionnaire.getChild().add(sequence("seq" + i));
+        }
+        questionnaire.getChild().add(sequence(PoguesModelUtils.FAKE_LAST_ELEMENT_ID));
+        questionnaire.setVariables(new Questionnaire.Variables());
+        questionnaire.setIterations(new Questionnaire.Iterations());
+        for (int i = 0; i < filters; i++) {
+            String begin = "seq" + (i % middle);
+            FlowControlType flowControl = new FlowControlType();
+            flowControl.setId("filter" + i);
+            flowControl.setIfTrue(begin + "-ref");
+            questionnaire.getFlowControl().add(flowControl);
+            IterationType iteration = new DynamicIterationType();
+            iteration.setId("loop" + i);
+            // Only the last loop contains the reference
+            iteration.getMemberReference().add(i == filters - 1 ? begin : "seq" + (middle + i % middle));
+            iteration.getMemberReference().add(i == filters - 1 ? "ref" : "seq" + (components - 1));
+            questionnaire.getIterations().getIteration().add(iteration);
+        }
+        return questionnaire;
+    }
+
+    private static SequenceType sequence(String id) {
+        SequenceType sequence = new SequenceType();
+        sequence.setId(id);
+        return sequence;
+    }
+
+    /** Previous implementation of the steps that scan the questionnaires. */
+    private static class LinearScans {
+
+        static void insertSequences(Questionnaire questionnaire, Questionnaire referencedQuestionnaire) {
+            List<ComponentType> refSequences = getSequences(referencedQuestionnaire);
+            int indexOfModification = 0;
+            for (ComponentType seq : questionnaire.getChild()) {
+                if (seq.getId().equals(referencedQuestionnaire.getId())) {
+                    break;
+                }
+                indexOfModification++;
+            }
+            questionnaire.getChild().remove(indexOfModification);
+            for (int i = 0; i < refSequences.size(); i++) {
+                questionnaire.getChild().add(indexOfModification,
+                        referencedQuestionnaire.getChild().get(refSequences.size() - 1 - i));
+            }
+        }
+
+        static void updateReferencedVariablesScope(Questionnaire questionnaire, Questionnaire referencedQuestionnaire)
+                throws IllegalIterationException {
+            for (IterationType iterationType : questionnaire.getIterations().getIteration()) {
+                List<String> iterationBounds = getIterationBounds(iterationType);
+                boolean inScope = false;
+                for (ComponentType component : questionnaire.getChild()) {
+                    if (iterationBounds.get(0).equals(component.getId())) {
+                        inScope = true;
+                    }
+                    if (referencedQuestionnaire.getId().equals(component.getId())) {
+                        if (inScope) {
+                            referencedQuestionnaire.getVariables().getVariable().stream()
+                                    .filter(variable -> variable.getScope() == null)
+                                    .forEach(variable -> variable.setScope(iterationType.getId()));
+                            return;
+                        }
+                        break;
+                    }
+                    if (iterationBounds.get(1).equals(component.getId())) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        static void updateFlowControlBounds(Questionnaire questionnaire, Questionnaire referencedQuestionnaire)
+                throws IllegalFlowControlException {
+            for (FlowControlType flowControlType : questionnaire.getFlowControl()) {
+                String[] bounds = getFlowControlBounds(flowControlType);
+                String beginMember = bounds[0];
+                String endMember = bounds[1];
+                if (beginMember.equals(referencedQuestionnaire.getId())) {
+                    beginMember = referencedQuestionnaire.getChild().get(0).getId();
+                }
+                if (endMember.equals(referencedQuestionnaire.getId())) {
+                    List<ComponentType> referenceSequences = getSequences(referencedQuestionnaire);
+                    endMember = referenceSequences.get(referenceSequences.size() - 1).getId();
+                }
+                flowControlType.setIfTrue(beginMember + "-" + endMember);
+            }
+        }
+
+        static void updateIterationBounds(Questionnaire questionnaire, Questionnaire referencedQuestionnaire)
+                throws IllegalIterationException {
+            for (IterationType iterationType : questionnaire.getIterations().getIteration()) {
+                List<String> iterationBounds = getIterationBounds(iterationType);
+                if (iterationBounds.get(0).equals(referencedQuestionnaire.getId())) {
+                    iterationBounds.set(0, referencedQuestionnaire.getChild().get(0).getId());
+                }
+                if (iterationBounds.get(1).equals(referencedQuestionnaire.getId())) {
+                    List<ComponentType> referenceSequences = getSequences(referencedQuestionnaire);
+                    iterationBounds.set(1, referenceSequences.get(referenceSequences.size() - 1).getId());
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(QuestionnaireCompositionBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+
+}
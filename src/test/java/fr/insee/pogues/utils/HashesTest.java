@@ -0,0 +1,30 @@
+package fr.insee.pogues.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashesTest {
+
+    @Test
+    void sha256_hexadecimal() {
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", Hashes.sha256("abc"));
+    }
+
+    @Test
+    void sha256_partsAreSeparated() {
+        assertNotEquals(Hashes.sha256("ab", "c"), Hashes.sha256("a", "bc"));
+        assertNotEquals(Hashes.sha256("abc"), Hashes.sha256("ab", "c"));
+    }
+
+    @Test
+    void sha256Digest_updatedWithTheLastPart() {
+        MessageDigest digest = Hashes.sha256Digest("fo");
+        digest.update("<DDI/>".getBytes(StandardCharsets.UTF_8));
+        assertEquals(Hashes.sha256("fo", "<DDI/>"), Hashes.hex(digest));
+    }
+
+}
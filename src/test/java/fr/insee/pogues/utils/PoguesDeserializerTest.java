@@ -35,4 +35,18 @@ class PoguesDeserializerTest {
         assertEquals("foo", result.getId());
     }
 
+    @Test
+    void deserializeString_invalidString() {
+        assertThrows(PoguesDeserializationException.class, () ->
+                PoguesDeserializer.questionnaireToJavaObject("{\"foo\":\"bar\"}"));
+        assertThrows(PoguesDeserializationException.class, () ->
+                PoguesDeserializer.questionnaireToJavaObject("{\"id\":"));
+    }
+
+    @Test
+    void deserializeString_simplestCase() throws PoguesDeserializationException {
+        Questionnaire result = PoguesDeserializer.questionnaireToJavaObject("{\"id\":\"foo\"}");
+        assertEquals("foo", result.getId());
+    }
+
 }
@@ -0,0 +1,105 @@
+package fr.insee.pogues.utils;
+
+import fr.insee.pogues.model.Questionnaire;
+import org.eclipse.persistence.jaxb.MarshallerProperties;
+import org.eclipse.persistence.jaxb.UnmarshallerProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call cost of the json (de)serialization of questionnaires, with a JAXB context created for each call
+ * (previous implementation) and with the shared contexts of {@link PoguesJAXBContexts}.
+ * Run with the main method from the IDE, or from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PoguesJAXBContextsBenchmark {
+
+    @Param({
+            "transforms/PoguesJSONToPoguesJSONDeref/SRCV/SRCV-20230418.json",
+            "transforms/PoguesJSONToPoguesJSONDeref/two_references/lftc9bn9_reference.json"})
+    public String questionnaireFile;
+
+    private byte[] jsonQuestionnaire;
+    private Questionnaire questionnaire;
+
+    @Setup
+    public void setUp() throws IOException, JAXBException {
+        try (InputStream inputStream = Objects.requireNonNull(
+                getClass().getClassLoader().getResourceAsStream(questionnaireFile))) {
+            jsonQuestionnaire = inputStream.readAllBytes();
+        }
+        questionnaire = deserializeSharedContext();
+    }
+
+    @Benchmark
+    public Questionnaire deserializeNewContext() throws JAXBException {
+        JAXBContext context = JAXBContext.newInstance(Questionnaire.class);
+        Unmarshaller unmarshaller = context.createUnmarshaller();
+        unmarshaller.setProperty(UnmarshallerProperties.MEDIA_TYPE, "application/json");
+        unmarshaller.setProperty(UnmarshallerProperties.JSON_INCLUDE_ROOT, false);
+        return unmarshaller.unmarshal(new StreamSource(new ByteArrayInputStream(jsonQuestionnaire)), Questionnaire.class)
+                .getValue();
+    }
+
+    @Benchmark
+    public Questionnaire deserializeSharedContext() throws JAXBException {
+        return PoguesJAXBContexts.jsonUnmarshaller()
+                .unmarshal(new StreamSource(new ByteArrayInputStream(jsonQuestionnaire)), Questionnaire.class)
+                .getValue();
+    }
+
+    @Benchmark
+    public String serializeNewContext() throws JAXBException {
+        JAXBContext context = JAXBContext.newInstance(Questionnaire.class);
+        Marshaller marshaller = context.createMarshaller();
+        marshaller.setProperty(MarshallerProperties.MEDIA_TYPE, "application/json");
+        marshaller.setProperty(MarshallerProperties.JSON_INCLUDE_ROOT, false);
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        marshaller.marshal(questionnaire, outputStream);
+        return outputStream.toString(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String serializeSharedContext() {
+        return PoguesSerializer.questionnaireJavaToString(questionnaire);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PoguesJAXBContextsBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+
+}
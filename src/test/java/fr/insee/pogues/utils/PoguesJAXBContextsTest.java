@@ -0,0 +1,36 @@
+package fr.insee.pogues.utils;
+
+import org.junit.jupiter.api.Test;
+
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class PoguesJAXBContextsTest {
+
+    @Test
+    void unmarshallerIsReusedWithinAThread() throws Exception {
+        Unmarshaller unmarshaller = PoguesJAXBContexts.jsonUnmarshaller();
+        assertSame(unmarshaller, PoguesJAXBContexts.jsonUnmarshaller());
+        Unmarshaller otherThreadUnmarshaller = CompletableFuture.supplyAsync(() -> {
+            try {
+                return PoguesJAXBContexts.jsonUnmarshaller();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }).get();
+        assertNotSame(unmarshaller, otherThreadUnmarshaller);
+    }
+
+    @Test
+    void marshallersAreReusedWithinAThread() throws Exception {
+        Marshaller marshaller = PoguesJAXBContexts.jsonMarshaller();
+        assertSame(marshaller, PoguesJAXBContexts.jsonMarshaller());
+        assertNotSame(marshaller, PoguesJAXBContexts.variablesJsonMarshaller());
+        assertSame(PoguesJAXBContexts.variablesJsonMarshaller(), PoguesJAXBContexts.variablesJsonMarshaller());
+    }
+
+}
@@ -0,0 +1,36 @@
+package fr.insee.pogues.utils.json;
+
+import fr.insee.pogues.exception.PoguesDeserializationException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuestionnaireHeaderTest {
+
+    @Test
+    void scan_idAndReferences() throws PoguesDeserializationException {
+        String json = "{\"owner\": \"me\", \"Child\": [{\"id\": \"seq1\", \"childQuestionnaireRef\": [\"no\"]}], " +
+                "\"id\": \"q1\", \"childQuestionnaireRef\": [\"ref1\", \"ref2\"], \"Variables\": {\"Variable\": []}}";
+        QuestionnaireHeader header = QuestionnaireHeader.scan(json);
+        assertEquals("q1", header.getId());
+        assertEquals(List.of("ref1", "ref2"), header.getChildReferences());
+    }
+
+    @Test
+    void scan_noReferences() throws PoguesDeserializationException {
+        QuestionnaireHeader header = QuestionnaireHeader.scan("{\"id\": \"q1\", \"Child\": []}");
+        assertEquals("q1", header.getId());
+        assertTrue(header.getChildReferences().isEmpty());
+        assertNull(QuestionnaireHeader.scan("{\"foo\": \"bar\"}").getId());
+    }
+
+    @Test
+    void scan_invalid() {
+        assertThrows(PoguesDeserializationException.class, () -> QuestionnaireHeader.scan("[]"));
+        assertThrows(PoguesDeserializationException.class, () -> QuestionnaireHeader.scan("{\"id\": {}}"));
+        assertThrows(PoguesDeserializationException.class, () -> QuestionnaireHeader.scan("{\"Child\": [}"));
+    }
+
+}